@@ -8,6 +8,17 @@
 <script type="text/javascript" src="../js/post.js"></script>
 </head>
 
+<?php
+    include_once "../scripts/ClienteWS.php";
+
+    // Senha da sala de espera: a compra so passa depois que ela for admitida
+    try {
+        $oClienteWS = new ClienteWS();
+        $senha = $oClienteWS->entrarSalaEspera();
+    } catch (Exception $e) {
+        $senha = "";
+    }
+?>
 <body>
 <div class="conteudo">	
 	<div class="base-central">	
@@ -20,6 +31,9 @@
            <h2><?php echo $_GET["filme"];?></h2>
             <div class="base-formulario">	
                 <form name="form_compra" id="form_compra" onsubmit="return false;">
+                    <input name="txt_senha" value="<?php echo htmlspecialchars($senha);?>" type="hidden">
+                    <input name="txt_chave_compra" value="<?php echo bin2hex(random_bytes(16));?>" type="hidden">
+
                     <label>Numero do Assento</label>
                         <input style="width: 65px;" maxlength="4" name="txt_assento" value="" type="text" placeholder="EX: 10,A">
 
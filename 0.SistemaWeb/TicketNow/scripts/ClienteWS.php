@@ -6,13 +6,19 @@
         public function __construct() {
             $this->carregarConfiguracoesWebService();
             
-            $this->clienteWS = new SoapClient("http://".$GLOBALS["ipServidor"].":".$GLOBALS["portaServidor"]."/ticketnowws?wsdl");
+            // O WS recebe o prazo no cabecalho X-Prazo-Ms e o repassa as chamadas
+            // ao Espaco de Tuplas, a fila e ao RMI; o PHP desiste no mesmo prazo
+            ini_set("default_socket_timeout", ceil($GLOBALS["prazoMs"] / 1000));
+            $contexto = stream_context_create(array("http" => array("header" => "X-Prazo-Ms: ".$GLOBALS["prazoMs"])));
+            $this->clienteWS = new SoapClient("http://".$GLOBALS["ipServidor"].":".$GLOBALS["portaServidor"]."/ticketnowws?wsdl",
+                array("stream_context" => $contexto, "connection_timeout" => 5));
             //echo "Cliente do WS conectado<br>";
         }
 
         private function carregarConfiguracoesWebService() {
             $GLOBALS["portaServidor"] = 56000;
             $GLOBALS["ipServidor"] = "172.16.0.114";   
+            $GLOBALS["prazoMs"] = 10000;
         }
 
         public function consultarTodosAssentos() {
@@ -23,10 +29,66 @@
             return $this->clienteWS->comprarIngresso($numeroAssento, $letraFileira, $codCartao, $dataVencimento, $digitoVerificador);
         }
 
+        public function comprarAssentoIdempotente($chave, $numeroAssento, $letraFileira, $codCartao, $dataVencimento, $digitoVerificador) {
+            return $this->clienteWS->comprarIngressoIdempotente($chave, $numeroAssento, $letraFileira, $codCartao, $dataVencimento, $digitoVerificador);
+        }
+
         public function consultarAssento($numeroAssento, $letraFileira) {
             return$this->clienteWS->consultarAssento($numeroAssento, $letraFileira);
         }
 
+        public function consultarQuantidadeAssentosLivres($sessao) {
+            return $this->clienteWS->consultarQuantidadeAssentosLivres($sessao);
+        }
+
+        public function consultarQuantidadeAssentosPorFileira($sessao) {
+            return $this->clienteWS->consultarQuantidadeAssentosPorFileira($sessao);
+        }
+
+        public function disponibilizarFilme($titulo) {
+            return $this->clienteWS->disponibilizarFilme($titulo);
+        }
+
+        public function liberarAssento($titulo, $numeroAssento, $letraFileira) {
+            return $this->clienteWS->liberarAssento($titulo, $numeroAssento, $letraFileira);
+        }
+
+        public function entrarSalaEspera() {
+            return $this->clienteWS->entrarSalaEspera();
+        }
+
+        public function consultarPosicaoSalaEspera($senha) {
+            return $this->clienteWS->consultarPosicaoSalaEspera($senha);
+        }
+
+        public function comprarAssentoComSenha($senha, $numeroAssento, $letraFileira, $codCartao, $dataVencimento, $digitoVerificador) {
+            return $this->clienteWS->comprarIngressoComSenha($senha, $numeroAssento, $letraFileira, $codCartao, $dataVencimento, $digitoVerificador);
+        }
+
+        public function consultarCatalogo() {
+            return $this->clienteWS->consultarCatalogo();
+        }
+
+        public function consultarFilmePorTitulo($titulo) {
+            return $this->clienteWS->consultarFilmePorTitulo($titulo);
+        }
+
+        public function consultarFilmesPorGenero($genero) {
+            return $this->clienteWS->consultarFilmesPorGenero($genero);
+        }
+
+        public function consultarFilmesPorAno($anoInicial, $anoFinal = null) {
+            return $this->clienteWS->consultarFilmesPorAno($anoInicial, $anoFinal);
+        }
+
+        public function consultarFilmesPorAvaliacao($avaliacaoMinima, $avaliacaoMaxima) {
+            return $this->clienteWS->consultarFilmesPorAvaliacao($avaliacaoMinima, $avaliacaoMaxima);
+        }
+
+        public function consultarFilmesPorDiretor($diretor) {
+            return $this->clienteWS->consultarFilmesPorDiretor($diretor);
+        }
+
     }
 
 
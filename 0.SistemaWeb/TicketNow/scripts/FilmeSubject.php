@@ -3,6 +3,7 @@
 
     include_once "../Database/logicas/lFilmeSubscriber.php";
     include_once "InscritoObserver.php";
+    include_once "ClienteWS.php";
 
     class FilmeSubject {
         private $favoritePatterns = NULL;
@@ -27,6 +28,15 @@
         }
         
         function notify() {
+            // O Web Service publica o aviso no topico e o ServicoAvisos entrega aos inscritos
+            try {
+                $oClienteWS = new \ClienteWS();
+                $oClienteWS->disponibilizarFilme($this->nomeFilme);
+                return;
+            } catch (\Exception $e) {
+                // Sem o Web Service, avisa daqui mesmo
+            }
+
             $oFilmeSubscriber = new lFilmeSubscriber();
             $ListaFilmeSubscriber = $oFilmeSubscriber->getFilmeSubscriberByTitulo($this->nomeFilme);
 
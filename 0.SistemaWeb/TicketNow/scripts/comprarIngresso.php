@@ -12,5 +12,20 @@
     $digitoVerificador = $_POST["txt_digito_cartao"];
 
 
-    echo "<br><br><h3>".$oClienteWS->comprarAssento($numeroAssento, $letraFileira, $codCartao, $dataVencimento, $digitoVerificador)."</h3>";
+    // A senha da sala de espera vem do formulario e compra um ingresso so;
+    // clicar de novo no mesmo assento devolve o resultado da primeira compra
+    if(!empty($_POST["txt_senha"])) {
+        $senha = $_POST["txt_senha"];
+        echo "<br><br><h3>".$oClienteWS->comprarAssentoComSenha($senha, $numeroAssento, $letraFileira, $codCartao, $dataVencimento, $digitoVerificador)."</h3>";
+        $posicao = explode(":", $oClienteWS->consultarPosicaoSalaEspera($senha));
+        if($posicao[0] == "AGUARDANDO") {
+            echo "<p>Posição na sala de espera: ".$posicao[1]." (cerca de ".$posicao[2]." s)</p>";
+        }
+    } else if(!empty($_POST["txt_chave_compra"])) {
+        // Sem senha (o WS nao respondeu ao abrir a pagina): so passa fora de uma venda com sala de espera
+        $chave = $_POST["txt_chave_compra"].":".$numeroAssento.$letraFileira;
+        echo "<br><br><h3>".$oClienteWS->comprarAssentoIdempotente($chave, $numeroAssento, $letraFileira, $codCartao, $dataVencimento, $digitoVerificador)."</h3>";
+    } else {
+        echo "<br><br><h3>".$oClienteWS->comprarAssento($numeroAssento, $letraFileira, $codCartao, $dataVencimento, $digitoVerificador)."</h3>";
+    }
 ?>
\ No newline at end of file
@@ -0,0 +1,159 @@
+package ticketnowws;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import metricas.Metricas;
+import org.mozartspaces.core.MzsCoreException;
+
+/**
+ * Resultados recentes das compras, pela chave de idempotencia que o cliente
+ * mandou.
+ *
+ * Se o PHP reenviar uma compra (tempo esgotado, clique repetido) com a mesma
+ * chave, o resultado guardado e devolvido sem tocar no Espaco de Tuplas, na
+ * fila ou no RMI. Um reenvio que chega enquanto a primeira compra ainda esta
+ * em andamento espera por ela em vez de comecar outra.
+ *
+ * O cache e limitado: as chaves vencem depois de "validade" segundos e, se
+ * passar de "capacidade" chaves, as mais antigas saem primeiro. Compras que
+ * terminaram em excecao ou com uma resposta passageira (sistema ocupado,
+ * servico indisponivel, fora da vez) nao ficam guardadas, para que o reenvio
+ * possa tentar de novo.
+ *
+ * Configurado pelo arquivo config_Idempotencia.txt: "capacidade:validadeS"
+ * (padrao 10000:600).
+ */
+public class CacheIdempotencia {
+
+    /** Uma compra, do jeito que o TicketNow a executa. */
+    public interface Compra {
+        String executar() throws MzsCoreException, IOException;
+    }
+
+    private static final class Entrada {
+        final String chave;
+        final long criadaEm = System.currentTimeMillis();
+        final CompletableFuture<String> resultado = new CompletableFuture<String>();
+
+        Entrada(String chave) {
+            this.chave = chave;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entrada> entradas = new ConcurrentHashMap<String, Entrada>();
+    // Chaves em ordem de chegada, para vencer e despejar as mais antigas
+    private final ConcurrentLinkedQueue<Entrada> ordem = new ConcurrentLinkedQueue<Entrada>();
+    private final AtomicInteger tamanhoOrdem = new AtomicInteger();
+    private final LongAdder repetidas = Metricas.contador("ws.idempotencia.repetidas");
+    private int capacidade = 10000;
+    private long validadeMs = 600000;
+
+    public CacheIdempotencia() {
+        carregarConfiguracoes();
+        Metricas.medidor("ws.idempotencia.chaves", entradas::size);
+    }
+
+    /**
+     * Executa a compra, a menos que a chave ja tenha sido usada: nesse caso
+     * devolve o resultado da primeira execucao (esperando por ela, se ainda
+     * estiver em andamento). Sem chave, so executa.
+     *
+     * @param naoGuardar
+     *            Resultados passageiros, que nao devem ficar no cache (ex.:
+     *            compra recusada)
+     */
+    public String executar(String chave, Set<String> naoGuardar, Compra compra) throws MzsCoreException, IOException {
+        if(chave == null || chave.isEmpty()) {
+            return compra.executar();
+        }
+        Entrada nova = new Entrada(chave);
+        Entrada existente = entradas.putIfAbsent(chave, nova);
+        while(existente != null && vencida(existente)) {
+            entradas.remove(chave, existente);
+            existente = entradas.putIfAbsent(chave, nova);
+        }
+        if(existente != null) {
+            repetidas.increment();
+            return aguardar(existente);
+        }
+
+        String resultado;
+        try {
+            resultado = compra.executar();
+        } catch(MzsCoreException | IOException | RuntimeException ex) {
+            entradas.remove(chave, nova);
+            nova.resultado.completeExceptionally(ex);
+            throw ex;
+        }
+        if(resultado == null || naoGuardar.contains(resultado)) {
+            entradas.remove(chave, nova);
+        } else {
+            // So entra na ordem o que fica no cache; as compras em andamento
+            // ficam so no mapa e nao contam para a capacidade
+            ordem.add(nova);
+            tamanhoOrdem.incrementAndGet();
+            limpar();
+        }
+        nova.resultado.complete(resultado);
+        return resultado;
+    }
+
+    private String aguardar(Entrada entrada) throws MzsCoreException, IOException {
+        try {
+            return entrada.resultado.get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrompido esperando a compra " + entrada.chave, ex);
+        } catch(ExecutionException ex) {
+            // A primeira execucao falhou: o reenvio recebe o mesmo erro
+            Throwable causa = ex.getCause();
+            if(causa instanceof MzsCoreException) throw (MzsCoreException) causa;
+            if(causa instanceof IOException) throw (IOException) causa;
+            if(causa instanceof RuntimeException) throw (RuntimeException) causa;
+            throw new IOException(causa);
+        }
+    }
+
+    private boolean vencida(Entrada entrada) {
+        return entrada.resultado.isDone() && System.currentTimeMillis() - entrada.criadaEm > validadeMs;
+    }
+
+    /** Tira da frente da fila as chaves vencidas e as que passam da capacidade. */
+    private void limpar() {
+        Entrada maisAntiga;
+        while((maisAntiga = ordem.peek()) != null
+                && (tamanhoOrdem.get() > capacidade || System.currentTimeMillis() - maisAntiga.criadaEm > validadeMs)) {
+            maisAntiga = ordem.poll();
+            if(maisAntiga == null) {
+                break;
+            }
+            tamanhoOrdem.decrementAndGet();
+            entradas.remove(maisAntiga.chave, maisAntiga);
+        }
+    }
+
+    private void carregarConfiguracoes() {
+        String fileName = "config_Idempotencia.txt";
+        try {
+            BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName));
+            String line = bufferedReader.readLine();
+            bufferedReader.close();
+            if(line != null) {
+                String[] split = line.trim().split(":");
+                capacidade = Integer.parseInt(split[0]);
+                if(split.length > 1) validadeMs = Long.parseLong(split[1]) * 1000;
+            }
+        }
+        catch(IOException ex) {
+            // sem o arquivo, valores padrao
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package ticketnowws;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import metricas.Metricas;
+import org.mozartspaces.core.MzsCoreException;
+
+/**
+ * Junta consultas identicas que chegam ao mesmo tempo.
+ *
+ * Numa abertura de vendas centenas de consultarTudosAssentos pedem o mesmo
+ * readAll ao Espaco de Tuplas. Aqui so a primeira consulta de cada chave vai
+ * ao Espaco de Tuplas; as que chegam enquanto ela esta em andamento esperam
+ * pelo mesmo resultado. Com uma janela maior que zero, o resultado ainda
+ * serve as consultas que chegarem ate "janelaMs" depois do inicio da
+ * leitura, entao a proxima rajada tambem nao vai ao Espaco de Tuplas.
+ *
+ * Configurado pelo arquivo config_Consultas.txt: a janela em milissegundos
+ * (padrao 0: so junta as consultas simultaneas, nunca devolve resultado
+ * velho).
+ */
+public class ConsultaCompartilhada {
+
+    /** Uma leitura do Espaco de Tuplas. */
+    public interface Consulta<V> {
+        V executar() throws MzsCoreException;
+    }
+
+    private static final class Recente {
+        final Object valor;
+        final long lidoEm;
+
+        Recente(Object valor, long lidoEm) {
+            this.valor = valor;
+            this.lidoEm = lidoEm;
+        }
+    }
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> emAndamento = new ConcurrentHashMap<String, CompletableFuture<Object>>();
+    private final ConcurrentHashMap<String, Recente> recentes = new ConcurrentHashMap<String, Recente>();
+    private final LongAdder coalescidas = Metricas.contador("ws.consultas.coalescidas");
+    private final LongAdder daJanela = Metricas.contador("ws.consultas.daJanela");
+    private long janelaMs = 0;
+
+    public ConsultaCompartilhada() {
+        carregarConfiguracoes();
+    }
+
+    /**
+     * Resultado da consulta para a chave: o da leitura em andamento, o da
+     * janela ou o de uma leitura nova feita por esta thread.
+     *
+     * @param prazo
+     *            Prazo de quem chamou: quem espera a leitura de outra thread
+     *            desiste quando ele acaba, como se fosse ao Espaco de Tuplas
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V consultar(String chave, Prazo prazo, Consulta<V> consulta) throws MzsCoreException {
+        if(janelaMs > 0) {
+            Recente recente = recentes.get(chave);
+            if(recente != null && System.currentTimeMillis() - recente.lidoEm <= janelaMs) {
+                daJanela.increment();
+                return (V) recente.valor;
+            }
+        }
+
+        CompletableFuture<Object> nova = new CompletableFuture<Object>();
+        CompletableFuture<Object> existente = emAndamento.putIfAbsent(chave, nova);
+        if(existente != null) {
+            coalescidas.increment();
+            return (V) aguardar(chave, prazo, existente);
+        }
+
+        long lidoEm = System.currentTimeMillis();
+        try {
+            V valor = consulta.executar();
+            if(janelaMs > 0) {
+                // Antes de sair de "em andamento", para nao abrir uma brecha entre os dois
+                recentes.put(chave, new Recente(valor, lidoEm));
+            }
+            emAndamento.remove(chave, nova);
+            nova.complete(valor);
+            return valor;
+        } catch(MzsCoreException | RuntimeException ex) {
+            emAndamento.remove(chave, nova);
+            nova.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+
+    private Object aguardar(String chave, Prazo prazo, CompletableFuture<Object> leitura) throws MzsCoreException {
+        try {
+            return leitura.get(prazo.paraTupleSpace(), TimeUnit.MILLISECONDS);
+        } catch(TimeoutException ex) {
+            throw new MzsCoreException("Tempo esgotado esperando a consulta " + chave, ex);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MzsCoreException("Interrompido esperando a consulta " + chave, ex);
+        } catch(ExecutionException ex) {
+            // A leitura compartilhada falhou: todos que esperavam recebem o erro
+            Throwable causa = ex.getCause();
+            if(causa instanceof MzsCoreException) throw (MzsCoreException) causa;
+            if(causa instanceof RuntimeException) throw (RuntimeException) causa;
+            throw new MzsCoreException("Erro na consulta " + chave, causa);
+        }
+    }
+
+    private void carregarConfiguracoes() {
+        String fileName = "config_Consultas.txt";
+        try {
+            BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName));
+            String line = bufferedReader.readLine();
+            bufferedReader.close();
+            if(line != null && !line.trim().isEmpty()) {
+                janelaMs = Long.parseLong(line.trim());
+            }
+        }
+        catch(IOException ex) {
+            // sem o arquivo, so junta as consultas simultaneas
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package ticketnowws;
+
+import activeMQCliente.ClientMQ;
+import activeMQCliente.Log;
+import activeMQCliente.MonitorFila;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import metricas.Metricas;
+
+/**
+ * Controle de admissao das compras.
+ *
+ * Uma compra so entra se houver menos de "maxEmAndamento" compras em
+ * andamento neste Web Service e a fila de validacao tiver menos de
+ * "maxFila" mensagens. Fora disso ela e recusada na hora, antes de tocar no
+ * Espaco de Tuplas, em vez de se somar a uma fila que os validadores nao dao
+ * conta de esvaziar. As consultas nao passam por aqui.
+ *
+ * Configurado pelo arquivo config_Admissao.txt: "maxEmAndamento:maxFila:intervaloMs"
+ * (padrao 64:1000:200). A profundidade da fila e amostrada em segundo plano a
+ * cada intervaloMs, pelas estatisticas do broker; enquanto a amostra falha
+ * ela vale 0 e so o limite de compras em andamento vale.
+ *
+ * O monitor da fila sobe numa thread propria, criada com o controle: a
+ * conexao com o broker nunca e aberta na thread de uma requisicao. Se o
+ * broker nao responder, as compras seguem limitadas apenas pelo numero em
+ * andamento e uma nova tentativa e feita a cada 10 s.
+ */
+public class ControleAdmissao {
+    private final AtomicInteger emAndamento = new AtomicInteger();
+    private final LongAdder recusadas = Metricas.contador("ws.admissao.recusadas");
+    private int maxEmAndamento = 64;
+    private int maxFila = 1000;
+    private long intervaloMs = 200;
+    private static final long NOVA_TENTATIVA_MONITOR_MS = 10000;
+
+    private volatile MonitorFila monitor;
+    private final String fila;
+    private final ScheduledExecutorService iniciador;
+    private boolean monitorFalhou;
+
+    /**
+     * @param fila
+     *            Fila cuja profundidade limita as compras ("pedidos" ou "validacao")
+     */
+    public ControleAdmissao(String fila) {
+        this.fila = fila;
+        carregarConfiguracoes();
+        Metricas.medidor("ws.admissao.emAndamento", emAndamento::get);
+        Metricas.medidor("ws.admissao.profundidadeFila", () -> {
+            MonitorFila monitorAtual = monitor;
+            return monitorAtual != null ? monitorAtual.getProfundidade() : 0;
+        });
+
+        iniciador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "admissao-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        iniciador.execute(this::iniciarMonitor);
+    }
+
+    /**
+     * Tenta admitir uma compra. Se devolver true, quem chamou deve chamar
+     * {@link #liberar()} quando a compra terminar.
+     */
+    public boolean admitir() {
+        MonitorFila monitorAtual = monitor;
+        if(monitorAtual != null && monitorAtual.getProfundidade() >= maxFila) {
+            recusadas.increment();
+            return false;
+        }
+        if(emAndamento.incrementAndGet() > maxEmAndamento) {
+            emAndamento.decrementAndGet();
+            recusadas.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public void liberar() {
+        emAndamento.decrementAndGet();
+    }
+
+    public int getEmAndamento() {
+        return emAndamento.get();
+    }
+
+    /**
+     * Roda na thread do iniciador. Depois que o monitor sobe, ele mesmo
+     * refaz a conexao quando o broker cai, e a thread fica parada.
+     */
+    private void iniciarMonitor() {
+        try {
+            monitor = new ClientMQ().criarMonitorFila(fila, intervaloMs);
+            if(monitorFalhou) {
+                Log.info("Fila '{}' monitorada", fila);
+            }
+        } catch (Exception ex) {
+            // So a primeira falha vai com a pilha; as tentativas seguintes so no debug
+            if(!monitorFalhou) {
+                Log.erro("Erro ao monitorar a fila '{}'", fila, ex);
+                monitorFalhou = true;
+            } else {
+                Log.debug("Fila '{}' ainda sem monitor: {}", fila, ex.getMessage());
+            }
+            iniciador.schedule(this::iniciarMonitor, NOVA_TENTATIVA_MONITOR_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void carregarConfiguracoes() {
+        String fileName = "config_Admissao.txt";
+        try {
+            BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName));
+            String line = bufferedReader.readLine();
+            bufferedReader.close();
+            if(line != null) {
+                String[] split = line.trim().split(":");
+                maxEmAndamento = Integer.parseInt(split[0]);
+                if(split.length > 1) maxFila = Integer.parseInt(split[1]);
+                if(split.length > 2) intervaloMs = Long.parseLong(split[2]);
+            }
+        }
+        catch(IOException ex) {
+            // sem o arquivo, valores padrao
+        }
+    }
+}
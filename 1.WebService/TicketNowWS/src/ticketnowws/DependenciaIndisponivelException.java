@@ -0,0 +1,13 @@
+package ticketnowws;
+
+/**
+ * A chamada foi recusada sem ir a dependencia: o disjuntor dela esta aberto
+ * ou o prazo da requisicao ja acabou.
+ */
+public class DependenciaIndisponivelException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public DependenciaIndisponivelException(String mensagem) {
+        super(mensagem);
+    }
+}
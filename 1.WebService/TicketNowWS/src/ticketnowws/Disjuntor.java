@@ -0,0 +1,178 @@
+package ticketnowws;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import metricas.Metricas;
+
+/**
+ * Disjuntor (circuit breaker) de uma dependencia do Web Service: Espaco de
+ * Tuplas, Fila de Mensagens ou RMI.
+ *
+ * Guarda o resultado das ultimas "janela" chamadas. Quando a parte delas que
+ * falhou, ou que demorou mais que "lentaMs", passa do limite, o disjuntor
+ * abre: por "abertoMs" as chamadas sao recusadas na hora, sem ocupar uma
+ * thread do Web Service esperando uma dependencia que nao responde. Depois
+ * disso uma unica chamada de teste passa (semi-aberto); se ela der certo o
+ * disjuntor fecha, senao abre de novo.
+ *
+ * Configurado pelo arquivo config_Disjuntores.txt:
+ * "janela:percentualFalhas:lentaMs:percentualLentas:abertoMs" (padrao
+ * 20:50:2000:80:5000), o mesmo para as tres dependencias. O estado
+ * (0 fechado, 1 aberto, 2 semi-aberto), as recusas e as aberturas ficam nas
+ * metricas ws.disjuntor.&lt;nome&gt;.*.
+ */
+public class Disjuntor {
+    public static final int FECHADO = 0;
+    public static final int ABERTO = 1;
+    public static final int SEMI_ABERTO = 2;
+
+    private static int janela = 20;
+    private static int percentualFalhas = 50;
+    private static long lentaMs = 2000;
+    private static int percentualLentas = 80;
+    private static long abertoMs = 5000;
+    static {
+        carregarConfiguracoes();
+    }
+
+    private final String nome;
+    private final boolean[] falhas = new boolean[janela];
+    private final boolean[] lentas = new boolean[janela];
+    private int posicao;
+    private int registradas;
+    private int totalFalhas;
+    private int totalLentas;
+
+    private volatile int estado = FECHADO;
+    private volatile long abertoAte;
+    private final AtomicBoolean testando = new AtomicBoolean();
+    private final LongAdder recusadas;
+    private final LongAdder aberturas;
+
+    public Disjuntor(String nome) {
+        this.nome = nome;
+        this.recusadas = Metricas.contador("ws.disjuntor." + nome + ".recusadas");
+        this.aberturas = Metricas.contador("ws.disjuntor." + nome + ".aberturas");
+        Metricas.medidor("ws.disjuntor." + nome + ".estado", () -> estado);
+    }
+
+    /**
+     * Deixa a chamada passar ou lanca {@link DependenciaIndisponivelException}.
+     * Quem passou deve chamar {@link #registrar(long, boolean)} ao terminar.
+     */
+    public void entrar() {
+        if(!permitir()) {
+            throw new DependenciaIndisponivelException(nome + " indisponivel (disjuntor aberto)");
+        }
+    }
+
+    public boolean permitir() {
+        int estadoAtual = estado;
+        if(estadoAtual == FECHADO) {
+            return true;
+        }
+        if(estadoAtual == ABERTO && System.currentTimeMillis() >= abertoAte && testando.compareAndSet(false, true)) {
+            estado = SEMI_ABERTO;
+            return true;
+        }
+        recusadas.increment();
+        return false;
+    }
+
+    /** Aberto agora (sem contar como recusa nem ocupar a chamada de teste). */
+    public boolean aberto() {
+        return estado != FECHADO && (estado == SEMI_ABERTO || System.currentTimeMillis() < abertoAte);
+    }
+
+    /**
+     * Desiste de uma chamada que passou por {@link #entrar()} mas nao chegou
+     * a ser feita. Se era a chamada de teste, o disjuntor volta a aberto e a
+     * proxima chamada testa de novo.
+     */
+    public synchronized void liberar() {
+        if(estado == SEMI_ABERTO) {
+            estado = ABERTO;
+            testando.set(false);
+        }
+    }
+
+    /**
+     * @param inicioNs
+     *            System.nanoTime() do inicio da chamada
+     * @param sucesso
+     *            false se a chamada falhou ou deu erro
+     */
+    public synchronized void registrar(long inicioNs, boolean sucesso) {
+        boolean lenta = (System.nanoTime() - inicioNs) / 1000000 > lentaMs;
+        boolean falhou = !sucesso;
+        if(estado == SEMI_ABERTO) {
+            if(falhou || lenta) {
+                abrir();
+            } else {
+                estado = FECHADO;
+                System.out.println("Disjuntor " + nome + " fechado");
+            }
+            testando.set(false);
+            return;
+        }
+        if(estado == ABERTO) {
+            // Chamada que comecou antes de o disjuntor abrir
+            return;
+        }
+        if(registradas == janela) {
+            if(falhas[posicao]) totalFalhas--;
+            if(lentas[posicao]) totalLentas--;
+        } else {
+            registradas++;
+        }
+        falhas[posicao] = falhou;
+        lentas[posicao] = lenta;
+        if(falhou) totalFalhas++;
+        if(lenta) totalLentas++;
+        posicao = (posicao + 1) % janela;
+
+        if(registradas == janela
+                && (totalFalhas * 100 >= percentualFalhas * janela || totalLentas * 100 >= percentualLentas * janela)) {
+            abrir();
+        }
+    }
+
+    private void abrir() {
+        System.out.println("Disjuntor " + nome + " aberto por " + abertoMs + " ms (" + totalFalhas + " falhas e "
+                + totalLentas + " lentas nas ultimas " + registradas + " chamadas)");
+        abertoAte = System.currentTimeMillis() + abertoMs;
+        estado = ABERTO;
+        aberturas.increment();
+        registradas = 0;
+        posicao = 0;
+        totalFalhas = 0;
+        totalLentas = 0;
+    }
+
+    public int getEstado() {
+        return estado;
+    }
+
+    private static void carregarConfiguracoes() {
+        String fileName = "config_Disjuntores.txt";
+        try {
+            BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName));
+            String line = bufferedReader.readLine();
+            bufferedReader.close();
+            if(line != null) {
+                String[] split = line.trim().split(":");
+                janela = Integer.parseInt(split[0]);
+                if(split.length > 1) percentualFalhas = Integer.parseInt(split[1]);
+                if(split.length > 2) lentaMs = Long.parseLong(split[2]);
+                if(split.length > 3) percentualLentas = Integer.parseInt(split[3]);
+                if(split.length > 4) abertoMs = Long.parseLong(split[4]);
+            }
+        }
+        catch(IOException ex) {
+            // sem o arquivo, valores padrao
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package ticketnowws;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import metricas.Metricas;
+
+/**
+ * Limite adaptativo de chamadas em andamento a uma dependencia (hoje, o
+ * Validador RMI).
+ *
+ * Sem limite, um Validador sobrecarregado so acumula chamadas na fila dele,
+ * e cada uma demora mais ate estourar o prazo. Aqui o numero de chamadas
+ * simultaneas e limitado, e o limite acompanha o tempo de resposta medido
+ * (no estilo do algoritmo "gradient"): enquanto o tempo de cada chamada fica
+ * perto do tempo de base, o limite cresce; quando passa de
+ * "tolerancia" vezes a base, o limite cai na mesma proporcao. Uma chamada
+ * que falhou ou estourou o prazo corta o limite em 10% (como no AIMD). A
+ * chamada que passaria do limite e recusada na hora, sem esperar vaga.
+ *
+ * O tempo de base e o menor tempo de resposta do ultimo bloco de 250
+ * chamadas, ou seja, o Validador sem fila. Uma media nao serviria: sob
+ * sobrecarga ela sobe junto com a fila e o limite nunca cairia. Como a base e
+ * refeita a cada bloco, ela tambem acompanha um Validador que ficou mais
+ * lento de verdade.
+ *
+ * O limite so cresce se as chamadas em andamento passam da metade dele: com
+ * pouco movimento o tempo de resposta nao diz nada sobre a capacidade do
+ * Validador.
+ *
+ * Configurado pelo arquivo config_Limites.txt:
+ * "inicial:minimo:maximo:tolerancia" (padrao 20:2:200:1.5). O limite, as
+ * chamadas em andamento, o tempo de base e os ajustes ficam nas metricas
+ * ws.limite.&lt;nome&gt;.*.
+ */
+public class LimiteConcorrencia {
+    // A base e o menor tempo de cada bloco de chamadas
+    private static final int CHAMADAS_POR_BASE = 250;
+    // Quanto do limite novo entra de cada vez, para o limite nao oscilar
+    private static final double SUAVIZACAO = 0.2;
+    private static final double CORTE_FALHA = 0.9;
+
+    private static double inicial = 20;
+    private static double minimo = 2;
+    private static double maximo = 200;
+    private static double tolerancia = 1.5;
+    static {
+        carregarConfiguracoes();
+    }
+
+    private final String nome;
+    private final AtomicInteger emAndamento = new AtomicInteger();
+    private volatile double limite = inicial;
+    private long rttBaseNs = -1;
+    private long rttMinimoBlocoNs = Long.MAX_VALUE;
+    private int chamadasBloco;
+    private final LongAdder recusadas;
+    private final LongAdder aumentos;
+    private final LongAdder reducoes;
+
+    public LimiteConcorrencia(String nome) {
+        this.nome = nome;
+        this.recusadas = Metricas.contador("ws.limite." + nome + ".recusadas");
+        this.aumentos = Metricas.contador("ws.limite." + nome + ".aumentos");
+        this.reducoes = Metricas.contador("ws.limite." + nome + ".reducoes");
+        Metricas.medidor("ws.limite." + nome + ".limite", this::getLimite);
+        Metricas.medidor("ws.limite." + nome + ".emAndamento", emAndamento::get);
+        Metricas.medidor("ws.limite." + nome + ".rttBaseUs", () -> getRttBaseNs() / 1000);
+    }
+
+    /**
+     * Ocupa uma vaga ou lanca {@link DependenciaIndisponivelException}. Quem
+     * entrou deve chamar {@link #registrar(long, boolean)} ou
+     * {@link #liberar()} ao terminar.
+     */
+    public void entrar() {
+        if(!permitir()) {
+            throw new DependenciaIndisponivelException(nome + " sobrecarregado (" + emAndamento.get()
+                    + " chamadas em andamento, limite " + getLimite() + ")");
+        }
+    }
+
+    public boolean permitir() {
+        int limiteAtual = getLimite();
+        while(true) {
+            int atual = emAndamento.get();
+            if(atual >= limiteAtual) {
+                recusadas.increment();
+                return false;
+            }
+            if(emAndamento.compareAndSet(atual, atual + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** Devolve a vaga sem medir a chamada (ela nem chegou a ser feita). */
+    public void liberar() {
+        emAndamento.decrementAndGet();
+    }
+
+    /**
+     * Devolve a vaga e ajusta o limite pela chamada.
+     *
+     * @param inicioNs
+     *            System.nanoTime() do inicio da chamada
+     * @param sucesso
+     *            false se a chamada falhou ou estourou o prazo
+     */
+    public void registrar(long inicioNs, boolean sucesso) {
+        long rttNs = System.nanoTime() - inicioNs;
+        int emAndamentoAntes = emAndamento.getAndDecrement();
+        ajustar(rttNs, sucesso, emAndamentoAntes);
+    }
+
+    private synchronized void ajustar(long rttNs, boolean sucesso, int emAndamentoAntes) {
+        double anterior = limite;
+        double novo;
+        if(!sucesso) {
+            novo = Math.max(minimo, anterior * CORTE_FALHA);
+        } else {
+            rttMinimoBlocoNs = Math.min(rttMinimoBlocoNs, rttNs);
+            if(rttBaseNs < 0 || rttNs < rttBaseNs) {
+                rttBaseNs = rttNs;
+            }
+            if(++chamadasBloco >= CHAMADAS_POR_BASE) {
+                rttBaseNs = rttMinimoBlocoNs;
+                rttMinimoBlocoNs = Long.MAX_VALUE;
+                chamadasBloco = 0;
+            }
+            double gradiente = Math.max(0.5, Math.min(1.0, tolerancia * rttBaseNs / Math.max(1, rttNs)));
+            // Folga de sqrt(limite) para o limite poder crescer enquanto o tempo nao piora
+            double alvo = anterior * gradiente + Math.sqrt(anterior);
+            if(emAndamentoAntes < anterior / 2) {
+                alvo = Math.min(alvo, anterior);
+            }
+            novo = anterior * (1 - SUAVIZACAO) + alvo * SUAVIZACAO;
+            novo = Math.max(minimo, Math.min(maximo, novo));
+        }
+        limite = novo;
+        if((int) novo > (int) anterior) {
+            aumentos.increment();
+        } else if((int) novo < (int) anterior) {
+            reducoes.increment();
+        }
+    }
+
+    public int getLimite() {
+        return (int) limite;
+    }
+
+    public int getEmAndamento() {
+        return emAndamento.get();
+    }
+
+    public synchronized long getRttBaseNs() {
+        return Math.max(0, rttBaseNs);
+    }
+
+    private static void carregarConfiguracoes() {
+        String fileName = "config_Limites.txt";
+        try {
+            BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName));
+            String line = bufferedReader.readLine();
+            bufferedReader.close();
+            if(line != null) {
+                String[] split = line.trim().split(":");
+                inicial = Double.parseDouble(split[0]);
+                if(split.length > 1) minimo = Double.parseDouble(split[1]);
+                if(split.length > 2) maximo = Double.parseDouble(split[2]);
+                if(split.length > 3) tolerancia = Double.parseDouble(split[3]);
+            }
+        }
+        catch(IOException ex) {
+            // sem o arquivo, valores padrao
+        }
+    }
+}
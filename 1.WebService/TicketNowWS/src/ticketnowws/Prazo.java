@@ -0,0 +1,115 @@
+package ticketnowws;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import javax.xml.ws.WebServiceContext;
+import javax.xml.ws.handler.MessageContext;
+
+/**
+ * Prazo de uma requisicao SOAP, repassado para cada chamada ao Espaco de
+ * Tuplas, a Fila de Mensagens e ao RMI.
+ *
+ * O prazo comeca quando a requisicao chega. O cliente pode informa-lo no
+ * cabecalho HTTP "X-Prazo-Ms" (o ClienteWS.php manda o seu timeout); sem o
+ * cabecalho vale o padrao. Cada dependencia recebe o que sobrou do prazo,
+ * limitado ao maximo dela, e quando nao sobra nada a chamada nem e feita.
+ *
+ * Configurado pelo arquivo config_Prazos.txt:
+ * "requisicaoMs:tupleSpaceMs:mqMs:rmiMs" (padrao 10000:2000:5000:5000).
+ */
+public final class Prazo {
+    public static final String CABECALHO = "X-Prazo-Ms";
+
+    private static long requisicaoMs = 10000;
+    private static long tupleSpaceMs = 2000;
+    private static long mqMs = 5000;
+    private static long rmiMs = 5000;
+    static {
+        carregarConfiguracoes();
+    }
+
+    private final long limiteNs;
+
+    private Prazo(long prazoMs) {
+        this.limiteNs = System.nanoTime() + prazoMs * 1000000;
+    }
+
+    /**
+     * Prazo da requisicao atual: o do cabecalho X-Prazo-Ms, se houver e for
+     * menor que o padrao, ou o padrao.
+     *
+     * @param contexto
+     *            Contexto da requisicao (null fora do Endpoint, ex.: gerador de carga)
+     */
+    public static Prazo daRequisicao(WebServiceContext contexto) {
+        long prazoMs = requisicaoMs;
+        if(contexto != null) {
+            try {
+                @SuppressWarnings("unchecked")
+                Map<String, List<String>> cabecalhos = (Map<String, List<String>>) contexto.getMessageContext()
+                        .get(MessageContext.HTTP_REQUEST_HEADERS);
+                if(cabecalhos != null) {
+                    // O servidor HTTP do JDK muda a caixa dos nomes dos cabecalhos
+                    for(Map.Entry<String, List<String>> cabecalho : cabecalhos.entrySet()) {
+                        if(CABECALHO.equalsIgnoreCase(cabecalho.getKey()) && !cabecalho.getValue().isEmpty()) {
+                            prazoMs = Math.min(prazoMs, Long.parseLong(cabecalho.getValue().get(0).trim()));
+                        }
+                    }
+                }
+            } catch(RuntimeException ex) {
+                // cabecalho mal formado ou fora de uma requisicao: prazo padrao
+            }
+        }
+        return new Prazo(prazoMs);
+    }
+
+    public static Prazo de(long prazoMs) {
+        return new Prazo(prazoMs);
+    }
+
+    public long restanteMs() {
+        return (limiteNs - System.nanoTime()) / 1000000;
+    }
+
+    public long paraTupleSpace() {
+        return paraDependencia("Espaco de Tuplas", tupleSpaceMs);
+    }
+
+    public long paraMQ() {
+        return paraDependencia("Fila de Mensagens", mqMs);
+    }
+
+    public long paraRMI() {
+        return paraDependencia("RMI", rmiMs);
+    }
+
+    private long paraDependencia(String nome, long maximoMs) {
+        long restante = restanteMs();
+        if(restante <= 0) {
+            throw new DependenciaIndisponivelException("Prazo da requisicao esgotado antes de chamar " + nome);
+        }
+        return Math.min(restante, maximoMs);
+    }
+
+    private static void carregarConfiguracoes() {
+        String fileName = "config_Prazos.txt";
+        try {
+            BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName));
+            String line = bufferedReader.readLine();
+            bufferedReader.close();
+            if(line != null) {
+                String[] split = line.trim().split(":");
+                requisicaoMs = Long.parseLong(split[0]);
+                if(split.length > 1) tupleSpaceMs = Long.parseLong(split[1]);
+                if(split.length > 2) mqMs = Long.parseLong(split[2]);
+                if(split.length > 3) rmiMs = Long.parseLong(split[3]);
+            }
+        }
+        catch(IOException ex) {
+            // sem o arquivo, valores padrao
+        }
+    }
+}
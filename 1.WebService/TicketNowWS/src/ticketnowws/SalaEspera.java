@@ -0,0 +1,230 @@
+package ticketnowws;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import metricas.Metricas;
+
+/**
+ * Sala de espera virtual para as aberturas de venda concorridas.
+ *
+ * Cada comprador recebe uma senha numerada em ordem de chegada e assinada
+ * com HMAC-SHA256 ("numero.emitidaEm.assinatura"), entao nao da para forjar
+ * nem furar a fila trocando o numero. A cada 100 ms a sala admite mais senhas,
+ * na taxa configurada; so senhas admitidas podem comprar, e continuam valendo
+ * por "validade" segundos de admissoes depois da sua vez.
+ *
+ * A posicao e a diferenca entre o numero da senha e o ultimo numero
+ * admitido, entao consultar a posicao e so uma conta. So as senhas que ja
+ * compraram ficam guardadas (ate vencerem): cada senha compra um ingresso
+ * uma vez.
+ *
+ * Configurada pelo arquivo config_SalaEspera.txt: a primeira linha e
+ * "taxa:validade[:auto]" (padrao 50:120), a segunda, opcional, e o segredo
+ * das assinaturas. Sem segredo, um aleatorio e gerado, e as senhas deixam de
+ * valer quando o Web Service reinicia. Com "auto" a taxa acompanha quantas
+ * compras o sistema conseguiu concluir no ultimo segundo.
+ *
+ * Com o arquivo presente a venda esta aberta ({@link #isAtiva()}): as
+ * compras so passam pela sala de espera. Sem ele a sala continua
+ * funcionando, mas as compras sem senha tambem sao aceitas.
+ */
+public class SalaEspera {
+    private static final long TICK_MS = 100;
+    private static final double TAXA_MINIMA = 1;
+
+    private final AtomicLong emitidas = new AtomicLong();
+    private volatile double admitidas;
+    private volatile double taxa = 50;
+    private int validadeS = 120;
+    private boolean automatica;
+    private boolean ativa;
+    private byte[] segredo;
+    // Numeros das senhas que ja compraram e ainda nao venceram
+    private final Set<Long> usadas = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<Mac> hmac = ThreadLocal.withInitial(this::criarMac);
+
+    private final LongSupplier concluidas;
+    private final LongSupplier recusadas;
+    private long ultimasConcluidas;
+    private long ultimasRecusadas;
+    private int ticks;
+
+    /**
+     * @param concluidas
+     *            Total de compras concluidas ate agora (para a taxa automatica)
+     * @param recusadas
+     *            Total de compras recusadas pelo controle de admissao
+     */
+    public SalaEspera(LongSupplier concluidas, LongSupplier recusadas) {
+        this.concluidas = concluidas;
+        this.recusadas = recusadas;
+        carregarConfiguracoes();
+        Metricas.medidor("ws.salaEspera.emitidas", emitidas::get);
+        Metricas.medidor("ws.salaEspera.admitidas", () -> (long) admitidas);
+        Metricas.medidor("ws.salaEspera.taxa", () -> (long) taxa);
+
+        ScheduledExecutorService relogio = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sala-espera");
+            thread.setDaemon(true);
+            return thread;
+        });
+        relogio.scheduleAtFixedRate(this::admitir, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Emite a proxima senha da fila. */
+    public String entrar() {
+        long numero = emitidas.incrementAndGet();
+        String conteudo = numero + "." + System.currentTimeMillis();
+        return conteudo + "." + assinar(conteudo);
+    }
+
+    /**
+     * @return "ADMITIDO", "AGUARDANDO:posicao:segundosEstimados" ou
+     *         "INVALIDO" (senha forjada, mal formada ou vencida)
+     */
+    public String posicao(String senha) {
+        long numero = verificar(senha);
+        if(numero < 0 || expirada(numero)) {
+            return "INVALIDO";
+        }
+        long admitidasAgora = (long) admitidas;
+        if(numero <= admitidasAgora) {
+            return "ADMITIDO";
+        }
+        long posicao = numero - admitidasAgora;
+        return "AGUARDANDO:" + posicao + ":" + (long) Math.ceil(posicao / taxa);
+    }
+
+    /** A senha e autentica, ja foi admitida e ainda nao venceu. */
+    public boolean admitida(String senha) {
+        long numero = verificar(senha);
+        return numero > 0 && numero <= (long) admitidas && !expirada(numero);
+    }
+
+    /**
+     * Marca a senha admitida como usada por uma compra.
+     *
+     * @return false se a senha nao foi admitida, venceu ou ja foi usada
+     */
+    public boolean usar(String senha) {
+        long numero = verificar(senha);
+        return numero > 0 && numero <= (long) admitidas && !expirada(numero) && usadas.add(numero);
+    }
+
+    /** Devolve a senha de uma compra que nao foi adiante, para ela poder tentar de novo. */
+    public void devolver(String senha) {
+        usadas.remove(verificar(senha));
+    }
+
+    /** A venda esta aberta: as compras so passam pela sala de espera. */
+    public boolean isAtiva() {
+        return ativa;
+    }
+
+    /** Vence quando ja foram admitidas mais de "validade" segundos de senhas depois dela. */
+    private boolean expirada(long numero) {
+        return numero < admitidas - Math.max(taxa * validadeS, 1);
+    }
+
+    /** Numero da senha, ou -1 se a assinatura nao confere. */
+    private long verificar(String senha) {
+        if(senha == null) {
+            return -1;
+        }
+        int fim = senha.lastIndexOf('.');
+        if(fim < 0) {
+            return -1;
+        }
+        String conteudo = senha.substring(0, fim);
+        byte[] esperada = assinar(conteudo).getBytes(StandardCharsets.US_ASCII);
+        byte[] recebida = senha.substring(fim + 1).getBytes(StandardCharsets.US_ASCII);
+        if(!MessageDigest.isEqual(esperada, recebida)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(conteudo.substring(0, conteudo.indexOf('.')));
+        } catch (RuntimeException ex) {
+            return -1;
+        }
+    }
+
+    /** Roda a cada TICK_MS na thread da sala. */
+    private void admitir() {
+        if(automatica && ++ticks * TICK_MS >= 1000) {
+            ticks = 0;
+            long concluidasAgora = concluidas.getAsLong();
+            long recusadasAgora = recusadas.getAsLong();
+            double porSegundo = concluidasAgora - ultimasConcluidas;
+            if(recusadasAgora > ultimasRecusadas) {
+                // Houve recusas a jusante: admite menos do que foi concluido
+                taxa = Math.max(TAXA_MINIMA, porSegundo * 0.8);
+            } else if(porSegundo >= taxa * 0.9) {
+                // O sistema deu conta de tudo que entrou: tenta um pouco mais
+                taxa = taxa * 1.1;
+            }
+            ultimasConcluidas = concluidasAgora;
+            ultimasRecusadas = recusadasAgora;
+        }
+        admitidas = Math.min(emitidas.get(), admitidas + taxa * TICK_MS / 1000.0);
+        if(!usadas.isEmpty()) {
+            usadas.removeIf(this::expirada);
+        }
+    }
+
+    private String assinar(String conteudo) {
+        byte[] assinatura = hmac.get().doFinal(conteudo.getBytes(StandardCharsets.US_ASCII));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(assinatura);
+    }
+
+    private Mac criarMac() {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(segredo, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("HmacSHA256 indisponivel", ex);
+        }
+    }
+
+    private void carregarConfiguracoes() {
+        String fileName = "config_SalaEspera.txt";
+        try {
+            BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName));
+            ativa = true;
+            String line = bufferedReader.readLine();
+            if(line != null) {
+                String[] split = line.trim().split(":");
+                taxa = Double.parseDouble(split[0]);
+                if(split.length > 1) validadeS = Integer.parseInt(split[1]);
+                automatica = split.length > 2 && split[2].equals("auto");
+            }
+            line = bufferedReader.readLine();
+            if(line != null && !line.isEmpty()) {
+                segredo = line.getBytes(StandardCharsets.UTF_8);
+            }
+            bufferedReader.close();
+        }
+        catch(IOException ex) {
+            // sem o arquivo, valores padrao
+        }
+        if(segredo == null) {
+            segredo = new byte[32];
+            new SecureRandom().nextBytes(segredo);
+        }
+    }
+}
@@ -1,66 +1,524 @@
 package ticketnowws;
  
 import java.util.Date;
+import javax.annotation.Resource;
 import javax.jws.WebService;
+import javax.xml.ws.WebServiceContext;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 import java.io.IOException;
 
 import activeMQCliente.ClientMQ;
+import activeMQCliente.Log;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import metricas.Histograma;
+import metricas.Metricas;
+import notificacao.PublicadorAvisos;
+import javax.jms.JMSException;
 import tuplespace.ClienteTupleSpace;
+import tuplespace.TupleSpace;
 import rmi.ClientRMI;
+import rmi.PedidoValidacao;
+import rmi.ResultadoValidacao;
+import rmi.ValidadorInterface;
 import org.mozartspaces.core.MzsCoreException;
 import org.mozartspaces.capi3.CountNotMetException;
+import ticketnowws.catalogo.Catalogo;
+import ticketnowws.catalogo.CatalogoFilmes;
+import ticketnowws.catalogo.Filme;
 
  
 @WebService(endpointInterface = "ticketnowws.iTicketNow")
 
 public class TicketNow implements iTicketNow {
-    private String nomeContainerTS;
-    private String ipServidorTS;
-    private int portaServidorTS;
+    private static String nomeContainerTS;
+    private static List<String> servidoresTS;
+
+    // Contexto da requisicao SOAP, para ler o prazo pedido pelo cliente
+    @Resource
+    private WebServiceContext contexto;
+
+    // Latencia de cada operacao e de cada estagio da compra
+    private static final Histograma COMPRAR_TOTAL = Metricas.histograma("ws.comprarIngresso.total");
+    private static final Histograma COMPRAR_CONECTAR_TS = Metricas.histograma("ws.comprarIngresso.conectarTupleSpace");
+    private static final Histograma COMPRAR_READ_ALL = Metricas.histograma("ws.comprarIngresso.readAll");
+    private static final Histograma COMPRAR_TAKE = Metricas.histograma("ws.comprarIngresso.take");
+    private static final Histograma COMPRAR_FILA_PEDIDOS = Metricas.histograma("ws.comprarIngresso.inserirPedidoNaFilaPedidos");
+    private static final Histograma COMPRAR_VALIDA_CC = Metricas.histograma("ws.comprarIngresso.validaCC");
+    private static final Histograma COMPRAR_VALIDAR_POR_MENSAGEM = Metricas.histograma("ws.comprarIngresso.validarPorMensagem");
+    // Assentos que voltaram ao Espaco de Tuplas porque a compra parou no meio
+    private static final LongAdder ASSENTOS_DEVOLVIDOS = Metricas.contador("ws.comprarIngresso.assentosDevolvidos");
+    private static final Histograma CONSULTAR_ASSENTO_TOTAL = Metricas.histograma("ws.consultarAssento.total");
+    private static final Histograma CONSULTAR_ASSENTO_READ_ALL = Metricas.histograma("ws.consultarAssento.readAll");
+    private static final Histograma CONSULTAR_TODOS_TOTAL = Metricas.histograma("ws.consultarTudosAssentos.total");
+    private static final Histograma CONSULTAR_TODOS_READ_ALL = Metricas.histograma("ws.consultarTudosAssentos.readAll");
+    private static final Histograma CONSULTAR_QUANTIDADE_TOTAL = Metricas.histograma("ws.consultarQuantidadeAssentosLivres.total");
+    private static final Histograma CONSULTAR_FILEIRAS_TOTAL = Metricas.histograma("ws.consultarQuantidadeAssentosPorFileira.total");
+    private static final Histograma CONSULTAR_CATALOGO_TOTAL = Metricas.histograma("ws.consultarCatalogo.total");
+
+    // Catalogo de filmes em memoria, relido quando o tFilme.xml muda
+    private static final CatalogoFilmes CATALOGO = new CatalogoFilmes();
+
+    // Validacao pelo RMI (padrao) ou por requisicao/resposta na fila "validacao"
+    private static volatile boolean validacaoPorMensagem;
+    private static volatile long timeoutValidacaoMs = 5000;
+    private static final ControleAdmissao ADMISSAO;
+    private static final SalaEspera SALA_ESPERA;
+    private static final CacheIdempotencia IDEMPOTENCIA = new CacheIdempotencia();
+    private static final ConsultaCompartilhada CONSULTAS = new ConsultaCompartilhada();
+
+    // Um disjuntor por dependencia: falha rapido quando ela para de responder
+    private static final Disjuntor DISJUNTOR_TS = new Disjuntor("tupleSpace");
+    private static final Disjuntor DISJUNTOR_MQ = new Disjuntor("mq");
+    private static final Disjuntor DISJUNTOR_RMI = new Disjuntor("rmi");
+    // Chamadas simultaneas ao Validador, limite ajustado pelo tempo de resposta
+    private static final LimiteConcorrencia LIMITE_RMI = new LimiteConcorrencia("rmi");
+    static {
+        Metricas.medidor("ws.rmi.copias", ClientRMI::getCopias);
+        Metricas.medidor("ws.rmi.novasTentativas", ClientRMI::getNovasTentativas);
+    }
+    static {
+        carregarConfiguracoesTupleSpace();
+        carregarConfiguracoesValidacao();
+        ADMISSAO = new ControleAdmissao(validacaoPorMensagem ? "validacao" : "pedidos");
+        SALA_ESPERA = new SalaEspera(COMPRAR_TOTAL::getContagem, Metricas.contador("ws.admissao.recusadas")::sum);
+    }
+
+    public static final String COMPRA_RECUSADA = "WebService: Sistema ocupado, tente novamente em instantes";
+    public static final String COMPRA_FORA_DA_VEZ = "WebService: Aguarde a sua vez na sala de espera";
+    public static final String COMPRA_INDISPONIVEL = "WebService: Serviço indisponível, tente novamente em instantes";
+    public static final String COMPRA_SENHA_USADA = "WebService: Esta senha da sala de espera já comprou um ingresso";
+    public static final String COMPRA_ACEITA = "WebService: Comprando ingresso";
+    public static final String COMPRA_CARTAO_RECUSADO = "WebService: Cartão recusado, o assento continua disponível";
+    // Respostas que mudam se o cliente tentar de novo: nao ficam no cache de idempotencia
+    private static final Set<String> COMPRAS_PASSAGEIRAS = new HashSet<String>(
+            Arrays.asList(COMPRA_RECUSADA, COMPRA_FORA_DA_VEZ, COMPRA_INDISPONIVEL, COMPRA_SENHA_USADA));
 
     public TicketNow() { }
     
     
     
+    /**
+     * Compra sem senha. Durante uma venda com sala de espera (ver
+     * {@link SalaEspera#isAtiva()}) so se compra por comprarIngressoComSenha.
+     */
     @Override
     public String comprarIngresso(Integer numeroAssento, String letraAssento, String codCartao, String dataVencimento, String digitoVerificador) throws MzsCoreException, IOException {
-        carregarConfiguracoesTupleSpace();
+        if(SALA_ESPERA.isAtiva()) {
+            return COMPRA_FORA_DA_VEZ;
+        }
+        return comprarAdmitido(numeroAssento, letraAssento, codCartao, dataVencimento, digitoVerificador);
+    }
+
+    private String comprarAdmitido(Integer numeroAssento, String letraAssento, String codCartao, String dataVencimento, String digitoVerificador) throws MzsCoreException, IOException {
+        long inicio = System.nanoTime();
+        // Recusa rapida quando os validadores ja estao atrasados
+        if(!ADMISSAO.admitir()) {
+            return COMPRA_RECUSADA;
+        }
+        try {
+            return comprar(Prazo.daRequisicao(contexto), numeroAssento, letraAssento, codCartao, dataVencimento, digitoVerificador);
+        } catch(DependenciaIndisponivelException ex) {
+            Log.info("Compra recusada: {}", ex.getMessage());
+            return COMPRA_INDISPONIVEL;
+        } finally {
+            ADMISSAO.liberar();
+            COMPRAR_TOTAL.registrarDesde(inicio);
+        }
+    }
+    
+    /**
+     * Avisa os inscritos que o filme entrou em cartaz. So publica o evento no
+     * topico de avisos; a entrega fica com o notificacao.ServicoAvisos.
+     */
+    @Override
+    public String disponibilizarFilme(String titulo) throws IOException {
+        try {
+            PublicadorAvisos.obter().disponivel(titulo);
+        } catch (JMSException ex) {
+            throw new IOException("Erro ao publicar o aviso de " + titulo, ex);
+        }
+        return "Filme Disponibilizado";
+    }
+
+    /**
+     * Devolve ao Espaco de Tuplas um assento vendido (ex.: compra cancelada)
+     * e avisa os inscritos do filme pelo topico de avisos. So assentos com
+     * registro de venda voltam: liberar um assento livre, ja liberado ou que
+     * nao existe nao cria tupla nenhuma.
+     */
+    @Override
+    public String liberarAssento(String titulo, Integer numeroAssento, String letraFileira) throws MzsCoreException, IOException {
+        boolean liberado = usarTupleSpace(Prazo.daRequisicao(contexto),
+                oClienteTupleSpace -> oClienteTupleSpace.liberar(numeroAssento, letraFileira, TupleSpace.SESSAO_PADRAO));
+        if(!liberado) {
+            return "assento (" + numeroAssento + "," + letraFileira + ") nao consta como vendido";
+        }
+        try {
+            PublicadorAvisos.obter().liberacao(titulo, TupleSpace.SESSAO_PADRAO, numeroAssento + letraFileira);
+        } catch (JMSException ex) {
+            throw new IOException("Erro ao publicar a liberacao do assento " + numeroAssento + letraFileira, ex);
+        }
+        return "assento (" + numeroAssento + "," + letraFileira + ") liberado";
+    }
+
+    @Override
+    public String entrarSalaEspera() {
+        return SALA_ESPERA.entrar();
+    }
+
+    @Override
+    public String consultarPosicaoSalaEspera(String senha) {
+        return SALA_ESPERA.posicao(senha);
+    }
+
+    /**
+     * Como comprarIngresso, mas so para quem ja foi admitido pela sala de
+     * espera. Senhas fora da vez sao recusadas sem tocar no Espaco de Tuplas.
+     *
+     * Cada senha compra um ingresso: ela e marcada como usada quando a compra
+     * comeca e so volta a valer se a compra nao foi aceita (assento ocupado,
+     * sistema ocupado). A senha e o assento sao tambem a chave de
+     * idempotencia, entao reenviar a mesma compra devolve o mesmo resultado.
+     */
+    @Override
+    public String comprarIngressoComSenha(String senha, Integer numeroAssento, String letraAssento, String codCartao, String dataVencimento, String digitoVerificador) throws MzsCoreException, IOException {
+        if(!SALA_ESPERA.admitida(senha)) {
+            return COMPRA_FORA_DA_VEZ;
+        }
+        return IDEMPOTENCIA.executar("senha:" + senha + ":" + numeroAssento + letraAssento, COMPRAS_PASSAGEIRAS, () -> {
+            if(!SALA_ESPERA.usar(senha)) {
+                return COMPRA_SENHA_USADA;
+            }
+            String resultado = null;
+            try {
+                resultado = comprarAdmitido(numeroAssento, letraAssento, codCartao, dataVencimento, digitoVerificador);
+                return resultado;
+            } finally {
+                if(!COMPRA_ACEITA.equals(resultado)) {
+                    SALA_ESPERA.devolver(senha);
+                }
+            }
+        });
+    }
+
+    /**
+     * Todos os filmes do catalogo. As consultas de catalogo devolvem um
+     * &lt;root&gt; com os &lt;filme&gt; no mesmo formato do tFilme.xml, servido da
+     * memoria.
+     */
+    @Override
+    public String consultarCatalogo() {
+        long inicio = System.nanoTime();
+        String retorno = CATALOGO.catalogo().xmlTodos();
+        CONSULTAR_CATALOGO_TOTAL.registrarDesde(inicio);
+        return retorno;
+    }
+
+    @Override
+    public String consultarFilmePorTitulo(String titulo) {
+        long inicio = System.nanoTime();
+        Filme filme = CATALOGO.catalogo().porTitulo(titulo);
+        String retorno = Catalogo.xml(filme != null ? Collections.singletonList(filme) : Collections.<Filme>emptyList());
+        CONSULTAR_CATALOGO_TOTAL.registrarDesde(inicio);
+        return retorno;
+    }
+
+    @Override
+    public String consultarFilmesPorGenero(String genero) {
+        long inicio = System.nanoTime();
+        String retorno = Catalogo.xml(CATALOGO.catalogo().porGenero(genero));
+        CONSULTAR_CATALOGO_TOTAL.registrarDesde(inicio);
+        return retorno;
+    }
+
+    /** Filmes de anoInicial a anoFinal; sem anoFinal, so os de anoInicial. */
+    @Override
+    public String consultarFilmesPorAno(Integer anoInicial, Integer anoFinal) {
+        long inicio = System.nanoTime();
+        int de = anoInicial != null ? anoInicial : Integer.MIN_VALUE;
+        int ate = anoFinal != null ? anoFinal : (anoInicial != null ? anoInicial : Integer.MAX_VALUE);
+        String retorno = Catalogo.xml(CATALOGO.catalogo().porAno(de, ate));
+        CONSULTAR_CATALOGO_TOTAL.registrarDesde(inicio);
+        return retorno;
+    }
+
+    /** Como o getFilmeByAvaliacao do PHP; filmes "(sem avaliação)" ficam de fora. */
+    @Override
+    public String consultarFilmesPorAvaliacao(Double avaliacaoMinima, Double avaliacaoMaxima) {
+        long inicio = System.nanoTime();
+        double minima = avaliacaoMinima != null ? avaliacaoMinima : Double.NEGATIVE_INFINITY;
+        double maxima = avaliacaoMaxima != null ? avaliacaoMaxima : Double.POSITIVE_INFINITY;
+        String retorno = Catalogo.xml(CATALOGO.catalogo().porAvaliacao(minima, maxima));
+        CONSULTAR_CATALOGO_TOTAL.registrarDesde(inicio);
+        return retorno;
+    }
+
+    @Override
+    public String consultarFilmesPorDiretor(String diretor) {
+        long inicio = System.nanoTime();
+        String retorno = Catalogo.xml(CATALOGO.catalogo().porDiretor(diretor));
+        CONSULTAR_CATALOGO_TOTAL.registrarDesde(inicio);
+        return retorno;
+    }
+
+    /**
+     * Como comprarIngresso, mas um reenvio com a mesma chave devolve o
+     * resultado da primeira compra em vez de comprar de novo.
+     */
+    @Override
+    public String comprarIngressoIdempotente(String chaveIdempotencia, Integer numeroAssento, String letraAssento, String codCartao, String dataVencimento, String digitoVerificador) throws MzsCoreException, IOException {
+        return IDEMPOTENCIA.executar(chaveIdempotencia, COMPRAS_PASSAGEIRAS,
+                () -> comprarIngresso(numeroAssento, letraAssento, codCartao, dataVencimento, digitoVerificador));
+    }
+
+    static SalaEspera getSalaEspera() {
+        return SALA_ESPERA;
+    }
+
+    private String comprar(Prazo prazo, Integer numeroAssento, String letraAssento, String codCartao, String dataVencimento, String digitoVerificador) throws MzsCoreException, IOException {
+        // Sem quem valide o cartao, nem reserva o assento
+        if(DISJUNTOR_MQ.aberto() || (!validacaoPorMensagem && DISJUNTOR_RMI.aberto())) {
+            throw new DependenciaIndisponivelException("Validacao indisponivel (disjuntor aberto)");
+        }
+        // A vaga no Validador e ocupada antes de reservar o assento: sem vaga,
+        // recusa sem tocar no Espaco de Tuplas. Daqui em diante quem devolve
+        // a vaga e o validar, ou este metodo se o assento nao for reservado.
+        if(!validacaoPorMensagem && !LIMITE_RMI.permitir()) {
+            return COMPRA_RECUSADA;
+        }
 
-        ClienteTupleSpace oClienteTupleSpace = new ClienteTupleSpace(this.nomeContainerTS, this.ipServidorTS, this.portaServidorTS); 
-        ClientRMI oClientRMI = new ClientRMI();
-        ClientMQ oClienMQ = new ClientMQ();
-        
         String cadeira = numeroAssento + letraAssento;
-        ArrayList<ClienteTupleSpace.Assento> resultadoRead = oClienteTupleSpace.readAll(numeroAssento, letraAssento);
-        
-        if(resultadoRead.isEmpty()) {
-            oClienteTupleSpace.encerrar();
+        long inicioConexao = System.nanoTime();
+        boolean reservado = false;
+        try {
+            reservado = usarTupleSpace(prazo, oClienteTupleSpace -> {
+                COMPRAR_CONECTAR_TS.registrarDesde(inicioConexao);
+
+                long inicio = System.nanoTime();
+                ArrayList<ClienteTupleSpace.Assento> resultadoRead = oClienteTupleSpace.readAll(numeroAssento, letraAssento);
+                COMPRAR_READ_ALL.registrarDesde(inicio);
+
+                if(resultadoRead.isEmpty()) {
+                    return false;
+                }
+
+                inicio = System.nanoTime();
+                oClienteTupleSpace.take(numeroAssento, letraAssento);
+                COMPRAR_TAKE.registrarDesde(inicio);
+                return true;
+            });
+        } finally {
+            if(!reservado && !validacaoPorMensagem) {
+                LIMITE_RMI.liberar();
+            }
+        }
+        if(!reservado) {
             return "WebService: Ingresso não está disponível";
         }
-        
-        ArrayList<ClienteTupleSpace.Assento> resultadoTake = oClienteTupleSpace.take(numeroAssento, letraAssento);
 
-        oClienMQ.InserirPedidoNaFilaPedidos(cadeira, codCartao, dataVencimento, digitoVerificador);
+        // Daqui em diante o assento ja saiu do Espaco de Tuplas: se a compra
+        // nao for validada, ele volta para la
+        int status;
+        try {
+            status = validar(prazo, cadeira, codCartao, dataVencimento, digitoVerificador);
+        } catch(IOException | RuntimeException ex) {
+            devolverAssento(numeroAssento, letraAssento, ex);
+            throw ex;
+        }
+        if(status == ValidadorInterface.STATUS_VALIDO) {
+            registrarVenda(numeroAssento, letraAssento);
+            return COMPRA_ACEITA;
+        }
+        devolverAssento(numeroAssento, letraAssento, null);
+        // Cartao recusado e uma resposta definitiva (fica no cache de
+        // idempotencia); erro na validacao (prazo, nenhum validador) e passageiro
+        return status == ValidadorInterface.STATUS_INVALIDO ? COMPRA_CARTAO_RECUSADO : COMPRA_INDISPONIVEL;
+    }
+
+    /**
+     * Valida o cartao pela fila "validacao" ou pelo RMI.
+     *
+     * @return um dos STATUS_* do {@link ValidadorInterface}
+     */
+    private int validar(Prazo prazo, String cadeira, String codCartao, String dataVencimento, String digitoVerificador) throws IOException {
+        long inicio;
+        if(validacaoPorMensagem) {
+            ClientMQ oClienMQ = new ClientMQ();
+            long prazoMs = Math.min(timeoutValidacaoMs, prazo.paraMQ());
+            DISJUNTOR_MQ.entrar();
+            inicio = System.nanoTime();
+            String resultado = null;
+            try {
+                resultado = oClienMQ.ValidarCartao(TupleSpace.SESSAO_PADRAO, cadeira, codCartao, dataVencimento, digitoVerificador, prazoMs);
+            } finally {
+                DISJUNTOR_MQ.registrar(inicio, resultado != null && !resultado.startsWith("ERRO"));
+            }
+            COMPRAR_VALIDAR_POR_MENSAGEM.registrarDesde(inicio);
+            if(resultado.startsWith("ERRO")) {
+                Log.info("Validacao da cadeira {} falhou: {}", cadeira, resultado);
+                return ValidadorInterface.STATUS_ERRO;
+            }
+            return resultado.startsWith("Cartão VÁLIDO") ? ValidadorInterface.STATUS_VALIDO : ValidadorInterface.STATUS_INVALIDO;
+        }
+
+        // Tudo o que pode recusar a chamada ao RMI vem antes de publicar o
+        // pedido, para nao deixar na fila um pedido que ninguem vai consumir.
+        // A vaga no LIMITE_RMI veio do comprar e e devolvida se parar aqui.
+        ClientMQ oClienMQ;
+        ClientRMI oClientRMI;
+        long prazoMs;
+        try {
+            oClienMQ = new ClientMQ();
+            oClientRMI = new ClientRMI();
+            prazoMs = prazo.paraRMI();
+            prazo.paraMQ();
+            DISJUNTOR_RMI.entrar();
+            try {
+                DISJUNTOR_MQ.entrar();
+            } catch(DependenciaIndisponivelException ex) {
+                DISJUNTOR_RMI.liberar();
+                throw ex;
+            }
+        } catch(IOException | RuntimeException ex) {
+            LIMITE_RMI.liberar();
+            throw ex;
+        }
+
+        // O mesmo id vai na fila e no RMI: o Validador consome exatamente este
+        // pedido, e as copias do hedge nao o consomem de novo
+        long idPedido = ClientMQ.novaCorrelacao();
+        inicio = System.nanoTime();
+        boolean inserido = false;
+        try {
+            inserido = oClienMQ.InserirPedidoNaFilaPedidos(idPedido, TupleSpace.SESSAO_PADRAO, cadeira, codCartao, dataVencimento, digitoVerificador);
+        } finally {
+            DISJUNTOR_MQ.registrar(inicio, inserido);
+            if(!inserido) {
+                DISJUNTOR_RMI.liberar();
+                LIMITE_RMI.liberar();
+            }
+        }
+        COMPRAR_FILA_PEDIDOS.registrarDesde(inicio);
+        if(!inserido) {
+            throw new DependenciaIndisponivelException("Pedido nao entrou na fila de pedidos");
+        }
+
+        inicio = System.nanoTime();
+        PedidoValidacao pedido = new PedidoValidacao().preencher(idPedido, TupleSpace.SESSAO_PADRAO, cadeira, codCartao, dataVencimento, digitoVerificador);
+        ResultadoValidacao resultado = null;
+        try {
+            resultado = oClientRMI.ValidaPedido(pedido, prazoMs);
+        } finally {
+            boolean sucesso = resultado != null && !resultado.isErro();
+            DISJUNTOR_RMI.registrar(inicio, sucesso);
+            LIMITE_RMI.registrar(inicio, sucesso);
+        }
+        COMPRAR_VALIDA_CC.registrarDesde(inicio);
+        if(resultado.isErro()) {
+            Log.info("Validacao do pedido {} falhou: {}", idPedido, resultado.getErro());
+        }
+        return resultado.getStatus();
+    }
+
+    /**
+     * Devolve ao Espaco de Tuplas o assento de uma compra que nao foi
+     * validada. Usa um prazo novo, porque o da requisicao pode ter sido
+     * justamente o motivo da parada; se a devolucao tambem falhar, o erro vai
+     * junto com o motivo (null quando a validacao so respondeu que nao).
+     */
+    private void devolverAssento(Integer numeroAssento, String letraAssento, Exception motivo) {
+        try {
+            usarTupleSpace(Prazo.daRequisicao(null), oClienteTupleSpace -> {
+                oClienteTupleSpace.write(numeroAssento, letraAssento, TupleSpace.SESSAO_PADRAO);
+                return null;
+            });
+            ASSENTOS_DEVOLVIDOS.increment();
+        } catch(MzsCoreException | RuntimeException ex) {
+            if(motivo != null) {
+                motivo.addSuppressed(ex);
+            }
+            Log.erro("Erro ao devolver o assento {}", numeroAssento + letraAssento, ex);
+        }
+    }
+
+    /**
+     * Deixa no Espaco de Tuplas o registro da venda, para o assento poder ser
+     * liberado depois (liberarAssento). A compra ja foi aceita: se o registro
+     * falhar, so a liberacao deste assento deixa de ser possivel.
+     */
+    private void registrarVenda(Integer numeroAssento, String letraAssento) {
+        try {
+            usarTupleSpace(Prazo.daRequisicao(null), oClienteTupleSpace -> {
+                oClienteTupleSpace.registrarVenda(numeroAssento, letraAssento, TupleSpace.SESSAO_PADRAO);
+                return null;
+            });
+        } catch(MzsCoreException | RuntimeException ex) {
+            Log.erro("Erro ao registrar a venda do assento {}", numeroAssento + letraAssento, ex);
+        }
+    }
+
+    /** Uso do Espaco de Tuplas dentro de {@link #usarTupleSpace}. */
+    private interface UsoTupleSpace<T> {
+        T executar(ClienteTupleSpace oClienteTupleSpace) throws MzsCoreException;
+    }
+
+    /**
+     * Conecta ao Espaco de Tuplas com o que resta do prazo, executa o uso e
+     * encerra o cliente, passando pelo disjuntor do Espaco de Tuplas. Um
+     * assento que ja nao estava la (CountNotMet) nao conta como falha.
+     */
+    private <T> T usarTupleSpace(Prazo prazo, UsoTupleSpace<T> uso) throws MzsCoreException {
+        long prazoMs = prazo.paraTupleSpace();
+        DISJUNTOR_TS.entrar();
+        long inicio = System.nanoTime();
+        boolean sucesso = false;
+        try {
+            ClienteTupleSpace oClienteTupleSpace = new ClienteTupleSpace(nomeContainerTS, servidoresTS, prazoMs);
+            try {
+                T resultado = uso.executar(oClienteTupleSpace);
+                sucesso = true;
+                return resultado;
+            } catch(MzsCoreException ex) {
+                sucesso = assentoIndisponivel(ex);
+                throw ex;
+            } finally {
+                oClienteTupleSpace.encerrar();
+            }
+        } finally {
+            DISJUNTOR_TS.registrar(inicio, sucesso);
+        }
+    }
 
-        oClientRMI.ValidaCC(cadeira, codCartao, dataVencimento, digitoVerificador);
-       
-        oClienteTupleSpace.encerrar();
-        return "WebService: Comprando ingresso";
+    private static boolean assentoIndisponivel(Throwable erro) {
+        for(Throwable causa = erro; causa != null; causa = causa.getCause()) {
+            if(causa instanceof CountNotMetException) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
     public String consultarAssento(Integer numeroAssento, String letraFileira) throws MzsCoreException {
-        carregarConfiguracoesTupleSpace();
+        long inicioTotal = System.nanoTime();
 
-        ClienteTupleSpace oClienteTupleSpace = new ClienteTupleSpace(this.nomeContainerTS, this.ipServidorTS, this.portaServidorTS); 
-
-        ArrayList<ClienteTupleSpace.Assento> resultadoRead = oClienteTupleSpace.readAll(numeroAssento, letraFileira);
+        ArrayList<ClienteTupleSpace.Assento> resultadoRead = usarTupleSpace(Prazo.daRequisicao(contexto), oClienteTupleSpace -> {
+            long inicio = System.nanoTime();
+            ArrayList<ClienteTupleSpace.Assento> assentos = oClienteTupleSpace.readAll(numeroAssento, letraFileira);
+            CONSULTAR_ASSENTO_READ_ALL.registrarDesde(inicio);
+            return assentos;
+        });
         
-        oClienteTupleSpace.encerrar();
+        CONSULTAR_ASSENTO_TOTAL.registrarDesde(inicioTotal);
         
         if(resultadoRead.isEmpty())
             return "assento (" + numeroAssento + "," + letraFileira + ") não está disponivel";
@@ -69,40 +527,113 @@ public class TicketNow implements iTicketNow {
 
     }
     
+    /**
+     * Consultas simultaneas dividem um unico readAll (ver
+     * {@link ConsultaCompartilhada}).
+     */
     @Override
     public String consultarTudosAssentos() throws MzsCoreException {
-        carregarConfiguracoesTupleSpace();
-
-        ClienteTupleSpace oClienteTupleSpace = new ClienteTupleSpace(this.nomeContainerTS, this.ipServidorTS, this.portaServidorTS); 
+        long inicioTotal = System.nanoTime();
+        Prazo prazo = Prazo.daRequisicao(contexto);
+        String retorno = CONSULTAS.consultar("todos", prazo, () -> usarTupleSpace(prazo, this::lerTodosAssentos));
+        CONSULTAR_TODOS_TOTAL.registrarDesde(inicioTotal);
+        return retorno;
+    }
 
+    private String lerTodosAssentos(ClienteTupleSpace oClienteTupleSpace) throws MzsCoreException {
+        long inicio = System.nanoTime();
         ArrayList<ClienteTupleSpace.Assento> resultadoRead = oClienteTupleSpace.readAll(null, null);
+        CONSULTAR_TODOS_READ_ALL.registrarDesde(inicio);
 
 
-        String retorno = "";
+        StringBuilder retorno = new StringBuilder(resultadoRead.size() * 5);
 
         for(ClienteTupleSpace.Assento assento : resultadoRead) {
-            retorno += assento.getNumeroAssento() + assento.getLetraFileira() + ":";
+            retorno.append(assento.getNumeroAssento()).append(assento.getLetraFileira()).append(':');
         }
         
-        oClienteTupleSpace.encerrar();
+        return retorno.toString();
+    }
+    
+    @Override
+    public int consultarQuantidadeAssentosLivres(Integer sessao) throws MzsCoreException {
+        long inicio = System.nanoTime();
+        Prazo prazo = Prazo.daRequisicao(contexto);
+        int quantidade = CONSULTAS.consultar("livres:" + sessao, prazo,
+                () -> usarTupleSpace(prazo, oClienteTupleSpace -> oClienteTupleSpace.contar(null, null, sessao)));
+        CONSULTAR_QUANTIDADE_TOTAL.registrarDesde(inicio);
+        return quantidade;
+    }
+    
+    @Override
+    public String consultarQuantidadeAssentosPorFileira(Integer sessao) throws MzsCoreException {
+        long inicio = System.nanoTime();
+        Prazo prazo = Prazo.daRequisicao(contexto);
+        String retorno = CONSULTAS.consultar("fileiras:" + sessao, prazo,
+                () -> usarTupleSpace(prazo, oClienteTupleSpace -> contarAssentosPorFileira(oClienteTupleSpace, sessao)));
+        CONSULTAR_FILEIRAS_TOTAL.registrarDesde(inicio);
         return retorno;
     }
+
+    private String contarAssentosPorFileira(ClienteTupleSpace oClienteTupleSpace, Integer sessao) throws MzsCoreException {
+        Map<String, Integer> quantidades = oClienteTupleSpace.contarPorFileira(sessao);
+
+        StringBuilder retorno = new StringBuilder();
+        for(Map.Entry<String, Integer> fileira : quantidades.entrySet()) {
+            retorno.append(fileira.getKey()).append(':').append(fileira.getValue()).append(':');
+        }
+        
+        return retorno.toString();
+    }
     
-    private void carregarConfiguracoesTupleSpace() {
+    /**
+     * config_Validacao.txt: "rmi" (padrao) ou "mq[:timeoutMs]". Em "mq" o
+     * pedido vai direto para a fila "validacao" e a resposta volta numa fila
+     * temporaria, sem a fila "pedidos" e sem o RMI.
+     */
+    private static void carregarConfiguracoesValidacao() {
+      String fileName = "config_Validacao.txt";
+      try {
+          BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName));
+          String line = bufferedReader.readLine();
+          bufferedReader.close();
+          if(line != null) {
+              String[] split = line.trim().split(":");
+              validacaoPorMensagem = split[0].equals("mq");
+              if(split.length > 1) {
+                  timeoutValidacaoMs = Long.parseLong(split[1]);
+              }
+          }
+      }
+      catch(IOException ex) {
+          // sem o arquivo a validacao continua pelo RMI
+      }
+    }
+
+    /**
+     * config_TupleSpace.txt: "container:ip:porta" por linha, o primario na
+     * primeira e as replicas nas seguintes. Lido uma vez, na carga da classe:
+     * a lista e montada numa variavel local e so publicada pronta.
+     */
+    private static void carregarConfiguracoesTupleSpace() {
       String fileName = "config_TupleSpace.txt";
       String line = null;
-      int erro = 0;
+      String nomeContainer = null;
+      List<String> servidores = new ArrayList<String>();
 
       try {
           FileReader fileReader = new FileReader(fileName);
           BufferedReader bufferedReader = new BufferedReader(fileReader);
 
+          // A primeira linha e o servidor primario, as seguintes sao replicas
           while((line = bufferedReader.readLine()) != null) {
-              String[] split = line.split(":");
+              if(line.trim().isEmpty()) {
+                  continue;
+              }
+              String[] split = line.trim().split(":");
 
-              this.nomeContainerTS = split[0];
-              this.ipServidorTS = split[1];
-              this.portaServidorTS = Integer.parseInt(split[2]);
+              nomeContainer = split[0];
+              servidores.add(split[1] + ":" + Integer.parseInt(split[2]));
 
           }   
 
@@ -110,19 +641,17 @@ public class TicketNow implements iTicketNow {
       }
       catch(FileNotFoundException ex) {
           System.out.println("Erro na hora de abir o arquivo '" + fileName + "'");  
-          erro = 1;
       }
       catch(IOException ex) {
           System.out.println("Erro na leitura do arquivo '" + fileName + "'");            
-          erro = 1;
       } 
 
-      if(erro == 1) { 
+      if(servidores.isEmpty()) { 
           System.out.println("Carregando configuração padrão");
-          this.nomeContainerTS = "admin";
-          this.ipServidorTS = "localhost";
-          this.portaServidorTS = 55000;
+          nomeContainer = "admin";
+          servidores.add("localhost:55000");
       }
-
+      nomeContainerTS = nomeContainer;
+      servidoresTS = Collections.unmodifiableList(servidores);
     }
 }
\ No newline at end of file
@@ -4,9 +4,14 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.URLDecoder;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import javax.xml.ws.Endpoint;
+import com.sun.net.httpserver.HttpExchange;
+import metricas.ServidorMetricas;
  
 public class TicketNowWS {
     private static int portaServidor;
@@ -18,6 +23,31 @@ public class TicketNowWS {
         System.out.println("WebService rodando em " + endereco);
         
         Endpoint.publish(endereco, new TicketNow());
+        
+        // Metricas (JMX e texto puro) na porta seguinte a do Web Service
+        ServidorMetricas.iniciar(TicketNowWS.portaServidor + 1);
+        // Posicao na sala de espera sem SOAP, para o navegador consultar com frequencia
+        ServidorMetricas.adicionarContexto("/salaEspera", TicketNowWS::responderSalaEspera);
+    }
+
+    /** GET /salaEspera?senha=... responde o mesmo que consultarPosicaoSalaEspera. */
+    private static void responderSalaEspera(HttpExchange troca) throws IOException {
+        String senha = null;
+        String consulta = troca.getRequestURI().getRawQuery();
+        if(consulta != null) {
+            for(String parametro : consulta.split("&")) {
+                if(parametro.startsWith("senha=")) {
+                    senha = URLDecoder.decode(parametro.substring("senha=".length()), "UTF-8");
+                }
+            }
+        }
+        byte[] corpo = TicketNow.getSalaEspera().posicao(senha).getBytes(StandardCharsets.UTF_8);
+        troca.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        troca.getResponseHeaders().set("Cache-Control", "no-store");
+        troca.sendResponseHeaders(200, corpo.length);
+        OutputStream saida = troca.getResponseBody();
+        saida.write(corpo);
+        saida.close();
     }
     
     private static void carregarConfiguracaoWebService() {
@@ -0,0 +1,127 @@
+package ticketnowws.carga;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import javax.jms.Connection;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import tuplespace.TupleSpace;
+
+/**
+ * Sobe, no processo atual, substitutos para todos os middlewares que o
+ * TicketNow usa: o Espaco de Tuplas (core MozartSpaces embutido), o broker
+ * ActiveMQ e o Validador RMI.
+ *
+ * Cada substituto escuta no endereco que o TicketNow ja le dos arquivos de
+ * configuracao (config_TupleSpace.txt, MQconfig.txt e RMIconfig.txt), entao o
+ * Web Service roda sem nenhuma alteracao. Os enderecos precisam ser locais.
+ */
+public class AmbienteLocal {
+    private BrokerService broker;
+    private Connection conexaoDreno;
+    private Registry registro;
+
+    private String nomeContainer = "admin";
+    private int portaTupleSpace = 55000;
+    private String enderecoBroker = "localhost:61616";
+    private int portaRMI = 1099;
+
+    public void iniciar() throws Exception {
+        carregarEnderecos();
+
+        System.out.println("Espaco de Tuplas local em " + nomeContainer + ":" + portaTupleSpace);
+        new TupleSpace(nomeContainer, portaTupleSpace);
+        TupleSpace.popularEspaco();
+
+        System.out.println("Broker ActiveMQ local em tcp://" + enderecoBroker);
+        broker = new BrokerService();
+        broker.setBrokerName("carga");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.addConnector("tcp://" + enderecoBroker);
+        broker.start();
+        drenarConcluidos();
+
+        System.out.println("Validador RMI local na porta " + portaRMI);
+        registro = LocateRegistry.createRegistry(portaRMI);
+        registro.rebind("Validador", new ValidadorLocal());
+    }
+
+    public void encerrar() throws Exception {
+        if(conexaoDreno != null) {
+            conexaoDreno.close();
+        }
+        if(broker != null) {
+            broker.stop();
+        }
+    }
+
+    /**
+     * Ninguem consome "concluidos" durante o teste; sem este consumidor a fila
+     * cresceria ate o broker bloquear os produtores.
+     */
+    private void drenarConcluidos() throws Exception {
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory("vm://carga?create=false");
+        conexaoDreno = factory.createConnection();
+        Session sessao = conexaoDreno.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageConsumer consumidor = sessao.createConsumer(sessao.createQueue("concluidos"));
+        consumidor.setMessageListener(mensagem -> { });
+        conexaoDreno.start();
+    }
+
+    private void carregarEnderecos() throws IOException {
+        String[] split = enderecoTupleSpace();
+        nomeContainer = split[0];
+        verificarLocal(split[1], "config_TupleSpace.txt");
+        portaTupleSpace = Integer.parseInt(split[2]);
+
+        String linha = primeiraLinha("MQconfig.txt");
+        if(linha == null) {
+            throw new IOException("MQconfig.txt nao encontrado");
+        }
+        verificarLocal(linha.split(":")[0], "MQconfig.txt");
+        enderecoBroker = linha;
+
+        linha = primeiraLinha("RMIconfig.txt");
+        if(linha == null) {
+            throw new IOException("RMIconfig.txt nao encontrado");
+        }
+        split = linha.split(":");
+        verificarLocal(split[0], "RMIconfig.txt");
+        portaRMI = Integer.parseInt(split[1]);
+    }
+
+    /**
+     * Container, ip e porta do Espaco de Tuplas, como o TicketNow le da
+     * primeira linha de config_TupleSpace.txt (ou o padrao dele).
+     */
+    static String[] enderecoTupleSpace() {
+        String linha = primeiraLinha("config_TupleSpace.txt");
+        if(linha == null) {
+            return new String[] {"admin", "localhost", "55000"};
+        }
+        return linha.split(":");
+    }
+
+    private static void verificarLocal(String host, String arquivo) {
+        if(!host.equals("localhost") && !host.equals("127.0.0.1")) {
+            throw new IllegalStateException(arquivo + " aponta para " + host + "; o gerador de carga so sobe servicos em localhost");
+        }
+    }
+
+    private static String primeiraLinha(String fileName) {
+        try {
+            BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName));
+            String line = bufferedReader.readLine();
+            bufferedReader.close();
+            return line;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package ticketnowws.carga;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import activeMQCliente.Log;
+import metricas.Histograma;
+import ticketnowws.TicketNow;
+import tuplespace.ClienteTupleSpace;
+import tuplespace.TupleSpace;
+
+/**
+ * Gerador de carga de malha aberta para o TicketNow.
+ *
+ * As requisicoes (comprarIngresso, consultarAssento e consultarTudosAssentos)
+ * sao disparadas numa taxa fixa, independente de quanto o sistema demora a
+ * responder. A latencia e medida a partir do instante em que a requisicao
+ * deveria ter saido, e nao de quando uma thread ficou livre para envia-la;
+ * assim o tempo que ela passou esperando na fila entra na conta (correcao de
+ * coordinated omission). O tempo de servico puro tambem e mostrado.
+ *
+ * Sem a opcao "externo" todos os middlewares sobem no proprio processo
+ * (ver {@link AmbienteLocal}).
+ *
+ * Uso: java -cp TicketNowWS.jar ticketnowws.carga.GeradorCarga
+ *          [req/s] [segundos] [mix comprar:consultar:todos] [threads] [externo]
+ */
+public class GeradorCarga {
+    private static final String[] OPERACOES = {"comprarIngresso", "consultarAssento", "consultarTudosAssentos"};
+    private static final String COMPRA_OK = "WebService: Comprando ingresso";
+
+    private final TicketNow ticketNow = new TicketNow();
+    private final Histograma[] latencias = new Histograma[OPERACOES.length];
+    private final Histograma[] servico = new Histograma[OPERACOES.length];
+    private final LongAdder[] erros = new LongAdder[OPERACOES.length];
+    private final LongAdder esgotados = new LongAdder();
+    private final LongAdder recusadas = new LongAdder();
+    private ClienteTupleSpace reposicao;
+    private String fileiras;
+
+    public GeradorCarga() {
+        for(int i = 0; i < OPERACOES.length; i++) {
+            latencias[i] = new Histograma(OPERACOES[i]);
+            servico[i] = new Histograma(OPERACOES[i]);
+            erros[i] = new LongAdder();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        double taxa = args.length > 0 ? Double.parseDouble(args[0]) : 50;
+        int segundos = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int[] mix = lerMix(args.length > 2 ? args[2] : "20:60:20");
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+        boolean externo = args.length > 4 && args[4].equals("externo");
+
+        Log.setNivel(Log.ERRO);
+        activeMQCliente.Log.setNivel(activeMQCliente.Log.ERRO);
+        rmi.Log.setNivel(rmi.Log.ERRO);
+
+        AmbienteLocal ambiente = null;
+        if(!externo) {
+            ambiente = new AmbienteLocal();
+            ambiente.iniciar();
+        }
+
+        GeradorCarga gerador = new GeradorCarga();
+        gerador.executar(taxa, segundos, mix, threads);
+        gerador.relatar(segundos);
+
+        if(ambiente != null) {
+            ambiente.encerrar();
+        }
+        System.exit(0);
+    }
+
+    public void executar(double taxa, int segundos, int[] mix, int threads) throws Exception {
+        String[] tupleSpace = AmbienteLocal.enderecoTupleSpace();
+        reposicao = new ClienteTupleSpace(tupleSpace[0], tupleSpace[1], Integer.parseInt(tupleSpace[2]));
+        fileiras = reposicao.lerFileiras(TupleSpace.SESSAO_PADRAO);
+        if(fileiras.isEmpty()) {
+            throw new IllegalStateException("O Espaco de Tuplas nao tem a sala da sessao " + TupleSpace.SESSAO_PADRAO);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long intervalo = (long) (TimeUnit.SECONDS.toNanos(1) / taxa);
+        long total = (long) (taxa * segundos);
+        int somaMix = mix[0] + mix[1] + mix[2];
+
+        System.out.println(String.format(Locale.ROOT, "Disparando %.1f req/s por %d s (%d requisicoes, %d threads)", taxa, segundos, total, threads));
+        long inicio = System.nanoTime();
+        for(long n = 0; n < total; n++) {
+            final long previsto = inicio + n * intervalo;
+            long espera = previsto - System.nanoTime();
+            if(espera > 0) {
+                LockSupport.parkNanos(espera);
+            }
+            int sorteio = ThreadLocalRandom.current().nextInt(somaMix);
+            final int operacao = sorteio < mix[0] ? 0 : sorteio < mix[0] + mix[1] ? 1 : 2;
+            executor.execute(() -> requisitar(operacao, previsto));
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        reposicao.encerrar();
+    }
+
+    private void requisitar(int operacao, long previsto) {
+        int numeroAssento = ThreadLocalRandom.current().nextInt(10) + 1;
+        String letraFileira = String.valueOf(fileiras.charAt(ThreadLocalRandom.current().nextInt(fileiras.length())));
+        long inicio = System.nanoTime();
+        try {
+            switch(operacao) {
+                case 0:
+                    String resposta = ticketNow.comprarIngresso(numeroAssento, letraFileira, "7777777777777777", "0120", "999");
+                    registrar(operacao, previsto, inicio);
+                    if(COMPRA_OK.equals(resposta)) {
+                        // Devolve o assento para a sala nao esgotar durante o teste
+                        reposicao.liberar(numeroAssento, letraFileira, TupleSpace.SESSAO_PADRAO);
+                    } else if(TicketNow.COMPRA_RECUSADA.equals(resposta) || TicketNow.COMPRA_INDISPONIVEL.equals(resposta)) {
+                        recusadas.increment();
+                    } else {
+                        esgotados.increment();
+                    }
+                    break;
+                case 1:
+                    ticketNow.consultarAssento(numeroAssento, letraFileira);
+                    registrar(operacao, previsto, inicio);
+                    break;
+                default:
+                    ticketNow.consultarTudosAssentos();
+                    registrar(operacao, previsto, inicio);
+                    break;
+            }
+        } catch (Exception e) {
+            erros[operacao].increment();
+            registrar(operacao, previsto, inicio);
+        }
+    }
+
+    private void registrar(int operacao, long previsto, long inicio) {
+        long fim = System.nanoTime();
+        latencias[operacao].registrar(fim - previsto);
+        servico[operacao].registrar(fim - inicio);
+    }
+
+    public void relatar(int segundos) {
+        System.out.println();
+        System.out.println("operacao               | total  | req/s   | erros  | p50 ms   | p90 ms   | p99 ms   | p999 ms  | max ms   | servico p99 ms");
+        for(int i = 0; i < OPERACOES.length; i++) {
+            Histograma h = latencias[i];
+            long total = h.getContagem();
+            if(total == 0) {
+                continue;
+            }
+            System.out.println(String.format(Locale.ROOT, "%-22s | %6d | %7.1f | %5.1f%% | %8.2f | %8.2f | %8.2f | %8.2f | %8.2f | %8.2f",
+                    OPERACOES[i], total, (double) total / segundos, 100.0 * erros[i].sum() / total,
+                    ms(h.percentil(0.50)), ms(h.percentil(0.90)), ms(h.percentil(0.99)), ms(h.percentil(0.999)), h.getMaxMs(),
+                    ms(servico[i].percentil(0.99))));
+        }
+        System.out.println("Compras sem assento disponivel: " + esgotados.sum());
+        System.out.println("Compras recusadas pelo controle de admissao: " + recusadas.sum());
+        System.out.println("Latencias contadas a partir do instante previsto de envio (com correcao de coordinated omission).");
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static int[] lerMix(String texto) {
+        String[] partes = texto.split(":");
+        return new int[] {Integer.parseInt(partes[0]), Integer.parseInt(partes[1]), Integer.parseInt(partes[2])};
+    }
+}
@@ -0,0 +1,83 @@
+package ticketnowws.carga;
+
+import activeMQCliente.ClientMQ;
+import activeMQCliente.Pedido;
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import rmi.ValidadorInterface;
+
+/**
+ * Substituto do rmi.Validador para o gerador de carga: faz o mesmo caminho
+ * (consome um pedido da fila "pedidos", valida o cartao e publica o
+ * resultado em "concluidos"), mas roda dentro do processo do gerador.
+ */
+public class ValidadorLocal extends UnicastRemoteObject implements ValidadorInterface {
+
+    private static final long serialVersionUID = 1L;
+
+    public ValidadorLocal() throws RemoteException {
+        super();
+    }
+
+    @Override
+    public String teste() throws RemoteException {
+        return "Servidor online.";
+    }
+
+    @Override
+    public String ValidaCC(String Cadeira, String CodCartao, String DataValidade, String DigitoVerificador) throws RemoteException {
+        ClientMQ oClientMQ = clientMQ();
+        return validar(oClientMQ, oClientMQ.consumir("pedidos", new Pedido()), CodCartao);
+    }
+
+    /**
+     * Como o rmi.Validador: consome o pedido pela correlacao e devolve erro se
+     * ele ja nao estiver na fila.
+     */
+    @Override
+    public String ValidaCC(long idPedido, String Cadeira, String CodCartao, String DataValidade, String DigitoVerificador) throws RemoteException {
+        ClientMQ oClientMQ = clientMQ();
+        if(idPedido == 0) {
+            return validar(oClientMQ, oClientMQ.consumir("pedidos", new Pedido()), CodCartao);
+        }
+        Pedido pedido = oClientMQ.consumirPedido("pedidos", idPedido, new Pedido(), 500);
+        if(pedido == null) {
+            return "ERRO: pedido " + idPedido + " nao esta na fila 'pedidos'";
+        }
+        return validar(oClientMQ, pedido, CodCartao);
+    }
+
+    @Override
+    public int ValidaPedido(long idPedido, long cartao, int digitosCartao, int dataValidade, int digitoVerificador) throws RemoteException {
+        boolean valido = digitosCartao == 16 && cartao / 1000000000000000L == 7;
+        if(idPedido != 0) {
+            ClientMQ oClientMQ = clientMQ();
+            Pedido pedido = oClientMQ.consumirPedido("pedidos", idPedido, new Pedido(), 500);
+            if(pedido == null) {
+                return STATUS_ERRO;
+            }
+            pedido.setStatus(valido ? Pedido.STATUS_VALIDO : Pedido.STATUS_INVALIDO);
+            oClientMQ.publicar("concluidos", pedido);
+        }
+        return valido ? STATUS_VALIDO : STATUS_INVALIDO;
+    }
+
+    private ClientMQ clientMQ() throws RemoteException {
+        try {
+            return new ClientMQ();
+        } catch (IOException e) {
+            throw new RemoteException("Erro ao carregar MQconfig.txt", e);
+        }
+    }
+
+    /** Sem pedido (outro validador o levou), so valida o cartao. */
+    private String validar(ClientMQ oClientMQ, Pedido pedido, String CodCartao) {
+        boolean valido = CodCartao.length() == 16 && CodCartao.startsWith("7");
+        if(pedido != null) {
+            pedido.setStatus(valido ? Pedido.STATUS_VALIDO : Pedido.STATUS_INVALIDO);
+            oClientMQ.publicar("concluidos", pedido);
+        }
+        return valido ? "Cartão VÁLIDO." : "Cartão INVÁLIDO.";
+    }
+}
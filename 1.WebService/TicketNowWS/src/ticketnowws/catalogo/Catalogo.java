@@ -0,0 +1,234 @@
+package ticketnowws.catalogo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Uma foto imutavel do tFilme.xml com os indices secundarios ja montados:
+ * titulo, genero e diretor (sem diferenciar maiusculas), ano (mapa ordenado,
+ * para faixas de anos) e avaliacao (vetor ordenado, faixas por busca
+ * binaria). Nada aqui muda depois de construido, entao varias threads podem
+ * consultar a mesma foto sem trava; uma foto nova substitui a anterior
+ * inteira (ver {@link CatalogoFilmes}).
+ */
+public final class Catalogo {
+    public static final Catalogo VAZIO = new Catalogo(Collections.<Filme>emptyList());
+
+    private final List<Filme> filmes;
+    private final Map<String, Filme> porTitulo;
+    private final Map<String, List<Filme>> porGenero;
+    private final Map<String, List<Filme>> porDiretor;
+    private final NavigableMap<Integer, List<Filme>> porAno;
+    // Filmes com avaliacao, em ordem crescente, e as notas na mesma ordem
+    private final Filme[] porAvaliacao;
+    private final double[] avaliacoes;
+    private final String xmlTodos;
+
+    Catalogo(List<Filme> lidos) {
+        this.filmes = Collections.unmodifiableList(new ArrayList<Filme>(lidos));
+
+        Map<String, Filme> titulos = new HashMap<String, Filme>();
+        Map<String, List<Filme>> generos = new HashMap<String, List<Filme>>();
+        Map<String, List<Filme>> diretores = new HashMap<String, List<Filme>>();
+        TreeMap<Integer, List<Filme>> anos = new TreeMap<Integer, List<Filme>>();
+        List<Filme> avaliados = new ArrayList<Filme>();
+        for(Filme filme : filmes) {
+            if(filme.getTitulo() != null) {
+                titulos.put(chave(filme.getTitulo()), filme);
+            }
+            adicionar(generos, filme.getGenero(), filme);
+            adicionar(diretores, filme.getDiretor(), filme);
+            if(filme.getAno() > 0) {
+                List<Filme> doAno = anos.get(filme.getAno());
+                if(doAno == null) {
+                    doAno = new ArrayList<Filme>();
+                    anos.put(filme.getAno(), doAno);
+                }
+                doAno.add(filme);
+            }
+            if(filme.temAvaliacao()) {
+                avaliados.add(filme);
+            }
+        }
+        congelar(generos);
+        congelar(diretores);
+        for(Map.Entry<Integer, List<Filme>> ano : anos.entrySet()) {
+            ano.setValue(Collections.unmodifiableList(ano.getValue()));
+        }
+        this.porTitulo = Collections.unmodifiableMap(titulos);
+        this.porGenero = Collections.unmodifiableMap(generos);
+        this.porDiretor = Collections.unmodifiableMap(diretores);
+        this.porAno = Collections.unmodifiableNavigableMap(anos);
+
+        this.porAvaliacao = avaliados.toArray(new Filme[avaliados.size()]);
+        Arrays.sort(this.porAvaliacao, Comparator.comparingDouble(Filme::getAvaliacao));
+        this.avaliacoes = new double[porAvaliacao.length];
+        for(int i = 0; i < porAvaliacao.length; i++) {
+            avaliacoes[i] = porAvaliacao[i].getAvaliacao();
+        }
+        this.xmlTodos = xml(filmes);
+    }
+
+    /** Le o arquivo em fluxo (StAX), um &lt;filme&gt; por vez. */
+    public static Catalogo ler(File arquivo) throws IOException {
+        List<Filme> lidos = new ArrayList<Filme>();
+        InputStream entrada = new FileInputStream(arquivo);
+        try {
+            XMLStreamReader leitor = XMLInputFactory.newInstance().createXMLStreamReader(entrada, "UTF-8");
+            Map<String, String> campos = new HashMap<String, String>();
+            while(leitor.hasNext()) {
+                int evento = leitor.next();
+                if(evento == XMLStreamConstants.START_ELEMENT) {
+                    String elemento = leitor.getLocalName();
+                    if(elemento.equals("filme")) {
+                        campos.clear();
+                    } else if(!elemento.equals("root")) {
+                        campos.put(elemento, leitor.getElementText().trim());
+                    }
+                } else if(evento == XMLStreamConstants.END_ELEMENT && leitor.getLocalName().equals("filme")) {
+                    lidos.add(new Filme(campos.get("codigo"), campos.get("titulo"), campos.get("descricao"),
+                            campos.get("genero"), ano(campos.get("ano")), campos.get("avaliacao"),
+                            campos.get("diretor"), campos.get("elenco"), campos.get("reg_date")));
+                }
+            }
+            leitor.close();
+        } catch(XMLStreamException ex) {
+            throw new IOException("Erro ao ler " + arquivo, ex);
+        } finally {
+            entrada.close();
+        }
+        return new Catalogo(lidos);
+    }
+
+    public int tamanho() {
+        return filmes.size();
+    }
+
+    public List<Filme> todos() {
+        return filmes;
+    }
+
+    /** O filme com o titulo, ou null. */
+    public Filme porTitulo(String titulo) {
+        return titulo != null ? porTitulo.get(chave(titulo)) : null;
+    }
+
+    public List<Filme> porGenero(String genero) {
+        return buscar(porGenero, genero);
+    }
+
+    public List<Filme> porDiretor(String diretor) {
+        return buscar(porDiretor, diretor);
+    }
+
+    /** Filmes de anoInicial a anoFinal, inclusive, em ordem de ano. */
+    public List<Filme> porAno(int anoInicial, int anoFinal) {
+        if(anoInicial > anoFinal) {
+            return Collections.emptyList();
+        }
+        List<Filme> encontrados = new ArrayList<Filme>();
+        for(List<Filme> doAno : porAno.subMap(anoInicial, true, anoFinal, true).values()) {
+            encontrados.addAll(doAno);
+        }
+        return encontrados;
+    }
+
+    /**
+     * Filmes com avaliacao entre minima e maxima, inclusive, da menor para a
+     * maior. Filmes "(sem avaliação)" nunca entram.
+     */
+    public List<Filme> porAvaliacao(double minima, double maxima) {
+        int inicio = primeiroMaiorOuIgual(minima);
+        int fim = inicio;
+        while(fim < avaliacoes.length && avaliacoes[fim] <= maxima) {
+            fim++;
+        }
+        return Collections.unmodifiableList(Arrays.asList(porAvaliacao).subList(inicio, fim));
+    }
+
+    /** Todos os filmes num &lt;root&gt;, montado uma vez por foto. */
+    public String xmlTodos() {
+        return xmlTodos;
+    }
+
+    /** Os filmes num &lt;root&gt;, no mesmo formato do tFilme.xml. */
+    public static String xml(List<Filme> filmes) {
+        int tamanho = 16;
+        for(Filme filme : filmes) {
+            tamanho += filme.getXml().length();
+        }
+        StringBuilder sb = new StringBuilder(tamanho);
+        sb.append("<root>");
+        for(Filme filme : filmes) {
+            sb.append(filme.getXml());
+        }
+        sb.append("</root>");
+        return sb.toString();
+    }
+
+    private int primeiroMaiorOuIgual(double valor) {
+        int baixo = 0;
+        int alto = avaliacoes.length;
+        while(baixo < alto) {
+            int meio = (baixo + alto) >>> 1;
+            if(avaliacoes[meio] < valor) {
+                baixo = meio + 1;
+            } else {
+                alto = meio;
+            }
+        }
+        return baixo;
+    }
+
+    private static List<Filme> buscar(Map<String, List<Filme>> indice, String valor) {
+        List<Filme> encontrados = valor != null ? indice.get(chave(valor)) : null;
+        return encontrados != null ? encontrados : Collections.<Filme>emptyList();
+    }
+
+    private static void adicionar(Map<String, List<Filme>> indice, String valor, Filme filme) {
+        if(valor == null || valor.isEmpty()) {
+            return;
+        }
+        String chave = chave(valor);
+        List<Filme> lista = indice.get(chave);
+        if(lista == null) {
+            lista = new ArrayList<Filme>();
+            indice.put(chave, lista);
+        }
+        lista.add(filme);
+    }
+
+    private static void congelar(Map<String, List<Filme>> indice) {
+        for(Map.Entry<String, List<Filme>> entrada : indice.entrySet()) {
+            entrada.setValue(Collections.unmodifiableList(entrada.getValue()));
+        }
+    }
+
+    private static String chave(String valor) {
+        return valor.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static int ano(String texto) {
+        try {
+            return texto != null ? Integer.parseInt(texto.trim()) : 0;
+        } catch(NumberFormatException ex) {
+            return 0;
+        }
+    }
+}
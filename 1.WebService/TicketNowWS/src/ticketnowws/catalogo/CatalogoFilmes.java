@@ -0,0 +1,91 @@
+package ticketnowws.catalogo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import metricas.Metricas;
+
+/**
+ * Catalogo de filmes servido da memoria.
+ *
+ * O tFilme.xml do Sistema Web e lido uma vez para um {@link Catalogo}
+ * imutavel. A cada consulta, no maximo uma vez por segundo, a data de
+ * modificacao do arquivo e conferida; se mudou, uma foto nova e lida e troca
+ * a anterior de uma vez so (AtomicReference). Quem estava consultando a foto
+ * antiga termina nela, e ninguem espera pela releitura alem da thread que a
+ * faz. Se a releitura falhar a foto anterior continua valendo.
+ *
+ * Configurado pelo arquivo config_Catalogo.txt: a primeira linha e o caminho
+ * do tFilme.xml (padrao "tFilme.xml").
+ */
+public class CatalogoFilmes {
+    private static final long INTERVALO_VERIFICACAO_MS = 1000;
+
+    private final AtomicReference<Catalogo> atual = new AtomicReference<Catalogo>(Catalogo.VAZIO);
+    private final LongAdder recargas = Metricas.contador("ws.catalogo.recargas");
+    private final File arquivo;
+    private volatile long modificadoEm = -1;
+    private volatile long proximaVerificacao;
+
+    public CatalogoFilmes() {
+        this(carregarCaminho());
+    }
+
+    public CatalogoFilmes(String caminho) {
+        this.arquivo = new File(caminho);
+        Metricas.medidor("ws.catalogo.filmes", () -> atual.get().tamanho());
+    }
+
+    /** A foto atual, relida antes se o arquivo mudou. */
+    public Catalogo catalogo() {
+        long agora = System.currentTimeMillis();
+        if(agora >= proximaVerificacao) {
+            proximaVerificacao = agora + INTERVALO_VERIFICACAO_MS;
+            recarregarSeMudou();
+        }
+        return atual.get();
+    }
+
+    private void recarregarSeMudou() {
+        long modificado = arquivo.lastModified();
+        if(modificado == modificadoEm) {
+            return;
+        }
+        synchronized(this) {
+            if(modificado == modificadoEm) {
+                return;
+            }
+            // Mesmo se falhar: so tenta de novo quando o arquivo mudar outra vez
+            modificadoEm = modificado;
+            try {
+                long inicio = System.nanoTime();
+                Catalogo novo = Catalogo.ler(arquivo);
+                atual.set(novo);
+                recargas.increment();
+                System.out.println("Catalogo carregado de '" + arquivo + "': " + novo.tamanho() + " filmes em "
+                        + (System.nanoTime() - inicio) / 1000000 + " ms");
+            } catch(IOException ex) {
+                System.out.println("Erro ao carregar o catalogo de '" + arquivo + "': " + ex.getMessage());
+            }
+        }
+    }
+
+    private static String carregarCaminho() {
+        String fileName = "config_Catalogo.txt";
+        try {
+            BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName));
+            String line = bufferedReader.readLine();
+            bufferedReader.close();
+            if(line != null && !line.trim().isEmpty()) {
+                return line.trim();
+            }
+        }
+        catch(IOException ex) {
+            // sem o arquivo, caminho padrao
+        }
+        return "tFilme.xml";
+    }
+}
@@ -0,0 +1,131 @@
+package ticketnowws.catalogo;
+
+/**
+ * Um registro do tFilme.xml. Imutavel; o trecho XML do filme e montado uma
+ * vez na carga, entao listar filmes e so concatenar strings prontas.
+ */
+public final class Filme {
+    /** Valor de avaliacao para "(sem avaliação)". */
+    public static final double SEM_AVALIACAO = Double.NaN;
+
+    private final String codigo;
+    private final String titulo;
+    private final String descricao;
+    private final String genero;
+    private final int ano;
+    private final String avaliacaoTexto;
+    private final double avaliacao;
+    private final String diretor;
+    private final String elenco;
+    private final String regDate;
+    private final String xml;
+
+    public Filme(String codigo, String titulo, String descricao, String genero, int ano, String avaliacaoTexto,
+            String diretor, String elenco, String regDate) {
+        this.codigo = codigo;
+        this.titulo = titulo;
+        this.descricao = descricao;
+        this.genero = genero;
+        this.ano = ano;
+        this.avaliacaoTexto = avaliacaoTexto;
+        this.avaliacao = converterAvaliacao(avaliacaoTexto);
+        this.diretor = diretor;
+        this.elenco = elenco;
+        this.regDate = regDate;
+        this.xml = montarXml();
+    }
+
+    public String getCodigo() {
+        return codigo;
+    }
+
+    public String getTitulo() {
+        return titulo;
+    }
+
+    public String getDescricao() {
+        return descricao;
+    }
+
+    public String getGenero() {
+        return genero;
+    }
+
+    public int getAno() {
+        return ano;
+    }
+
+    /** Avaliacao numerica, ou {@link #SEM_AVALIACAO} (NaN). */
+    public double getAvaliacao() {
+        return avaliacao;
+    }
+
+    public boolean temAvaliacao() {
+        return !Double.isNaN(avaliacao);
+    }
+
+    public String getDiretor() {
+        return diretor;
+    }
+
+    public String getElenco() {
+        return elenco;
+    }
+
+    public String getRegDate() {
+        return regDate;
+    }
+
+    /** O filme no mesmo formato de um &lt;filme&gt; do tFilme.xml. */
+    public String getXml() {
+        return xml;
+    }
+
+    private static double converterAvaliacao(String texto) {
+        if(texto == null) {
+            return SEM_AVALIACAO;
+        }
+        try {
+            return Double.parseDouble(texto.trim().replace(',', '.'));
+        } catch (NumberFormatException ex) {
+            return SEM_AVALIACAO;
+        }
+    }
+
+    private String montarXml() {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("<filme>");
+        elemento(sb, "codigo", codigo);
+        elemento(sb, "titulo", titulo);
+        elemento(sb, "descricao", descricao);
+        elemento(sb, "genero", genero);
+        elemento(sb, "ano", ano > 0 ? Integer.toString(ano) : null);
+        elemento(sb, "avaliacao", avaliacaoTexto);
+        elemento(sb, "diretor", diretor);
+        elemento(sb, "elenco", elenco);
+        elemento(sb, "reg_date", regDate);
+        sb.append("</filme>");
+        return sb.toString();
+    }
+
+    private static void elemento(StringBuilder sb, String nome, String valor) {
+        sb.append('<').append(nome).append('>');
+        if(valor != null) {
+            for(int i = 0; i < valor.length(); i++) {
+                char c = valor.charAt(i);
+                switch(c) {
+                    case '<': sb.append("&lt;"); break;
+                    case '>': sb.append("&gt;"); break;
+                    case '&': sb.append("&amp;"); break;
+                    default: sb.append(c);
+                }
+            }
+        }
+        sb.append("</").append(nome).append('>');
+    }
+
+    @Override
+    public String toString() {
+        return codigo + " " + titulo;
+    }
+}
@@ -13,4 +13,18 @@ public interface iTicketNow {
     @WebMethod  String comprarIngresso(Integer numeroAssento, String letraAssento, String codCartao, String dataVencimento, String digitoVerificador) throws MzsCoreException, IOException;
     @WebMethod  String consultarAssento(Integer numeroAssento, String letraFileira) throws MzsCoreException;
     @WebMethod  String consultarTudosAssentos() throws MzsCoreException;
+    @WebMethod  int consultarQuantidadeAssentosLivres(Integer sessao) throws MzsCoreException;
+    @WebMethod  String consultarQuantidadeAssentosPorFileira(Integer sessao) throws MzsCoreException;
+    @WebMethod  String disponibilizarFilme(String titulo) throws IOException;
+    @WebMethod  String liberarAssento(String titulo, Integer numeroAssento, String letraFileira) throws MzsCoreException, IOException;
+    @WebMethod  String entrarSalaEspera();
+    @WebMethod  String consultarPosicaoSalaEspera(String senha);
+    @WebMethod  String comprarIngressoComSenha(String senha, Integer numeroAssento, String letraAssento, String codCartao, String dataVencimento, String digitoVerificador) throws MzsCoreException, IOException;
+    @WebMethod  String comprarIngressoIdempotente(String chaveIdempotencia, Integer numeroAssento, String letraAssento, String codCartao, String dataVencimento, String digitoVerificador) throws MzsCoreException, IOException;
+    @WebMethod  String consultarCatalogo();
+    @WebMethod  String consultarFilmePorTitulo(String titulo);
+    @WebMethod  String consultarFilmesPorGenero(String genero);
+    @WebMethod  String consultarFilmesPorAno(Integer anoInicial, Integer anoFinal);
+    @WebMethod  String consultarFilmesPorAvaliacao(Double avaliacaoMinima, Double avaliacaoMaxima);
+    @WebMethod  String consultarFilmesPorDiretor(String diretor);
 }
\ No newline at end of file
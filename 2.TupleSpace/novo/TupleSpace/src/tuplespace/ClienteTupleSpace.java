@@ -5,12 +5,28 @@
  */
 package tuplespace;
 
+import activeMQCliente.Log;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.mozartspaces.capi3.LindaCoordinator;
 import org.mozartspaces.capi3.LindaCoordinator.LindaSelector;
@@ -28,14 +44,32 @@ import org.mozartspaces.core.MzsCoreException;
 
 public class ClienteTupleSpace {
     
-    private static URI SPACE;
-    private static MzsCore core;
-    private static Capi capi;
-    private static ContainerReference cref;
+    /** Tempo maximo (ms) para verificar se o servidor atual ainda responde. */
+    private static final long TEMPO_VERIFICACAO_SERVIDOR = 1000;
     
-    private static String nomeContainer;
-    private static String ipServidor;
-    private static int portaServidor;
+    /**
+     * Threads que executam as operacoes com prazo; quem chamou so espera ate o
+     * prazo. Uma operacao cancelada pode continuar presa no core ate ele
+     * desistir, entao o numero de threads e limitado: sem thread livre, a
+     * operacao falha na hora em vez de abrir mais uma.
+     */
+    private static final int MAX_OPERACOES_COM_PRAZO = 256;
+    private static final ExecutorService OPERACOES_COM_PRAZO = new ThreadPoolExecutor(0, MAX_OPERACOES_COM_PRAZO, 60,
+            TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), r -> {
+                Thread thread = new Thread(r, "tuplespace-prazo");
+                thread.setDaemon(true);
+                return thread;
+            });
+    
+    private URI SPACE;
+    private MzsCore core;
+    private Capi capi;
+    private ContainerReference cref;
+    
+    private String nomeContainer;
+    private final List<URI> servidores = new ArrayList<URI>();
+    private int servidorAtual = 0;
+    private long prazoMs = 0;
     
     /**
      * 
@@ -47,79 +81,246 @@ public class ClienteTupleSpace {
      *          
     */
     public ClienteTupleSpace(String nomeContainer, String ipServidor, int portaServidor) throws MzsCoreException { 
-        ClienteTupleSpace.nomeContainer = nomeContainer;
-        ClienteTupleSpace.ipServidor = ipServidor;
-        ClienteTupleSpace.portaServidor = portaServidor;
+        this(nomeContainer, Arrays.asList(ipServidor + ":" + portaServidor));
+    }
+    
+    /**
+     * 
+     * @param nomeContainer
+     *          Especifica o nome do container que o cliente usará.
+     * @param enderecosServidores
+     *          Lista de enderecos "ip:porta". O primeiro e o servidor primario,
+     *          os demais sao replicas usadas quando o primario nao responde.
+    */
+    public ClienteTupleSpace(String nomeContainer, List<String> enderecosServidores) throws MzsCoreException { 
+        this(nomeContainer, enderecosServidores, 0);
+    }
+    
+    /**
+     * 
+     * @param nomeContainer
+     *          Especifica o nome do container que o cliente usará.
+     * @param enderecosServidores
+     *          Lista de enderecos "ip:porta" (primario e replicas).
+     * @param prazoMs
+     *          Tempo maximo de cada operacao, inclusive a procura do
+     *          servidor (0: sem limite). Ver {@link #setPrazo(long)}.
+    */
+    public ClienteTupleSpace(String nomeContainer, List<String> enderecosServidores, long prazoMs) throws MzsCoreException { 
+        this.nomeContainer = nomeContainer;
+        this.prazoMs = prazoMs;
+        for(String endereco : enderecosServidores) {
+            this.servidores.add(URI.create("xvsm://" + endereco));
+        }
         
-        System.out.println("Procurando Servidor");
+        Log.info("Procurando Servidor");
         procurarServidor();
     }
     
     public ClienteTupleSpace() {
         // Configuracao Padrao
-        ClienteTupleSpace.nomeContainer = "admin";
-        ClienteTupleSpace.ipServidor = "localhost";
-        ClienteTupleSpace.portaServidor = 55000;
+        this.nomeContainer = "admin";
+        this.servidores.add(URI.create("xvsm://localhost:55000"));
     }
     
-    public static void encerrar () throws MzsCoreException {
+    public void encerrar () throws MzsCoreException {
         capi.shutdown(null);
     }
     
-    private static void procurarServidor() throws MzsCoreException {
-        SPACE = URI.create("xvsm://" + ipServidor + ":" + portaServidor);
-        core = DefaultMzsCore.newInstance(0);
-        capi = new Capi(core);
+    /**
+     * Procura o container a partir do servidor atual, passando para o proximo
+     * servidor da lista sempre que o lookup falhar.
+     */
+    private void procurarServidor() throws MzsCoreException {
+        if(core == null) {
+            core = FabricaCore.novoCore(0);
+            capi = new Capi(core);
+        }
         
-        cref = capi.lookupContainer(nomeContainer, SPACE, RequestTimeout.ZERO, null);
+        if(servidores.isEmpty()) {
+            throw new MzsCoreException("Nenhum servidor do Espaco de Tuplas configurado");
+        }
+        MzsCoreException ultimoErro = null;
+        for(int tentativa = 0; tentativa < servidores.size(); tentativa++) {
+            URI servidor = servidores.get(servidorAtual);
+            try {
+                cref = comPrazo(() -> capi.lookupContainer(nomeContainer, servidor, RequestTimeout.ZERO, null));
+                SPACE = servidor;
+                return;
+            } catch (MzsCoreException e) {
+                Log.info("Servidor {} nao encontrado", servidor);
+                ultimoErro = e;
+                servidorAtual = (servidorAtual + 1) % servidores.size();
+            }
+        }
+        throw ultimoErro;
+    }
+    
+    private boolean servidorAcessivel() {
+        try {
+            capi.lookupContainer(nomeContainer, SPACE, TEMPO_VERIFICACAO_SERVIDOR, null);
+            return true;
+        } catch (MzsCoreException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Executa uma leitura no servidor atual. Se ela falhar porque o servidor
+     * deixou de responder, o cliente passa para a proxima replica e repete a
+     * leitura uma vez.
+     *
+     * So uma replica promovida expoe o container (ver {@link Replicador}),
+     * entao a troca nunca cai numa replica que ainda segue o primario.
+     */
+    private <T> T executar(Operacao<T> operacao) throws MzsCoreException {
+        try {
+            return comPrazo(operacao);
+        } catch (MzsCoreException e) {
+            if(!trocarServidor()) {
+                throw e;
+            }
+            return comPrazo(operacao);
+        }
+    }
+    
+    /**
+     * Executa um write ou take no servidor atual, sem repetir: se a resposta
+     * se perdeu, a operacao pode ter sido feita, e repeti-la escreveria ou
+     * retiraria a tupla de novo. O cliente ainda troca de servidor para as
+     * operacoes seguintes, mas o erro volta para quem chamou.
+     */
+    private <T> T executarUmaVez(Operacao<T> operacao) throws MzsCoreException {
+        try {
+            return comPrazo(operacao);
+        } catch (MzsCoreException e) {
+            try {
+                trocarServidor();
+            } catch (MzsCoreException erroTroca) {
+                e.addSuppressed(erroTroca);
+            }
+            throw e;
+        }
+    }
+    
+    /** Passa para a proxima replica se o servidor atual deixou de responder. */
+    private boolean trocarServidor() throws MzsCoreException {
+        if(servidores.size() < 2 || servidorAcessivel()) {
+            return false;
+        }
+        Log.info("Servidor {} inacessivel, trocando para a replica", SPACE);
+        servidorAtual = (servidorAtual + 1) % servidores.size();
+        procurarServidor();
+        return true;
     }
     
+    /**
+     * Executa a operacao esperando no maximo prazoMs pela resposta. Os
+     * timeouts do XVSM (sempre 0 aqui) so valem para a espera por tuplas no
+     * servidor; um servidor lento ou travado prenderia a thread de quem
+     * chamou indefinidamente. Sem prazo, executa na propria thread.
+     */
+    private <T> T comPrazo(Operacao<T> operacao) throws MzsCoreException {
+        if(prazoMs <= 0) {
+            return operacao.executar();
+        }
+        Future<T> resultado;
+        try {
+            resultado = OPERACOES_COM_PRAZO.submit(operacao::executar);
+        } catch (RejectedExecutionException e) {
+            throw new MzsCoreException("Sem thread livre para a operacao (" + MAX_OPERACOES_COM_PRAZO + " presas)", e);
+        }
+        try {
+            return resultado.get(prazoMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            resultado.cancel(true);
+            throw new MzsCoreException("Prazo de " + prazoMs + " ms esgotado no servidor " + SPACE, e);
+        } catch (InterruptedException e) {
+            resultado.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new MzsCoreException("Operacao interrompida", e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof MzsCoreException) {
+                throw (MzsCoreException) e.getCause();
+            }
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new MzsCoreException("Erro na operacao", e.getCause());
+        }
+    }
+    
+    /** Tempo maximo (ms) das proximas operacoes; 0 desliga o limite. */
+    public void setPrazo(long prazoMs) {
+        this.prazoMs = prazoMs;
+    }
+    
+    private interface Operacao<T> {
+        T executar() throws MzsCoreException;
+    }
+    
+    public URI getServidorAtual() {
+        return SPACE;
+    }
+    
+    /**
+     * Escreve um assento sem sessao. Ele nao entra nas contagens por sessao
+     * ({@link #contar}, {@link #contarPorFileira(Integer)}); para devolver um
+     * assento de uma sessao use {@link #write(Integer, String, Integer)}.
+     */
     public void write(Integer numeroAssento, String letraFileira) throws MzsCoreException {
-        System.out.println("\n\n!!!! Escrevendo: (" + numeroAssento + "," + letraFileira + ")\n\n");
+        write(numeroAssento, letraFileira, null);
+    }
+    
+    public void write(Integer numeroAssento, String letraFileira, Integer sessao) throws MzsCoreException {
+        Log.debug("Escrevendo: ({},{}) sessao {}", numeroAssento, letraFileira, sessao);
         
-        Assento oAssento = new Assento(numeroAssento, letraFileira);
-        capi.write(cref, new Entry((Serializable) oAssento));
+        final Assento oAssento = new Assento(numeroAssento, letraFileira, sessao);
+        executarUmaVez(() -> {
+            capi.write(cref, new Entry((Serializable) oAssento));
+            return null;
+        });
     }
     
     public ArrayList<Assento> read(Integer numeroAssento, String letraFileira) throws MzsCoreException {
-        System.out.println("\n\n!!!! Lendo: (" + numeroAssento + "," + letraFileira + ")\n\n");
+        Log.debug("Lendo: ({},{})", numeroAssento, letraFileira);
         
         ArrayList<Assento> resultadoPesquisa;
         Assento template = new Assento(numeroAssento, letraFileira);
         
         LindaCoordinator.LindaSelector newSelector = LindaCoordinator.newSelector(template, 1);
         
-        resultadoPesquisa = capi.read(cref, newSelector, 0, null);
+        resultadoPesquisa = executar(() -> capi.read(cref, newSelector, 0, null));
         
-        System.out.println("Resultado da pesquisa: " + resultadoPesquisa);
+        Log.debug("Resultado da pesquisa: {} assento(s)", resultadoPesquisa.size());
         
         return resultadoPesquisa;
     }
     
     public ArrayList<Assento> readAll(Integer numeroAssento, String letraFileira) throws MzsCoreException {
-        System.out.println("\n\n!!!! Lendo: (" + numeroAssento + "," + letraFileira + ")\n\n");
+        Log.debug("Lendo: ({},{})", numeroAssento, letraFileira);
         
         ArrayList<Assento> resultadoPesquisa;
         Assento template = new Assento(numeroAssento, letraFileira);
         
         LindaCoordinator.LindaSelector newSelector = LindaCoordinator.newSelector(template, Selecting.COUNT_ALL);
         
-        resultadoPesquisa = capi.read(cref, newSelector, 0, null);
+        resultadoPesquisa = executar(() -> capi.read(cref, newSelector, 0, null));
         
-        System.out.println("Resultado da pesquisa: " + resultadoPesquisa);
+        Log.debug("Resultado da pesquisa: {} assento(s)", resultadoPesquisa.size());
         
         return resultadoPesquisa;
     }
     
     public ArrayList<Assento> take(Integer numeroAssento, String letraFileira) throws MzsCoreException {
-        System.out.println("Taking");
+        Log.debug("Retirando: ({},{})", numeroAssento, letraFileira);
         
         ArrayList<Assento> resultadoPesquisa;
         Assento template = new Assento(numeroAssento, letraFileira);
         
         LindaCoordinator.LindaSelector newSelector = LindaCoordinator.newSelector(template);
         
-        resultadoPesquisa = capi.take(cref, newSelector, 0, null);
+        resultadoPesquisa = executarUmaVez(() -> capi.take(cref, newSelector, 0, null));
         return resultadoPesquisa;
     }
     
@@ -129,18 +330,237 @@ public class ClienteTupleSpace {
         
         LindaCoordinator.LindaSelector newSelector = LindaCoordinator.newSelector(template, Selecting.COUNT_ALL);
         
-        resultadoPesquisa = capi.take(cref, newSelector, 0, null);
+        resultadoPesquisa = executarUmaVez(() -> capi.take(cref, newSelector, 0, null));
         return resultadoPesquisa;
     }
+    
+    /**
+     * Conta os assentos livres que casam com o template. A contagem e feita
+     * pelo servidor (operacao test do XVSM), sem transferir nem desserializar
+     * as tuplas.
+     * 
+     * @param sessao
+     *          Sessao dos assentos, ou null para todas.
+     */
+    public int contar(Integer numeroAssento, String letraFileira, Integer sessao) throws MzsCoreException {
+        Assento template = new Assento(numeroAssento, letraFileira, sessao);
+        
+        LindaCoordinator.LindaSelector newSelector = LindaCoordinator.newSelector(template, Selecting.COUNT_ALL);
+        
+        return executar(() -> capi.test(cref, newSelector, 0, null));
+    }
+    
+    /**
+     * Conta os assentos livres de cada fileira da sessao, com as fileiras da
+     * {@link Sala} gravada no espaco.
+     * 
+     * @param sessao
+     *          Sessao dos assentos, ou null para todas.
+     * @return mapa fileira -> quantidade de assentos livres, vazio se o espaco
+     *          nao tiver a sala da sessao
+     */
+    public Map<String, Integer> contarPorFileira(Integer sessao) throws MzsCoreException {
+        return contarPorFileira(sessao, lerFileiras(sessao));
+    }
+    
+    /**
+     * Conta os assentos livres de cada fileira da sessao.
+     * 
+     * @param fileiras
+     *          Letras das fileiras a contar (ex.: "ABCDE").
+     * @return mapa fileira -> quantidade de assentos livres, na ordem de fileiras
+     */
+    public Map<String, Integer> contarPorFileira(Integer sessao, String fileiras) throws MzsCoreException {
+        Map<String, Integer> resultado = new LinkedHashMap<String, Integer>();
+        for(int i = 0; i < fileiras.length(); i++) {
+            String letraFileira = String.valueOf(fileiras.charAt(i));
+            resultado.put(letraFileira, contar(null, letraFileira, sessao));
+        }
+        return resultado;
+    }
+
+    /**
+     * Registra que o assento foi vendido, para que so ele possa ser liberado
+     * depois (ver {@link #liberar}).
+     */
+    public void registrarVenda(Integer numeroAssento, String letraFileira, Integer sessao) throws MzsCoreException {
+        final Vendido oVendido = new Vendido(numeroAssento, letraFileira, sessao);
+        executarUmaVez(() -> {
+            capi.write(cref, new Entry((Serializable) oVendido));
+            return null;
+        });
+    }
+    
+    /**
+     * Devolve ao espaco um assento vendido (ex.: compra cancelada). O registro
+     * da venda e retirado antes de o assento voltar, entao duas liberacoes do
+     * mesmo assento nao o duplicam, e um assento livre ou que nao existe nao e
+     * criado.
+     * 
+     * @return false se o assento nao constava como vendido
+     */
+    public boolean liberar(Integer numeroAssento, String letraFileira, Integer sessao) throws MzsCoreException {
+        LindaCoordinator.LindaSelector newSelector = LindaCoordinator.newSelector(new Vendido(numeroAssento, letraFileira, sessao), Selecting.COUNT_ALL);
+        
+        ArrayList<Vendido> vendidos = executarUmaVez(() -> capi.take(cref, newSelector, 0, null));
+        if(vendidos.isEmpty()) {
+            return false;
+        }
+        write(numeroAssento, letraFileira, sessao);
+        return true;
+    }
+    
+    /**
+     * Fileiras da sala da sessao, como gravadas no espaco por quem o populou.
+     * 
+     * @param sessao
+     *          Sessao da sala, ou null para juntar as fileiras de todas.
+     * @return letras das fileiras (ex.: "ABCDE"), ou "" se nao houver sala
+     */
+    public String lerFileiras(Integer sessao) throws MzsCoreException {
+        LindaCoordinator.LindaSelector newSelector = LindaCoordinator.newSelector(new Sala(sessao, null), Selecting.COUNT_ALL);
+        
+        ArrayList<Sala> salas = executar(() -> capi.read(cref, newSelector, 0, null));
+        StringBuilder fileiras = new StringBuilder();
+        for(Sala oSala : salas) {
+            for(int i = 0; i < oSala.getFileiras().length(); i++) {
+                char letraFileira = oSala.getFileiras().charAt(i);
+                if(fileiras.indexOf(String.valueOf(letraFileira)) < 0) {
+                    fileiras.append(letraFileira);
+                }
+            }
+        }
+        return fileiras.toString();
+    }
+    
+    /**
+     * Grava a sala da sessao no espaco, no lugar da anterior.
+     * 
+     * @param fileiras
+     *          Letras das fileiras (ex.: "ABCDE").
+     */
+    public void escreverSala(Integer sessao, String fileiras) throws MzsCoreException {
+        LindaCoordinator.LindaSelector newSelector = LindaCoordinator.newSelector(new Sala(sessao, null), Selecting.COUNT_ALL);
+        
+        final Sala oSala = new Sala(sessao, fileiras);
+        executarUmaVez(() -> {
+            capi.take(cref, newSelector, 0, null);
+            capi.write(cref, new Entry((Serializable) oSala));
+            return null;
+        });
+    }
+
+    /**
+     * Tupla com a disposicao da sala de uma sessao: quais fileiras ela tem.
+     * Fica no mesmo container dos assentos, para quem consulta nao precisar
+     * conhecer a sala de antemao; os templates de Assento nao a encontram.
+     */
+    public static class Sala implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private Integer sessao;
+        private String fileiras;
+
+        public Sala() { }
+
+        public Sala(final Integer sessao, final String fileiras) {
+            this.sessao = sessao;
+            this.fileiras = fileiras;
+        }
+
+        public Integer getSessao() {
+            return sessao;
+        }
+
+        public String getFileiras() {
+            return fileiras;
+        }
+
+        @Override
+        public String toString() {
+            return "Sala: (" + sessao + "," + fileiras + ")";
+        }
+    }
+
+    /**
+     * Registro de um assento vendido. Fica no mesmo container dos assentos;
+     * os templates de Assento nao o encontram.
+     */
+    public static class Vendido implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private Integer numeroAssento;
+        private String letraFileira;
+        private Integer sessao;
+
+        public Vendido() { }
+
+        public Vendido(final Integer numeroAssento, final String letraFileira, final Integer sessao) {
+            this.numeroAssento = numeroAssento;
+            this.letraFileira = letraFileira;
+            this.sessao = sessao;
+        }
+
+        public Integer getNumeroAssento() {
+            return numeroAssento;
+        }
+
+        public String getLetraFileira() {
+            return letraFileira;
+        }
+
+        public Integer getSessao() {
+            return sessao;
+        }
+
+        @Override
+        public String toString() {
+            return "Vendido: (" + numeroAssento + "," + letraFileira + "," + sessao + ")";
+        }
+    }
 
-    public static class Assento implements Serializable {
+    /**
+     * Tupla de assento. Campos nulos funcionam como curinga nos templates do
+     * LindaCoordinator, por isso continuam como objetos; na rede o assento e
+     * gravado em formato binario compacto (ver writeExternal).
+     */
+    public static class Assento implements Externalizable {
+
+        private static final long serialVersionUID = 2L;
 
-        private final Integer numeroAssento;
-        private final String letraFileira;
+        /** Os 4 bits altos do primeiro byte guardam a versao do formato. */
+        private static final int VERSAO = 1;
+
+        private static final int TEM_NUMERO = 1;
+        private static final int TEM_FILEIRA = 1 << 1;
+        private static final int TEM_SESSAO = 1 << 2;
+        private static final int FILEIRA_LONGA = 1 << 3;
+
+        /** Fileiras de uma letra sao reaproveitadas na leitura, sem alocar String. */
+        private static final String[] FILEIRAS = new String[128];
+        static {
+            for(int c = 0; c < FILEIRAS.length; c++) {
+                FILEIRAS[c] = String.valueOf((char) c).intern();
+            }
+        }
+
+        private Integer numeroAssento;
+        private String letraFileira;
+        private Integer sessao;
+
+        /** Usado somente pela desserializacao. */
+        public Assento() { }
 
         public Assento(final Integer numeroAssento, final String letraFileira) {
+            this(numeroAssento, letraFileira, null);
+        }
+
+        public Assento(final Integer numeroAssento, final String letraFileira, final Integer sessao) {
             this.numeroAssento = numeroAssento;
             this.letraFileira = letraFileira;
+            this.sessao = sessao;
         }
         
         public Integer getNumeroAssento() {
@@ -150,6 +570,68 @@ public class ClienteTupleSpace {
         public String getLetraFileira() {
             return this.letraFileira;
         }
+
+        public Integer getSessao() {
+            return this.sessao;
+        }
+
+        /**
+         * Formato: um byte com a versao e as flags de presenca, depois numero
+         * (varint), fileira (um byte, ou UTF se nao for um unico caractere
+         * ASCII) e sessao (varint). Campos nulos so ocupam o bit da flag, e um
+         * assento tipico cabe em 4 bytes.
+         */
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            boolean fileiraCurta = letraFileira != null && letraFileira.length() == 1 && letraFileira.charAt(0) < FILEIRAS.length;
+            int flags = VERSAO << 4;
+            if(numeroAssento != null) flags |= TEM_NUMERO;
+            if(letraFileira != null) flags |= fileiraCurta ? TEM_FILEIRA : TEM_FILEIRA | FILEIRA_LONGA;
+            if(sessao != null) flags |= TEM_SESSAO;
+
+            out.writeByte(flags);
+            if(numeroAssento != null) escreverVarInt(out, numeroAssento);
+            if(letraFileira != null) {
+                if(fileiraCurta) out.writeByte(letraFileira.charAt(0));
+                else out.writeUTF(letraFileira);
+            }
+            if(sessao != null) escreverVarInt(out, sessao);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            int flags = in.readUnsignedByte();
+            if((flags >>> 4) != VERSAO) {
+                throw new InvalidObjectException("Versao de Assento desconhecida: " + (flags >>> 4));
+            }
+            numeroAssento = (flags & TEM_NUMERO) != 0 ? lerVarInt(in) : null;
+            if((flags & TEM_FILEIRA) == 0) letraFileira = null;
+            else if((flags & FILEIRA_LONGA) != 0) letraFileira = in.readUTF();
+            else letraFileira = FILEIRAS[in.readUnsignedByte() & 0x7F];
+            sessao = (flags & TEM_SESSAO) != 0 ? lerVarInt(in) : null;
+        }
+
+        /** Inteiro em zigzag + 7 bits por byte: valores ate 63 ocupam 1 byte. */
+        private static void escreverVarInt(ObjectOutput out, int valor) throws IOException {
+            int v = (valor << 1) ^ (valor >> 31);
+            while((v & ~0x7F) != 0) {
+                out.writeByte((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            out.writeByte(v);
+        }
+
+        private static int lerVarInt(ObjectInput in) throws IOException {
+            int v = 0;
+            for(int deslocamento = 0; deslocamento < 35; deslocamento += 7) {
+                int b = in.readUnsignedByte();
+                v |= (b & 0x7F) << deslocamento;
+                if((b & 0x80) == 0) {
+                    return (v >>> 1) ^ -(v & 1);
+                }
+            }
+            throw new InvalidObjectException("Varint invalido em Assento");
+        }
         
         @Override
         public String toString() {
@@ -0,0 +1,38 @@
+package tuplespace;
+
+import org.mozartspaces.core.DefaultMzsCore;
+import org.mozartspaces.core.MzsCore;
+import org.mozartspaces.core.config.CommonsXmlConfiguration;
+import org.mozartspaces.core.config.Configuration;
+
+/**
+ * Cria os cores do MozartSpaces usados pelo servidor e pelo cliente, para que
+ * os dois lados usem sempre o mesmo serializador.
+ *
+ * O serializador e escolhido pela propriedade de sistema
+ * "tuplespace.serializador". O padrao e o embutido do Java, o unico que usa o
+ * formato compacto de {@link ClienteTupleSpace.Assento} (writeExternal); o
+ * Kryo (-Dtuplespace.serializador=kryo) escreve os campos ele mesmo e ignora
+ * esse formato. O BenchmarkSerializacao mede os dois com uma sala inteira;
+ * troque o padrao so se o Kryo ganhar nele.
+ *
+ * @author viniciuslucena
+ */
+public class FabricaCore {
+    public static final String PROPRIEDADE_SERIALIZADOR = "tuplespace.serializador";
+    public static final String SERIALIZADOR_PADRAO = "javabuiltin";
+
+    private FabricaCore() { }
+
+    public static MzsCore novoCore(int porta) {
+        String serializador = System.getProperty(PROPRIEDADE_SERIALIZADOR, SERIALIZADOR_PADRAO);
+
+        Configuration config = CommonsXmlConfiguration.load(porta);
+        config.setSerializerName(serializador);
+        return DefaultMzsCore.newInstance(config);
+    }
+
+    public static String getSerializador() {
+        return System.getProperty(PROPRIEDADE_SERIALIZADOR, SERIALIZADOR_PADRAO);
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package tuplespace;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
+import metricas.Histograma;
+import metricas.Metricas;
+import org.mozartspaces.capi3.LindaCoordinator;
+import org.mozartspaces.core.Capi;
+import org.mozartspaces.core.ContainerReference;
+import org.mozartspaces.core.Entry;
+import static org.mozartspaces.core.MzsConstants.Container.UNBOUNDED;
+import org.mozartspaces.core.MzsConstants.Selecting;
+import org.mozartspaces.core.MzsCore;
+import org.mozartspaces.core.MzsCoreException;
+import org.mozartspaces.notifications.Notification;
+import org.mozartspaces.notifications.NotificationListener;
+import org.mozartspaces.notifications.NotificationManager;
+import org.mozartspaces.notifications.Operation;
+
+/**
+ * Mantem o container local como replica quente do container primario.
+ *
+ * A replica assina as notificacoes de write/take do primario e aplica cada
+ * evento no container local, em ordem, numa thread propria. Quando o primario
+ * deixa de responder a replica e promovida e passa a atender os clientes
+ * sozinha.
+ *
+ * Enquanto segue o primario, a copia fica num container com outro nome
+ * (nome + {@link #SUFIXO_REPLICA}): o lookup dos clientes nao a encontra, entao
+ * ninguem escreve nela enquanto os eventos do primario ainda chegam. Ao ser
+ * promovida, a replica aplica os eventos que ja recebeu (o primario ja os
+ * tinha confirmado) e so entao cria o container com o nome que os clientes
+ * procuram, com o conteudo da copia.
+ *
+ * @author viniciuslucena
+ */
+public class Replicador implements ReplicadorMBean, NotificationListener {
+    /** Intervalo entre as verificacoes do primario (ms). */
+    private static final long INTERVALO_VERIFICACAO = 1000;
+    /** Falhas seguidas de verificacao antes de promover a replica. */
+    private static final int FALHAS_PARA_PROMOVER = 3;
+    /** Sufixo do nome do container da copia, enquanto a replica nao e promovida. */
+    public static final String SUFIXO_REPLICA = ".replica";
+    /** Marca o fim da fila de eventos: o aplicador para depois de aplicar os anteriores. */
+    private static final Evento FIM = new Evento(null, null, 0);
+
+    private static final Histograma ATRASO = Metricas.histograma("ts.replicacao.atraso");
+    private static final Histograma APLICAR = Metricas.histograma("ts.replicacao.aplicar");
+
+    private final Capi capi;
+    private final ContainerReference crefLocal;
+    private final NotificationManager notificationManager;
+    private final String nomeContainer;
+    private final URI primario;
+
+    private final BlockingQueue<Evento> eventos = new LinkedBlockingQueue<Evento>();
+    private final ScheduledExecutorService verificador = Executors.newSingleThreadScheduledExecutor();
+    private Thread aplicador;
+    private Notification notificacao;
+    private ContainerReference crefPrimario;
+    private volatile ContainerReference crefPublico;
+    private boolean promovendo = false;
+
+    private volatile boolean promovido = false;
+    private volatile long eventosAplicados = 0;
+    private volatile long atrasoUltimoEvento = 0;
+    private volatile long atrasoMaximo = 0;
+    private volatile long instanteUltimoEvento = 0;
+    private int falhasSeguidas = 0;
+
+    public Replicador(MzsCore core, Capi capi, ContainerReference crefLocal, String nomeContainer, String ipPrimario, int portaPrimario) {
+        this.capi = capi;
+        this.crefLocal = crefLocal;
+        this.nomeContainer = nomeContainer;
+        this.primario = URI.create("xvsm://" + ipPrimario + ":" + portaPrimario);
+        this.notificationManager = new NotificationManager(core);
+    }
+
+    /**
+     * Assina as notificacoes do primario, copia o estado atual dele e inicia
+     * a aplicacao dos eventos recebidos.
+     */
+    public void iniciar() throws MzsCoreException, InterruptedException {
+        System.out.println("Replicando o container " + nomeContainer + " de " + primario);
+        crefPrimario = capi.lookupContainer(nomeContainer, primario, INTERVALO_VERIFICACAO, null);
+
+        // Assina antes da copia inicial: eventos concorrentes com a copia ficam
+        // na fila e sao aplicados de forma idempotente depois dela.
+        notificacao = notificationManager.createNotification(crefPrimario, this, Operation.WRITE, Operation.TAKE, Operation.DELETE);
+        sincronizar();
+
+        aplicador = new Thread(this::aplicarEventos, "replicador-" + nomeContainer);
+        aplicador.setDaemon(true);
+        aplicador.start();
+
+        verificador.scheduleWithFixedDelay(this::verificarPrimario, INTERVALO_VERIFICACAO, INTERVALO_VERIFICACAO, TimeUnit.MILLISECONDS);
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("tuplespace:type=Replicacao,name=" + nomeContainer));
+        } catch (Exception e) {
+            System.out.println("Nao foi possivel registrar as metricas de replicacao: " + e.getMessage());
+        }
+        Metricas.medidor("ts.replicacao.eventosPendentes", this::getEventosPendentes);
+        Metricas.medidor("ts.replicacao.promovido", () -> promovido ? 1 : 0);
+    }
+
+    private void sincronizar() throws MzsCoreException {
+        LindaCoordinator.LindaSelector todos = LindaCoordinator.newSelector(new ClienteTupleSpace.Assento(null, null), Selecting.COUNT_ALL);
+        LindaCoordinator.LindaSelector salas = LindaCoordinator.newSelector(new ClienteTupleSpace.Sala(null, null), Selecting.COUNT_ALL);
+        LindaCoordinator.LindaSelector vendidos = LindaCoordinator.newSelector(new ClienteTupleSpace.Vendido(null, null, null), Selecting.COUNT_ALL);
+
+        capi.take(crefLocal, todos, 0, null);
+        capi.take(crefLocal, salas, 0, null);
+        capi.take(crefLocal, vendidos, 0, null);
+        ArrayList<ClienteTupleSpace.Assento> assentos = capi.read(crefPrimario, todos, 0, null);
+        for(ClienteTupleSpace.Assento oAssento : assentos) {
+            capi.write(crefLocal, new Entry((Serializable) oAssento));
+        }
+        ArrayList<ClienteTupleSpace.Sala> copiadas = capi.read(crefPrimario, salas, 0, null);
+        for(ClienteTupleSpace.Sala oSala : copiadas) {
+            capi.write(crefLocal, new Entry((Serializable) oSala));
+        }
+        ArrayList<ClienteTupleSpace.Vendido> vendas = capi.read(crefPrimario, vendidos, 0, null);
+        for(ClienteTupleSpace.Vendido oVendido : vendas) {
+            capi.write(crefLocal, new Entry((Serializable) oVendido));
+        }
+        System.out.println("Copia inicial concluida: " + assentos.size() + " assentos");
+    }
+
+    @Override
+    public void entryOperationFinished(Notification source, Operation operation, List<? extends Serializable> entries) {
+        if(!promovido) {
+            eventos.add(new Evento(operation, entries, System.nanoTime()));
+        }
+    }
+
+    private void aplicarEventos() {
+        while(true) {
+            try {
+                Evento evento = eventos.take();
+                if(evento == FIM) {
+                    return;
+                }
+                long inicio = System.nanoTime();
+                for(Serializable entrada : evento.entradas) {
+                    if(entrada instanceof ClienteTupleSpace.Assento || entrada instanceof ClienteTupleSpace.Sala
+                            || entrada instanceof ClienteTupleSpace.Vendido) {
+                        aplicar(evento.operacao, entrada);
+                    }
+                }
+                APLICAR.registrarDesde(inicio);
+                registrarAtraso(evento);
+            } catch (InterruptedException e) {
+                return;
+            } catch (MzsCoreException e) {
+                System.out.println("Erro ao aplicar evento na replica: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Aplica um evento de forma idempotente: um write so e repetido se a
+     * tupla (assento, sala ou registro de venda) ainda nao existe na replica e
+     * um take de tupla ausente e ignorado.
+     */
+    private void aplicar(Operation operacao, Serializable tupla) throws MzsCoreException {
+        LindaCoordinator.LindaSelector seletor = LindaCoordinator.newSelector(tupla, Selecting.COUNT_ALL);
+
+        if(operacao == Operation.WRITE) {
+            if(capi.read(crefLocal, seletor, 0, null).isEmpty()) {
+                capi.write(crefLocal, new Entry(tupla));
+            }
+        } else {
+            capi.take(crefLocal, seletor, 0, null);
+        }
+    }
+
+    private void registrarAtraso(Evento evento) {
+        ATRASO.registrarDesde(evento.recebidoEm);
+        long atraso = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - evento.recebidoEm);
+        atrasoUltimoEvento = atraso;
+        if(atraso > atrasoMaximo) {
+            atrasoMaximo = atraso;
+        }
+        instanteUltimoEvento = System.currentTimeMillis();
+        eventosAplicados++;
+    }
+
+    private void verificarPrimario() {
+        try {
+            capi.lookupContainer(nomeContainer, primario, INTERVALO_VERIFICACAO, null);
+            falhasSeguidas = 0;
+        } catch (MzsCoreException e) {
+            falhasSeguidas++;
+            System.out.println("Primario " + primario + " nao respondeu (" + falhasSeguidas + "/" + FALHAS_PARA_PROMOVER + ")");
+            if(falhasSeguidas >= FALHAS_PARA_PROMOVER) {
+                promover();
+            }
+            return;
+        }
+        if(promovendo) {
+            // Uma promocao que falhou ao expor o container continua
+            promover();
+        }
+    }
+
+    /**
+     * Deixa de seguir o primario. Os eventos ja recebidos sao aplicados antes:
+     * sao writes e takes que o primario ja confirmou aos clientes. Depois o
+     * container e exposto com o nome que os clientes procuram. Se a exposicao
+     * falhar, a proxima verificacao tenta de novo.
+     */
+    public synchronized void promover() {
+        if(promovido) {
+            return;
+        }
+        promovendo = true;
+        try {
+            if(notificacao != null) {
+                notificacao.destroy();
+            }
+        } catch (MzsCoreException e) {
+            // o primario ja esta fora do ar
+        }
+        notificacao = null;
+        if(aplicador != null) {
+            eventos.add(FIM);
+            try {
+                aplicador.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            aplicador = null;
+        }
+        try {
+            expor();
+        } catch (MzsCoreException e) {
+            System.out.println("Erro ao expor o container " + nomeContainer + ", tentando de novo: " + e.getMessage());
+            return;
+        }
+        promovido = true;
+        verificador.shutdown();
+        System.out.println("Replica promovida: container " + nomeContainer + " agora e o primario");
+    }
+
+    /**
+     * Cria o container publico e move para ele as tuplas da copia. Cada tupla
+     * so sai da copia depois de escrita no publico, entao repetir depois de
+     * uma falha nao perde nem duplica tuplas.
+     */
+    private void expor() throws MzsCoreException {
+        if(crefPublico == null) {
+            crefPublico = capi.createContainer(nomeContainer, null, UNBOUNDED, null, new LindaCoordinator(false));
+        }
+        int movidas = mover(new ClienteTupleSpace.Assento(null, null));
+        mover(new ClienteTupleSpace.Sala(null, null));
+        mover(new ClienteTupleSpace.Vendido(null, null, null));
+        System.out.println("Container " + nomeContainer + " exposto com " + movidas + " assentos");
+    }
+
+    private int mover(Serializable template) throws MzsCoreException {
+        ArrayList<Serializable> tuplas = capi.read(crefLocal, LindaCoordinator.newSelector(template, Selecting.COUNT_ALL), 0, null);
+        for(Serializable tupla : tuplas) {
+            capi.write(crefPublico, new Entry(tupla));
+            capi.take(crefLocal, LindaCoordinator.newSelector(tupla, 1), 0, null);
+        }
+        return tuplas.size();
+    }
+
+    /** Container que atende os clientes: o publico depois da promocao, a copia antes. */
+    public ContainerReference getContainerAtual() {
+        ContainerReference publico = crefPublico;
+        return promovido && publico != null ? publico : crefLocal;
+    }
+
+    @Override
+    public boolean isPromovido() {
+        return promovido;
+    }
+
+    @Override
+    public int getEventosPendentes() {
+        return eventos.size();
+    }
+
+    @Override
+    public long getEventosAplicados() {
+        return eventosAplicados;
+    }
+
+    @Override
+    public long getAtrasoUltimoEventoMs() {
+        return atrasoUltimoEvento;
+    }
+
+    @Override
+    public long getAtrasoMaximoMs() {
+        return atrasoMaximo;
+    }
+
+    @Override
+    public long getAtrasoAtualMs() {
+        Evento maisAntigo = eventos.peek();
+        if(maisAntigo == null) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - maisAntigo.recebidoEm);
+    }
+
+    @Override
+    public long getMsDesdeUltimoEvento() {
+        if(instanteUltimoEvento == 0) {
+            return -1;
+        }
+        return System.currentTimeMillis() - instanteUltimoEvento;
+    }
+
+    private static class Evento {
+        private final Operation operacao;
+        private final List<? extends Serializable> entradas;
+        private final long recebidoEm;
+
+        Evento(Operation operacao, List<? extends Serializable> entradas, long recebidoEm) {
+            this.operacao = operacao;
+            this.entradas = entradas;
+            this.recebidoEm = recebidoEm;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package tuplespace;
+
+/**
+ * Metricas da replica expostas via JMX.
+ *
+ * @author viniciuslucena
+ */
+public interface ReplicadorMBean {
+    boolean isPromovido();
+
+    /** Eventos recebidos do primario e ainda nao aplicados. */
+    int getEventosPendentes();
+
+    long getEventosAplicados();
+
+    /** Tempo entre a chegada e a aplicacao do ultimo evento. */
+    long getAtrasoUltimoEventoMs();
+
+    long getAtrasoMaximoMs();
+
+    /** Idade do evento mais antigo ainda na fila (0 se a replica esta em dia). */
+    long getAtrasoAtualMs();
+
+    /** Tempo desde o ultimo evento aplicado (-1 se nenhum evento chegou). */
+    long getMsDesdeUltimoEvento();
+}
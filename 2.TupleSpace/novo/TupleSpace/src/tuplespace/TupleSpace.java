@@ -10,12 +10,16 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Serializable;
+import metricas.Histograma;
+import metricas.Metricas;
+import metricas.ServidorMetricas;
 import org.mozartspaces.capi3.LindaCoordinator;
 import org.mozartspaces.core.Capi;
 import org.mozartspaces.core.ContainerReference;
-import org.mozartspaces.core.DefaultMzsCore;
 import org.mozartspaces.core.Entry;
 import static org.mozartspaces.core.MzsConstants.Container.UNBOUNDED;
+import org.mozartspaces.core.MzsConstants.Selecting;
+import org.mozartspaces.core.MzsCore;
 import org.mozartspaces.core.MzsCoreException;
 
 /**
@@ -23,17 +27,33 @@ import org.mozartspaces.core.MzsCoreException;
  * @author viniciuslucena
  */
 public class TupleSpace {
-    private static DefaultMzsCore core;
+    private static MzsCore core;
     private static Capi capi;
     private static ContainerReference cref;
     private static String nomeContainer;
     private static int portaServidor;
+    private static String ipPrimario;
+    private static int portaPrimario;
+    private static volatile Replicador replicador;
+
+    /** Sessao usada ao popular o espaco enquanto so existe uma sessao. */
+    public static final int SESSAO_PADRAO = 1;
+    /**
+     * Fileiras da sala criada por popularEspaco. Quem consulta le a sala do
+     * espaco (ClienteTupleSpace.lerFileiras), nao esta constante.
+     */
+    private static final String FILEIRAS = "ABCDE";
    
-    public static void main(String [] args) throws MzsCoreException {
+    public static void main(String [] args) throws MzsCoreException, InterruptedException {
         System.out.println("Inicializando Servidor TS");
         init();
-        System.out.println("Populando o Espaço");
-        popularEspaco();
+        if(TupleSpace.ipPrimario != null) {
+            System.out.println("Iniciando como replica de " + TupleSpace.ipPrimario + ":" + TupleSpace.portaPrimario);
+            iniciarReplica();
+        } else {
+            System.out.println("Populando o Espaço");
+            popularEspaco();
+        }
     }
     
     
@@ -44,17 +64,50 @@ public class TupleSpace {
         
         System.out.println("Nome do Container: " + TupleSpace.nomeContainer);
         System.out.println("Porta: " + TupleSpace.portaServidor);
+        System.out.println("Serializador: " + FabricaCore.getSerializador());
         
-        TupleSpace.core = DefaultMzsCore.newInstance(TupleSpace.portaServidor);
+        TupleSpace.core = FabricaCore.novoCore(TupleSpace.portaServidor);
         TupleSpace.capi = new Capi(TupleSpace.core);
         
-        TupleSpace.cref = TupleSpace.capi.createContainer(TupleSpace.nomeContainer, null, UNBOUNDED, null, new LindaCoordinator(false) );
+        // A replica guarda a copia com outro nome: os clientes so a encontram depois da promocao
+        String nomeLocal = TupleSpace.ipPrimario != null ? TupleSpace.nomeContainer + Replicador.SUFIXO_REPLICA : TupleSpace.nomeContainer;
+        TupleSpace.cref = TupleSpace.capi.createContainer(nomeLocal, null, UNBOUNDED, null, new LindaCoordinator(false) );
+        
+        registrarMetricas();
+        ServidorMetricas.iniciar(TupleSpace.portaServidor + 1);
+    }
+
+    /**
+     * O MozartSpaces nao expoe o tempo de cada requisicao no servidor; o que
+     * este lado mede e o tamanho do container (contado localmente a cada
+     * coleta) e o tempo de cada contagem, alem das metricas da replica.
+     */
+    private static void registrarMetricas() {
+        final Histograma contagem = Metricas.histograma("ts.container.contarAssentos");
+        final LindaCoordinator.LindaSelector todos = LindaCoordinator.newSelector(new ClienteTupleSpace.Assento(null, null), Selecting.COUNT_ALL);
+        Metricas.medidor("ts.container.assentosLivres", () -> {
+            long inicio = System.nanoTime();
+            try {
+                ContainerReference atual = TupleSpace.replicador != null ? TupleSpace.replicador.getContainerAtual() : TupleSpace.cref;
+                return TupleSpace.capi.test(atual, todos, 0, null);
+            } catch (MzsCoreException e) {
+                return -1;
+            } finally {
+                contagem.registrarDesde(inicio);
+            }
+        });
+    }
+
+    public static void iniciarReplica() throws MzsCoreException, InterruptedException {
+        TupleSpace.replicador = new Replicador(TupleSpace.core, TupleSpace.capi, TupleSpace.cref, TupleSpace.nomeContainer, TupleSpace.ipPrimario, TupleSpace.portaPrimario);
+        TupleSpace.replicador.iniciar();
     }
 
     public static void popularEspaco() throws MzsCoreException {
+        TupleSpace.capi.write(TupleSpace.cref, new Entry((Serializable) new ClienteTupleSpace.Sala(SESSAO_PADRAO, FILEIRAS)));
         for(int numeroAssento = 1; numeroAssento <= 10; numeroAssento++) {
-            for(char letraFileira = 'A'; letraFileira <= 'E'; letraFileira++) {
-                ClienteTupleSpace.Assento oAssento = new ClienteTupleSpace.Assento(numeroAssento, String.valueOf(letraFileira));
+            for(char letraFileira : FILEIRAS.toCharArray()) {
+                ClienteTupleSpace.Assento oAssento = new ClienteTupleSpace.Assento(numeroAssento, String.valueOf(letraFileira), SESSAO_PADRAO);
                 TupleSpace.capi.write(TupleSpace.cref, new Entry((Serializable) oAssento));
             }
         }
@@ -62,7 +115,7 @@ public class TupleSpace {
     
     public TupleSpace(String nomeContainer, int portaServidor) throws MzsCoreException {
         System.out.println("Criando espaco [" + nomeContainer + ":" + portaServidor + "]");
-        this.core = DefaultMzsCore.newInstance(portaServidor);
+        this.core = FabricaCore.novoCore(portaServidor);
         this.capi = new Capi(this.core);
         
         this.cref = capi.createContainer(nomeContainer, null, UNBOUNDED, null, new LindaCoordinator(false) );
@@ -72,7 +125,7 @@ public class TupleSpace {
         int portaServidor = 55000;
         String nomeContainer = "admin";  
         
-        this.core = DefaultMzsCore.newInstance(portaServidor);
+        this.core = FabricaCore.novoCore(portaServidor);
         this.capi = new Capi(core);
         
         this.cref = capi.createContainer(nomeContainer, null, UNBOUNDED, null, new LindaCoordinator(false) );
@@ -90,6 +143,12 @@ public class TupleSpace {
             while((line = bufferedReader.readLine()) != null) {
                 String[] split = line.split(":");
  
+                // Linha opcional [primario:ip_do_primario:porta_do_primario] liga o modo replica
+                if(split[0].equals("primario")) {
+                    TupleSpace.ipPrimario = split[1];
+                    TupleSpace.portaPrimario = Integer.parseInt(split[2]);
+                    continue;
+                }
                 TupleSpace.portaServidor = Integer.parseInt(split[1]);
                 TupleSpace.nomeContainer = split[0];
             }   
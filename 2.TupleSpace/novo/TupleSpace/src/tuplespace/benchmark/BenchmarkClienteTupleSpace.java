@@ -0,0 +1,189 @@
+package tuplespace.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import activeMQCliente.Log;
+import metricas.Histograma;
+import org.mozartspaces.core.MzsCoreException;
+import tuplespace.ClienteTupleSpace;
+import tuplespace.TupleSpace;
+
+/**
+ * Mede vazao e latencia de write, read, readAll, take e takeAll do
+ * ClienteTupleSpace contra um servidor embutido, com o mesmo container
+ * (LindaCoordinator, UNBOUNDED) que TupleSpace.init() cria. readAll e medido
+ * com uma fileira e como "readSala", com readAll(null, null): a sala inteira,
+ * que e o que consultarTudosAssentos le a cada consulta.
+ *
+ * Para cada tamanho de container e numero de threads ha uma fase de
+ * aquecimento e uma de medicao com duracao fixa. Cada thread usa o seu
+ * proprio cliente, como o Web Service faz a cada requisicao. take e takeAll
+ * devolvem o assento logo em seguida (fora da medicao) para o container nao
+ * esvaziar.
+ *
+ * Uso: java -cp TupleSpace.jar:mozartspaces.jar tuplespace.benchmark.BenchmarkClienteTupleSpace
+ *          [segundos por medicao] [tamanhos, ex.: 50,1000,100000] [threads, ex.: 1,4,8] [porta]
+ *
+ * @author viniciuslucena
+ */
+public class BenchmarkClienteTupleSpace {
+    private static final String CONTAINER = "benchmark";
+    private static final String[] OPERACOES = {"write", "read", "readAll", "readSala", "take", "takeAll"};
+    private static final int FILEIRAS = 26;
+
+    public static void main(String[] args) throws Exception {
+        int segundos = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int[] tamanhos = lerLista(args.length > 1 ? args[1] : "50,1000,10000,100000");
+        int[] threads = lerLista(args.length > 2 ? args[2] : "1,4,8");
+        int porta = args.length > 3 ? Integer.parseInt(args[3]) : 57000;
+
+        Log.setNivel(Log.ERRO);
+        new TupleSpace(CONTAINER, porta);
+        ClienteTupleSpace cliente = new ClienteTupleSpace(CONTAINER, "localhost", porta);
+
+        System.out.println("assentos | threads | operacao | ops/s      | p50 us   | p99 us   | p999 us");
+        int populados = 0;
+        for(int tamanho : tamanhos) {
+            for(; populados < tamanho; populados++) {
+                cliente.write(numero(populados), fileira(populados));
+            }
+            for(int n : threads) {
+                for(String operacao : OPERACOES) {
+                    medir(operacao, tamanho, n, porta, segundos / 2 + 1);
+                    Resultado resultado = medir(operacao, tamanho, n, porta, segundos);
+                    System.out.println(String.format(Locale.ROOT, "%8d | %7d | %-8s | %10.0f | %8.1f | %8.1f | %8.1f",
+                            tamanho, n, operacao, resultado.opsPorSegundo,
+                            resultado.histograma.percentil(0.50) / 1000.0,
+                            resultado.histograma.percentil(0.99) / 1000.0,
+                            resultado.histograma.percentil(0.999) / 1000.0));
+                }
+            }
+        }
+        cliente.encerrar();
+        System.exit(0);
+    }
+
+    private static Resultado medir(final String operacao, final int tamanho, int threads, final int porta, int segundos) throws Exception {
+        final Histograma histograma = new Histograma(operacao);
+        final AtomicBoolean rodando = new AtomicBoolean(true);
+        final CountDownLatch prontas = new CountDownLatch(threads);
+        final CountDownLatch largada = new CountDownLatch(1);
+        final List<Throwable> erros = new ArrayList<Throwable>();
+        List<Thread> trabalhadores = new ArrayList<Thread>();
+
+        for(int t = 0; t < threads; t++) {
+            Thread trabalhador = new Thread(() -> {
+                try {
+                    ClienteTupleSpace cliente = new ClienteTupleSpace(CONTAINER, "localhost", porta);
+                    prontas.countDown();
+                    largada.await();
+                    while(rodando.get()) {
+                        executar(cliente, operacao, tamanho, histograma);
+                    }
+                    cliente.encerrar();
+                } catch (Exception e) {
+                    synchronized(erros) {
+                        erros.add(e);
+                    }
+                    prontas.countDown();
+                }
+            });
+            trabalhadores.add(trabalhador);
+            trabalhador.start();
+        }
+
+        prontas.await();
+        long inicio = System.nanoTime();
+        largada.countDown();
+        Thread.sleep(segundos * 1000L);
+        rodando.set(false);
+        for(Thread trabalhador : trabalhadores) {
+            trabalhador.join();
+        }
+        long duracao = System.nanoTime() - inicio;
+
+        if(!erros.isEmpty()) {
+            throw new IllegalStateException("Falha em " + operacao, erros.get(0));
+        }
+        return new Resultado(histograma, histograma.getContagem() * 1e9 / duracao);
+    }
+
+    /**
+     * Executa uma operacao sobre um assento aleatorio e registra so o tempo
+     * dela. O write cria assentos extras com numero negativo, removidos logo depois,
+     * para o tamanho do container nao crescer durante a medicao.
+     */
+    private static void executar(ClienteTupleSpace cliente, String operacao, int tamanho, Histograma histograma) throws MzsCoreException {
+        int i = ThreadLocalRandom.current().nextInt(tamanho);
+        Integer numero = numero(i);
+        String fileira = fileira(i);
+        long inicio = System.nanoTime();
+
+        switch(operacao) {
+            case "write":
+                cliente.write(-numero, fileira);
+                histograma.registrarDesde(inicio);
+                cliente.takeAll(-numero, fileira);
+                break;
+            case "read":
+                cliente.read(numero, fileira);
+                histograma.registrarDesde(inicio);
+                break;
+            case "readAll":
+                cliente.readAll(null, fileira);
+                histograma.registrarDesde(inicio);
+                break;
+            case "readSala":
+                cliente.readAll(null, null);
+                histograma.registrarDesde(inicio);
+                break;
+            case "take":
+                // Outra thread pode ter retirado o mesmo assento: take falha e nao conta
+                try {
+                    cliente.take(numero, fileira);
+                } catch (MzsCoreException e) {
+                    break;
+                }
+                histograma.registrarDesde(inicio);
+                cliente.write(numero, fileira);
+                break;
+            default:
+                if(!cliente.takeAll(numero, fileira).isEmpty()) {
+                    histograma.registrarDesde(inicio);
+                    cliente.write(numero, fileira);
+                }
+                break;
+        }
+    }
+
+    private static Integer numero(int i) {
+        return i / FILEIRAS + 1;
+    }
+
+    private static String fileira(int i) {
+        return String.valueOf((char) ('A' + i % FILEIRAS));
+    }
+
+    private static int[] lerLista(String texto) {
+        String[] partes = texto.split(",");
+        int[] valores = new int[partes.length];
+        for(int i = 0; i < partes.length; i++) {
+            valores[i] = Integer.parseInt(partes[i].trim());
+        }
+        return valores;
+    }
+
+    private static class Resultado {
+        private final Histograma histograma;
+        private final double opsPorSegundo;
+
+        Resultado(Histograma histograma, double opsPorSegundo) {
+            this.histograma = histograma;
+            this.opsPorSegundo = opsPorSegundo;
+        }
+    }
+}
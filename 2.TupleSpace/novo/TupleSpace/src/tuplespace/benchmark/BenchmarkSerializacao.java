@@ -0,0 +1,166 @@
+package tuplespace.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import tuplespace.ClienteTupleSpace;
+
+/**
+ * Compara o custo de ler uma sala inteira (o que readAll(null, null) devolve)
+ * com o Assento antigo, serializado pelo Java campo a campo, e com o formato
+ * compacto atual, nos dois serializadores que o FabricaCore pode usar: o
+ * embutido do Java ("javabuiltin") e o Kryo ("kryo"). O Kryo escreve os campos
+ * ele mesmo e ignora o writeExternal do Assento; ele so e medido se estiver
+ * no classpath (vem no jar do MozartSpaces).
+ *
+ * Uso: java -cp TupleSpace.jar[:mozartspaces.jar] tuplespace.benchmark.BenchmarkSerializacao [iteracoes]
+ *
+ * @author viniciuslucena
+ */
+public class BenchmarkSerializacao {
+    private static final int[] TAMANHOS_SALA = {50, 300, 1000, 10000};
+
+    public static void main(String[] args) throws Exception {
+        int iteracoes = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        Serializador java = new SerializadorJava();
+        Serializador kryo = SerializadorKryo.criar();
+        if(kryo == null) {
+            System.out.println("Kryo fora do classpath: so o serializador do Java sera medido");
+        }
+
+        System.out.println("assentos | formato              | bytes/leitura | bytes/assento | us/leitura (ser+deser)");
+        for(int tamanho : TAMANHOS_SALA) {
+            ArrayList<Serializable> legado = new ArrayList<Serializable>();
+            ArrayList<Serializable> compacto = new ArrayList<Serializable>();
+            for(int i = 0; i < tamanho; i++) {
+                int numero = i / 26 + 1;
+                String fileira = String.valueOf((char) ('A' + i % 26));
+                legado.add(new AssentoLegado(numero, fileira));
+                compacto.add(new ClienteTupleSpace.Assento(numero, fileira, 1));
+            }
+            // Menos iteracoes nas salas grandes para manter o tempo total parecido
+            int n = Math.max(20, iteracoes * 50 / tamanho);
+            medir("legado   javabuiltin", java, legado, n);
+            medir("compacto javabuiltin", java, compacto, n);
+            if(kryo != null) {
+                medir("legado   kryo       ", kryo, legado, n);
+                medir("compacto kryo       ", kryo, compacto, n);
+            }
+        }
+    }
+
+    private static void medir(String nome, Serializador serializador, ArrayList<Serializable> sala, int iteracoes) throws Exception {
+        byte[] bytes = serializador.serializar(sala);
+
+        // Aquecimento
+        for(int i = 0; i < iteracoes; i++) {
+            serializador.desserializar(serializador.serializar(sala));
+        }
+
+        long inicio = System.nanoTime();
+        for(int i = 0; i < iteracoes; i++) {
+            serializador.desserializar(serializador.serializar(sala));
+        }
+        double usPorLeitura = (System.nanoTime() - inicio) / 1000.0 / iteracoes;
+
+        System.out.printf("%8d | %s | %13d | %13.1f | %10.1f%n", sala.size(), nome, bytes.length, (double) bytes.length / sala.size(), usPorLeitura);
+    }
+
+    private interface Serializador {
+        byte[] serializar(Object sala) throws Exception;
+
+        Object desserializar(byte[] bytes) throws Exception;
+    }
+
+    private static class SerializadorJava implements Serializador {
+        @Override
+        public byte[] serializar(Object sala) throws IOException {
+            ByteArrayOutputStream saida = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(saida);
+            out.writeObject(sala);
+            out.close();
+            return saida.toByteArray();
+        }
+
+        @Override
+        public Object desserializar(byte[] bytes) throws IOException, ClassNotFoundException {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            Object sala = in.readObject();
+            in.close();
+            return sala;
+        }
+    }
+
+    /**
+     * Kryo por reflexao, para o benchmark compilar e rodar sem ele. Usa a
+     * mesma configuracao padrao (sem registro de classes) que o MozartSpaces.
+     */
+    private static class SerializadorKryo implements Serializador {
+        private final Object kryo;
+        private final Constructor<?> novaSaida;
+        private final Constructor<?> novaEntrada;
+        private final Method escrever;
+        private final Method ler;
+        private final Method fecharSaida;
+
+        private SerializadorKryo(Class<?> classeKryo, Class<?> classeSaida, Class<?> classeEntrada) throws ReflectiveOperationException {
+            this.kryo = classeKryo.getConstructor().newInstance();
+            this.novaSaida = classeSaida.getConstructor(OutputStream.class);
+            this.novaEntrada = classeEntrada.getConstructor(InputStream.class);
+            this.escrever = classeKryo.getMethod("writeClassAndObject", classeSaida, Object.class);
+            this.ler = classeKryo.getMethod("readClassAndObject", classeEntrada);
+            this.fecharSaida = classeSaida.getMethod("close");
+        }
+
+        static SerializadorKryo criar() {
+            try {
+                return new SerializadorKryo(Class.forName("com.esotericsoftware.kryo.Kryo"),
+                        Class.forName("com.esotericsoftware.kryo.io.Output"),
+                        Class.forName("com.esotericsoftware.kryo.io.Input"));
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public byte[] serializar(Object sala) throws ReflectiveOperationException {
+            ByteArrayOutputStream saida = new ByteArrayOutputStream();
+            Object out = novaSaida.newInstance(saida);
+            escrever.invoke(kryo, out, sala);
+            fecharSaida.invoke(out);
+            return saida.toByteArray();
+        }
+
+        @Override
+        public Object desserializar(byte[] bytes) throws ReflectiveOperationException {
+            return ler.invoke(kryo, novaEntrada.newInstance(new ByteArrayInputStream(bytes)));
+        }
+    }
+
+    /** Copia do Assento como era antes do formato compacto. */
+    private static class AssentoLegado implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Integer numeroAssento;
+        private final String letraFileira;
+
+        /** Para o Kryo, que cria a instancia antes de preencher os campos. */
+        @SuppressWarnings("unused")
+        private AssentoLegado() {
+            this(null, null);
+        }
+
+        AssentoLegado(Integer numeroAssento, String letraFileira) {
+            this.numeroAssento = numeroAssento;
+            this.letraFileira = letraFileira;
+        }
+    }
+}
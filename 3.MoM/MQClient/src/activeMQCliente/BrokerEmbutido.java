@@ -0,0 +1,81 @@
+package activeMQCliente;
+
+import java.io.File;
+
+import org.apache.activemq.broker.BrokerPlugin;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.plugin.StatisticsBrokerPlugin;
+import org.apache.activemq.store.kahadb.KahaDBPersistenceAdapter;
+
+/**
+ * Broker ActiveMQ rodando dentro do processo (um por JVM), como no exemplo
+ * swissarmy/EmbeddedBroker.java.
+ *
+ * Produtores e consumidores do mesmo processo falam com ele pelo transporte
+ * vm://, sem socket e sem copia das mensagens. Um conector TCP opcional deixa
+ * processos remotos (ex.: o Web Service) publicarem no mesmo broker.
+ */
+public final class BrokerEmbutido {
+
+	public static final String ARMAZENAMENTO_MEMORIA = "memoria";
+	public static final String ARMAZENAMENTO_KAHADB = "kahadb";
+
+	private static BrokerService broker;
+
+	private BrokerEmbutido() {
+	}
+
+	/**
+	 * Inicia o broker, se ainda nao estiver rodando.
+	 *
+	 * @param nome
+	 *            Nome do broker, o mesmo usado na URL vm://nome
+	 * @param armazenamento
+	 *            "memoria" (mensagens se perdem ao reiniciar) ou "kahadb"
+	 *            (persistidas no diretorio kahadb/)
+	 * @param conector
+	 *            URL de um conector TCP extra (ex.: "tcp://0.0.0.0:61616"), ou
+	 *            null para aceitar apenas conexoes vm://
+	 */
+	public static synchronized void iniciar(String nome, String armazenamento, String conector) throws Exception {
+		if (broker != null) {
+			return;
+		}
+		BrokerService novo = new BrokerService();
+		novo.setBrokerName(nome);
+		novo.setUseJmx(true);
+		novo.setUseShutdownHook(true);
+		// Responde a "ActiveMQ.Statistics.Destination.<fila>" (ver MonitorFila)
+		novo.setPlugins(new BrokerPlugin[] { new StatisticsBrokerPlugin() });
+		if (ARMAZENAMENTO_KAHADB.equals(armazenamento)) {
+			KahaDBPersistenceAdapter kahaDB = new KahaDBPersistenceAdapter();
+			kahaDB.setDirectory(new File("kahadb"));
+			novo.setPersistenceAdapter(kahaDB);
+			novo.setPersistent(true);
+		} else {
+			novo.setPersistent(false);
+		}
+		if (conector != null) {
+			novo.addConnector(conector);
+		}
+		novo.start();
+		novo.waitUntilStarted();
+		broker = novo;
+		Log.info("Broker embutido '{}' iniciado (armazenamento: {})", nome, armazenamento);
+		if (conector != null) {
+			Log.info("Broker embutido '{}' aceitando conexoes em {}", nome, conector);
+		}
+	}
+
+	public static synchronized boolean ativo() {
+		return broker != null;
+	}
+
+	public static synchronized void parar() throws Exception {
+		if (broker != null) {
+			broker.stop();
+			broker.waitUntilStopped();
+			broker = null;
+		}
+	}
+}
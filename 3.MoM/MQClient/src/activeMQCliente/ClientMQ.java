@@ -4,8 +4,24 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
 
 import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.support.JmsUtils;
+
+import metricas.Histograma;
 
 /**
  * @author marlonrcfranco
@@ -13,30 +29,139 @@ import org.springframework.jms.core.JmsTemplate;
  */
 public class ClientMQ {
 
+	/** Semente aleatoria para que processos diferentes nao repitam correlacoes. */
+	private static final AtomicLong CORRELACAO = new AtomicLong(ThreadLocalRandom.current().nextLong() & 0x7FFFFFFF00000000L);
+	private static final ThreadLocal<Pedido> PEDIDO = ThreadLocal.withInitial(Pedido::new);
+
+	/** Prazo padrao (ms) de conexao, envio e recebimento. */
+	public static final int TIMEOUT_PADRAO_MS = 5000;
+
+	/** Validade padrao (ms) de um pedido publicado com id para a validacao pelo RMI. */
+	public static final long VALIDADE_PEDIDO_PADRAO_MS = 60000;
+
 	private String sEndServidor;
+	private long validadePedidoMs = VALIDADE_PEDIDO_PADRAO_MS;
 	private ConfigMQ cfg;
 	private JmsTemplate jmsTemplate;
+	private final Map<PerfilEntrega, JmsTemplate> templates = new HashMap<PerfilEntrega, JmsTemplate>();
 
 	public ClientMQ() throws IOException {
 		CarregaConfiguracoes("MQconfig.txt");
 	}
 
+	/**
+	 * Le o MQconfig.txt. A primeira linha e o endereco do broker ("ip:porta"),
+	 * ou "vm://nome" para subir um broker embutido neste processo. No modo
+	 * embutido as linhas seguintes sao opcoes:
+	 * 
+	 * armazenamento:memoria|kahadb (padrao: memoria)
+	 * conector:tcp://0.0.0.0:61616 (aceita tambem clientes remotos)
+	 * 
+	 * Em qualquer modo, "perfil:fila:nome" escolhe o {@link PerfilEntrega} de
+	 * uma fila (ex: "perfil:concluidos:fast-non-persistent") e
+	 * "grupo:fila:nenhum|sessao|fileira" define o JMSXGroupID dos pedidos da
+	 * fila ("grupo:modo" vale para todas as filas). Padrao: nenhum, porque o
+	 * grupo impede que o Validador do RMI receba o pedido pelo seletor (ver
+	 * {@link ConfigMQ#getModoGrupo(String)}); ligue so em "pedidos" quando o
+	 * ValidadorLote consome a fila e em "validacao" com o RespondedorValidacao.
+	 * 
+	 * Prazos, em ms (0: sem limite): "timeoutConexao:" para abrir a conexao
+	 * TCP com o broker, "timeoutEnvio:" para um envio sincrono e
+	 * "timeoutRecebimento:" para um receive (padrao: 5000 cada).
+	 * "validadePedido:" e o tempo de vida dos pedidos publicados com id (ver
+	 * {@link #InserirPedidoNaFilaPedidos(long, int, String, String, String, String)};
+	 * padrao 60000, 0: sem limite).
+	 */
 	public boolean CarregaConfiguracoes(String pathMQconfigtxt) throws IOException {
 		File file = new File(pathMQconfigtxt);
 		BufferedReader reader = null;
 		String text = null;
 		reader = new BufferedReader(new FileReader(file));
 		text = reader.readLine();
+		String armazenamento = BrokerEmbutido.ARMAZENAMENTO_MEMORIA;
+		String conector = null;
+		Map<String, PerfilEntrega> perfis = new HashMap<String, PerfilEntrega>();
+		int modoGrupo = Pedido.GRUPO_NENHUM;
+		Map<String, Integer> gruposPorFila = new HashMap<String, Integer>();
+		int timeoutConexaoMs = TIMEOUT_PADRAO_MS;
+		int timeoutEnvioMs = TIMEOUT_PADRAO_MS;
+		long timeoutRecebimentoMs = TIMEOUT_PADRAO_MS;
+		validadePedidoMs = VALIDADE_PEDIDO_PADRAO_MS;
+		String opcao;
+		while ((opcao = reader.readLine()) != null) {
+			if (opcao.startsWith("armazenamento:")) {
+				armazenamento = opcao.substring("armazenamento:".length()).trim();
+			} else if (opcao.startsWith("conector:")) {
+				conector = opcao.substring("conector:".length()).trim();
+			} else if (opcao.startsWith("perfil:")) {
+				String[] split = opcao.split(":");
+				perfis.put(split[1].trim(), PerfilEntrega.porNome(split[2].trim()));
+			} else if (opcao.startsWith("grupo:")) {
+				String[] split = opcao.split(":");
+				if (split.length > 2) {
+					gruposPorFila.put(split[1].trim(), Pedido.modoGrupo(split[2].trim()));
+				} else {
+					modoGrupo = Pedido.modoGrupo(split[1].trim());
+				}
+			} else if (opcao.startsWith("timeoutConexao:")) {
+				timeoutConexaoMs = Integer.parseInt(opcao.substring("timeoutConexao:".length()).trim());
+			} else if (opcao.startsWith("timeoutEnvio:")) {
+				timeoutEnvioMs = Integer.parseInt(opcao.substring("timeoutEnvio:".length()).trim());
+			} else if (opcao.startsWith("timeoutRecebimento:")) {
+				timeoutRecebimentoMs = Long.parseLong(opcao.substring("timeoutRecebimento:".length()).trim());
+			} else if (opcao.startsWith("validadePedido:")) {
+				validadePedidoMs = Long.parseLong(opcao.substring("validadePedido:".length()).trim());
+			}
+		}
 		reader.close();
 		if (text == null || text.isEmpty() || text.equals("")) {
 			return false;
 		}
 		sEndServidor = text;
-		cfg = new ConfigMQ("tcp://" + sEndServidor);
+		if (sEndServidor.startsWith("vm://")) {
+			try {
+				cfg = new ConfigMQ(sEndServidor, armazenamento, conector);
+			} catch (Exception e) {
+				throw new IOException("Erro ao iniciar o broker embutido " + sEndServidor, e);
+			}
+		} else {
+			cfg = new ConfigMQ("tcp://" + sEndServidor + (sEndServidor.indexOf('?') < 0 ? "?" : "&")
+					+ "connectionTimeout=" + timeoutConexaoMs);
+		}
+		cfg.setModoGrupo(modoGrupo);
+		for (Map.Entry<String, Integer> grupo : gruposPorFila.entrySet()) {
+			cfg.setModoGrupo(grupo.getKey(), grupo.getValue());
+		}
+		cfg.setTimeoutEnvioMs(timeoutEnvioMs);
+		cfg.setTimeoutRecebimentoMs(timeoutRecebimentoMs);
+		for (Map.Entry<String, PerfilEntrega> perfil : perfis.entrySet()) {
+			cfg.setPerfil(perfil.getKey(), perfil.getValue());
+		}
 		jmsTemplate = cfg.jmsTemplate();
+		templates.clear();
+		templates.put(PerfilEntrega.DURAVEL_SINCRONO, jmsTemplate);
 		return true;
 	}
 
+	/** JmsTemplate com o perfil de entrega configurado para a fila. */
+	private JmsTemplate template(String fila) {
+		PerfilEntrega perfil = cfg.getPerfil(fila);
+		JmsTemplate template = templates.get(perfil);
+		if (template == null) {
+			template = cfg.jmsTemplate(perfil);
+			templates.put(perfil, template);
+		}
+		return template;
+	}
+
+	public PerfilEntrega getPerfil(String fila) {
+		return cfg.getPerfil(fila);
+	}
+
+	public boolean isBrokerEmbutido() {
+		return cfg != null && cfg.isBrokerEmbutido();
+	}
+
 	/**
 	 * Método de Insercao do Pedido de Verificação de Cartão na fila de Pendentes.
 	 * 
@@ -56,28 +181,221 @@ public class ClientMQ {
 	 */
 	public boolean InserirPedidoNaFilaPedidos(String Cadeira, String CodCartao, String DataValidade,
 			String DigitoVerificador) {
-		String mensagem = Cadeira + ":" + CodCartao + ":" + DataValidade + ":" + DigitoVerificador;
-		if (publish("pedidos", mensagem)) {
-			return true;
+		return InserirPedidoNaFilaPedidos(Pedido.SESSAO_PADRAO, Cadeira, CodCartao, DataValidade, DigitoVerificador);
+	}
+
+	/**
+	 * Como {@link #InserirPedidoNaFilaPedidos(String, String, String, String)},
+	 * para uma sessao especifica. O pedido vai no formato binario de
+	 * {@link Pedido}, com uma correlacao nova.
+	 */
+	public boolean InserirPedidoNaFilaPedidos(int sessao, String Cadeira, String CodCartao, String DataValidade,
+			String DigitoVerificador) {
+		return InserirPedidoNaFilaPedidos(novaCorrelacao(), sessao, Cadeira, CodCartao, DataValidade, DigitoVerificador);
+	}
+
+	/**
+	 * Como {@link #InserirPedidoNaFilaPedidos(int, String, String, String, String)},
+	 * com a correlacao (id do pedido) escolhida por quem chama, para que a
+	 * validacao pelo RMI possa consumir exatamente este pedido (ver
+	 * {@link #consumirPedido(String, long, Pedido, long)}).
+	 * 
+	 * So um Validador chamado pelo RMI consome este pedido. Se a chamada nao
+	 * acontecer ou nao o encontrar a tempo, ninguem mais o consome, entao ele
+	 * vence depois de "validadePedido" ms: o broker o descarta (ou o manda
+	 * para a ActiveMQ.DLQ, se for persistente) em vez de deixa-lo ocupando as
+	 * paginas da fila que os seletores percorrem.
+	 */
+	public boolean InserirPedidoNaFilaPedidos(long idPedido, int sessao, String Cadeira, String CodCartao,
+			String DataValidade, String DigitoVerificador) {
+		Pedido pedido = PEDIDO.get().preencher(sessao, Cadeira, CodCartao, DataValidade, DigitoVerificador);
+		pedido.setCorrelacao(idPedido);
+		return publicar("pedidos", pedido, validadePedidoMs);
+	}
+
+	/** Uma correlacao (id de pedido) nova, unica entre processos. */
+	public static long novaCorrelacao() {
+		return CORRELACAO.incrementAndGet();
+	}
+
+	/**
+	 * Publica o pedido (ou o resultado dele) como BytesMessage, com o
+	 * JMSXGroupID da sessao/fileira dele e a correlacao no JMSCorrelationID.
+	 */
+	public boolean publicar(String fila, Pedido pedido) {
+		return publicar(fila, pedido, 0);
+	}
+
+	/**
+	 * Como {@link #publicar(String, Pedido)}, com tempo de vida.
+	 * 
+	 * @param validadeMs
+	 *            Tempo de vida da mensagem no broker (0: sem limite)
+	 */
+	public boolean publicar(String fila, Pedido pedido, long validadeMs) {
+		Histograma latencia = cfg.getPerfil(fila).getLatenciaPublicacao();
+		long inicio = System.nanoTime();
+		JmsTemplate template = template(fila);
+		if (validadeMs <= 0) {
+			template.send(fila, session -> mensagem(session, fila, pedido));
+		} else {
+			// O JmsTemplate guarda um tempo de vida so, e e compartilhado entre as filas do perfil
+			template.execute(session -> {
+				MessageProducer produtor = session.createProducer(session.createQueue(fila));
+				try {
+					produtor.send(mensagem(session, fila, pedido), template.getDeliveryMode(), template.getPriority(),
+							validadeMs);
+				} finally {
+					JmsUtils.closeMessageProducer(produtor);
+				}
+				return null;
+			}, true);
 		}
-		return false;
+		latencia.registrarDesde(inicio);
+		Log.debug("{} publicado com sucesso na fila '{}'.", pedido, fila);
+		return true;
+	}
+
+	private BytesMessage mensagem(Session session, String fila, Pedido pedido) throws JMSException {
+		BytesMessage mensagem = session.createBytesMessage();
+		pedido.escrever(mensagem);
+		cfg.marcarGrupo(mensagem, pedido, fila);
+		mensagem.setJMSCorrelationID(Long.toString(pedido.getCorrelacao()));
+		return mensagem;
+	}
+
+	/**
+	 * Recebe um pedido da fila e o decodifica em destino, que pode ser
+	 * reaproveitado entre chamadas. Aceita tambem mensagens de texto no
+	 * formato antigo.
+	 * 
+	 * @return destino, ou null se nenhuma mensagem chegou no prazo de
+	 *         recebimento configurado
+	 */
+	public Pedido consumir(String fila, Pedido destino) {
+		return decodificar(fila, template(fila).receive(fila), destino);
+	}
+
+	/**
+	 * Como {@link #consumir(String, Pedido)}, esperando no maximo timeoutMs
+	 * (ex.: o que resta do prazo de quem chamou).
+	 */
+	public Pedido consumir(String fila, Pedido destino, long timeoutMs) {
+		return consumir(fila, null, destino, timeoutMs);
+	}
+
+	/**
+	 * Recebe o pedido com a correlacao dada (seletor em JMSCorrelationID),
+	 * esperando no maximo timeoutMs. Com varios validadores pedindo o mesmo
+	 * pedido, so um deles o recebe.
+	 * 
+	 * @return destino, ou null se o pedido nao chegou (ou outro o consumiu)
+	 */
+	public Pedido consumirPedido(String fila, long correlacao, Pedido destino, long timeoutMs) {
+		return consumir(fila, "JMSCorrelationID = '" + correlacao + "'", destino, timeoutMs);
+	}
+
+	private Pedido consumir(String fila, String seletor, Pedido destino, long timeoutMs) {
+		Message mensagem = template(fila).execute(session -> {
+			MessageConsumer consumidor = session.createConsumer(session.createQueue(fila), seletor);
+			try {
+				return consumidor.receive(Math.max(timeoutMs, 1));
+			} finally {
+				JmsUtils.closeMessageConsumer(consumidor);
+			}
+		}, true);
+		return decodificar(fila, mensagem, destino);
+	}
+
+	private Pedido decodificar(String fila, Message mensagem, Pedido destino) {
+		if (mensagem == null) {
+			return null;
+		}
+		try {
+			destino.ler(mensagem);
+		} catch (JMSException e) {
+			throw JmsUtils.convertJmsAccessException(e);
+		}
+		Log.debug("{} recebido da fila '{}'", destino, fila);
+		return destino;
 	}
 
 	public boolean publish(String fila, String message) {
-		jmsTemplate.convertAndSend(fila, message);
-		System.out.println("Mensagem '" + message + "' publicada com sucesso na fila '" + fila + "'.");
+		Histograma latencia = cfg.getPerfil(fila).getLatenciaPublicacao();
+		long inicio = System.nanoTime();
+		template(fila).convertAndSend(fila, message);
+		latencia.registrarDesde(inicio);
+		Log.debug("Mensagem '{}' publicada com sucesso na fila '{}'.", message, fila);
 		return true;
 	}
 
+	/** @return a mensagem, ou null se nenhuma chegou no prazo de recebimento */
 	public String consume(String fila) {
-		String message = jmsTemplate.receiveAndConvert(fila).toString();
-		System.out.println("Mensagem recebida da fila '" + fila + "': " + message);
+		Object recebida = template(fila).receiveAndConvert(fila);
+		if (recebida == null) {
+			Log.debug("Nenhuma mensagem na fila '{}' no prazo", fila);
+			return null;
+		}
+		String message = recebida.toString();
+		Log.debug("Mensagem recebida da fila '{}': {}", fila, message);
 		return message;
 	}
 
+	/**
+	 * Cria um consumidor transacionado que recebe ate tamanho pedidos da fila
+	 * por vez, esperando no maximo lingerMs para completar o lote.
+	 */
+	public ConsumidorLote criarConsumidorLote(String fila, int tamanho, long lingerMs) throws JMSException {
+		return new ConsumidorLote(cfg, fila, tamanho, lingerMs);
+	}
+
+	/**
+	 * Cria uma conexao JMS (ainda nao iniciada) com o perfil de entrega da fila,
+	 * para quem precisa de sessoes e consumidores proprios.
+	 */
+	public Connection criarConexao(String fila) throws JMSException {
+		return cfg.activeMQConnectionFactory(cfg.getPerfil(fila)).createConnection();
+	}
+
+	/**
+	 * Cria um monitor que amostra a profundidade da fila a cada intervaloMs,
+	 * pelas estatisticas do broker (ver {@link MonitorFila}).
+	 */
+	public MonitorFila criarMonitorFila(String fila, long intervaloMs) throws JMSException {
+		return new MonitorFila(cfg.activeMQConnectionFactory(cfg.getPerfil(fila)), fila, intervaloMs);
+	}
+
+	/**
+	 * Valida o cartao por requisicao/resposta na fila "validacao", sem passar
+	 * pela fila "pedidos" nem pelo RMI (ver {@link RequisitanteValidacao}).
+	 * 
+	 * @param timeoutMs
+	 *            Tempo maximo de espera pela resposta do validador
+	 * @return "Cartão VÁLIDO." ou "Cartão INVÁLIDO.", como o ValidaCC do RMI,
+	 *         ou uma mensagem de erro se nenhum validador respondeu
+	 */
+	public String ValidarCartao(int sessao, String Cadeira, String CodCartao, String DataValidade,
+			String DigitoVerificador, long timeoutMs) {
+		Pedido pedido = PEDIDO.get().preencher(sessao, Cadeira, CodCartao, DataValidade, DigitoVerificador);
+		pedido.setCorrelacao(CORRELACAO.incrementAndGet());
+		try {
+			int status = RequisitanteValidacao.obter(cfg).validar(pedido, timeoutMs);
+			Log.debug("{} validado por mensagem: {}", pedido, status);
+			return status == Pedido.STATUS_VALIDO ? "Cartão VÁLIDO." : "Cartão INVÁLIDO.";
+		} catch (TimeoutException e) {
+			Log.erro("Nenhum validador respondeu a {} no tempo limite", pedido, e);
+			return "ERRO: nenhum validador respondeu em " + timeoutMs + " ms";
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return "ERRO: validacao interrompida";
+		} catch (JMSException e) {
+			throw JmsUtils.convertJmsAccessException(e);
+		}
+	}
+
 	public String PegarDaFilaConcluidos() {
-		String resposta = consume("concluidos");
-		if (resposta.endsWith("VALIDO")) {
+		Pedido resposta = consumir("concluidos", PEDIDO.get());
+		if (resposta != null && resposta.isValido()) {
 			return "Cartão VÁLIDO!";
 		} else {
 			return "Cartão INVÁLIDO!";
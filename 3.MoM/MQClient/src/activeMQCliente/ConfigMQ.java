@@ -1,6 +1,11 @@
 
 package activeMQCliente;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
 import javax.jms.Queue;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
@@ -12,12 +17,43 @@ public class ConfigMQ {
 	private ActiveMQQueue filaPendentes;
 	private ActiveMQQueue filaConcluidos;
 	private String brokerURL = "tcp://localhost:61616";
+	private boolean brokerEmbutido = false;
+	private final Map<String, PerfilEntrega> perfis = new HashMap<String, PerfilEntrega>();
+	private int modoGrupo = Pedido.GRUPO_NENHUM;
+	private final Map<String, Integer> gruposPorFila = new HashMap<String, Integer>();
+	private int timeoutEnvioMs = 0;
+	private long timeoutRecebimentoMs = JmsTemplate.RECEIVE_TIMEOUT_INDEFINITE_WAIT;
 
 	public ConfigMQ(String brokerURL) {
 		this.brokerURL = brokerURL;
 		createFilaPendentes();
 		createFilaConcluidos();
 	}
+
+	/**
+	 * Configuracao para um broker embutido neste processo.
+	 * 
+	 * @param brokerURL
+	 *            URL "vm://nome" do broker
+	 * @param armazenamento
+	 *            "memoria" ou "kahadb" (ver {@link BrokerEmbutido})
+	 * @param conector
+	 *            Conector TCP extra para clientes remotos, ou null
+	 */
+	public ConfigMQ(String brokerURL, String armazenamento, String conector) throws Exception {
+		this(brokerURL);
+		if (brokerURL.startsWith("vm://")) {
+			String nome = brokerURL.substring("vm://".length());
+			if (nome.indexOf('?') >= 0) {
+				nome = nome.substring(0, nome.indexOf('?'));
+			}
+			BrokerEmbutido.iniciar(nome, armazenamento, conector);
+			// create=false: o transporte vm nao deve criar um segundo broker por conta propria
+			this.brokerURL = "vm://" + nome + "?create=false";
+			this.brokerEmbutido = true;
+		}
+	}
+
 	public Queue createFilaPendentes() {
 		filaPendentes = new ActiveMQQueue("pendentes");
 		return filaPendentes;
@@ -29,15 +65,110 @@ public class ConfigMQ {
 	}
 
 	public ActiveMQConnectionFactory activeMQConnectionFactory() {
+		return activeMQConnectionFactory(PerfilEntrega.DURAVEL_SINCRONO);
+	}
+
+	public ActiveMQConnectionFactory activeMQConnectionFactory(PerfilEntrega perfil) {
 		ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory();
 		factory.setBrokerURL(brokerURL);
+		perfil.aplicar(factory);
+		factory.setSendTimeout(timeoutEnvioMs);
+		if (brokerEmbutido) {
+			// No vm:// a mensagem e entregue por referencia; o JmsTemplate cria
+			// uma mensagem nova a cada envio, entao a copia defensiva e dispensavel
+			factory.setCopyMessageOnSend(false);
+			factory.setObjectMessageSerializationDefered(true);
+		}
 		return factory;
 	}
 
 	public JmsTemplate jmsTemplate() {
-		return new JmsTemplate(activeMQConnectionFactory());
+		return jmsTemplate(PerfilEntrega.DURAVEL_SINCRONO);
+	}
+
+	public JmsTemplate jmsTemplate(PerfilEntrega perfil) {
+		JmsTemplate jmsTemplate = new JmsTemplate(activeMQConnectionFactory(perfil));
+		perfil.aplicar(jmsTemplate);
+		jmsTemplate.setReceiveTimeout(timeoutRecebimentoMs);
+		return jmsTemplate;
+	}
+
+	/** Perfil de entrega da fila; sem configuracao, "durable-sync". */
+	public PerfilEntrega getPerfil(String fila) {
+		PerfilEntrega perfil = perfis.get(fila);
+		return perfil != null ? perfil : PerfilEntrega.DURAVEL_SINCRONO;
+	}
+
+	public void setPerfil(String fila, PerfilEntrega perfil) {
+		perfis.put(fila, perfil);
 	}
 	
+	/**
+	 * Como os pedidos das filas sem modo proprio sao agrupados no JMSXGroupID
+	 * (ver {@link Pedido#getGrupo(int)}); padrao: {@link Pedido#GRUPO_NENHUM}.
+	 */
+	public int getModoGrupo() {
+		return modoGrupo;
+	}
+
+	public void setModoGrupo(int modoGrupo) {
+		this.modoGrupo = modoGrupo;
+	}
+
+	/**
+	 * Agrupamento dos pedidos publicados na fila. O grupo prende os pedidos a
+	 * um consumidor do broker, entao so deve ser ligado quando a fila tem
+	 * consumidores de vida longa (ValidadorLote em "pedidos",
+	 * RespondedorValidacao em "validacao"): os consumidores de curta duracao
+	 * com seletor em JMSCorrelationID nao recebem um pedido preso ao grupo de
+	 * outro consumidor.
+	 */
+	public int getModoGrupo(String fila) {
+		Integer modo = gruposPorFila.get(fila);
+		return modo != null ? modo : modoGrupo;
+	}
+
+	public void setModoGrupo(String fila, int modoGrupo) {
+		gruposPorFila.put(fila, modoGrupo);
+	}
+
+	/**
+	 * Marca a mensagem com o grupo do pedido, se o agrupamento estiver ligado
+	 * para a fila.
+	 */
+	public void marcarGrupo(Message mensagem, Pedido pedido, String fila) throws JMSException {
+		String grupo = pedido.getGrupo(getModoGrupo(fila));
+		if (grupo != null) {
+			mensagem.setStringProperty("JMSXGroupID", grupo);
+		}
+	}
+
+	/** Tempo maximo de um envio sincrono (0: sem limite). */
+	public int getTimeoutEnvioMs() {
+		return timeoutEnvioMs;
+	}
+
+	public void setTimeoutEnvioMs(int timeoutEnvioMs) {
+		this.timeoutEnvioMs = timeoutEnvioMs;
+	}
+
+	/** Tempo maximo de espera de um receive dos JmsTemplate (0: sem limite). */
+	public long getTimeoutRecebimentoMs() {
+		return timeoutRecebimentoMs;
+	}
+
+	public void setTimeoutRecebimentoMs(long timeoutRecebimentoMs) {
+		this.timeoutRecebimentoMs = timeoutRecebimentoMs;
+	}
+
+	public String getBrokerURL() {
+		return brokerURL;
+	}
+
+	public boolean isBrokerEmbutido() {
+		return brokerEmbutido;
+	}
+
 	public ActiveMQQueue getFilaPendentes() {
 		return filaPendentes;
 	}
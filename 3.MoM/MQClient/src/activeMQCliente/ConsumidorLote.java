@@ -0,0 +1,111 @@
+package activeMQCliente;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+/**
+ * Consome pedidos em lotes dentro de uma sessao transacionada.
+ *
+ * {@link #receber()} espera o primeiro pedido e depois junta ate "tamanho"
+ * pedidos ou ate "linger" ms se passarem, o que vier antes. Os resultados
+ * publicados com {@link #publicar(String, Pedido)} fazem parte da mesma
+ * transacao: um unico {@link #confirmar()} reconhece todos os pedidos do lote
+ * e libera todos os resultados, com um ack e uma sincronizacao de disco no
+ * broker por lote em vez de por mensagem. Se algo falhar, {@link #desfazer()}
+ * devolve o lote inteiro para a fila.
+ *
+ * Os objetos Pedido do lote sao reaproveitados entre chamadas. Nao e seguro
+ * para uso por mais de uma thread.
+ */
+public class ConsumidorLote implements AutoCloseable {
+
+	/** Tempo maximo de espera pelo primeiro pedido, para quem chama poder parar o laco. */
+	private static final long ESPERA_PRIMEIRO_MS = 1000;
+
+	private final ConfigMQ cfg;
+	private final Connection conexao;
+	private final Session sessao;
+	private final MessageConsumer consumidor;
+	private final MessageProducer produtor;
+	private final Pedido[] lote;
+	private final long lingerMs;
+	private int quantidade;
+
+	ConsumidorLote(ConfigMQ cfg, String fila, int tamanho, long lingerMs) throws JMSException {
+		this.cfg = cfg;
+		this.lote = new Pedido[tamanho];
+		for (int i = 0; i < tamanho; i++) {
+			lote[i] = new Pedido();
+		}
+		this.lingerMs = lingerMs;
+		this.conexao = cfg.activeMQConnectionFactory(cfg.getPerfil(fila)).createConnection();
+		this.sessao = conexao.createSession(true, Session.SESSION_TRANSACTED);
+		this.consumidor = sessao.createConsumer(sessao.createQueue(fila));
+		this.produtor = sessao.createProducer(null);
+		conexao.start();
+	}
+
+	/**
+	 * Recebe o proximo lote.
+	 *
+	 * @return quantidade de pedidos recebidos (0 se nenhum chegou em
+	 *         {@value #ESPERA_PRIMEIRO_MS} ms); os pedidos ficam em
+	 *         {@link #get(int)}
+	 */
+	public int receber() throws JMSException {
+		quantidade = 0;
+		Message mensagem = consumidor.receive(ESPERA_PRIMEIRO_MS);
+		if (mensagem == null) {
+			return 0;
+		}
+		lote[quantidade++].ler(mensagem);
+		long limite = System.currentTimeMillis() + lingerMs;
+		while (quantidade < lote.length) {
+			long restante = limite - System.currentTimeMillis();
+			mensagem = restante > 0 ? consumidor.receive(restante) : consumidor.receiveNoWait();
+			if (mensagem == null) {
+				break;
+			}
+			lote[quantidade++].ler(mensagem);
+		}
+		Log.debug("Lote de {} pedidos recebido", quantidade);
+		return quantidade;
+	}
+
+	public Pedido get(int i) {
+		return lote[i];
+	}
+
+	public int getQuantidade() {
+		return quantidade;
+	}
+
+	/** Publica na fila dentro da transacao do lote atual, com o modo de entrega do perfil dela. */
+	public void publicar(String fila, Pedido pedido) throws JMSException {
+		Queue destino = sessao.createQueue(fila);
+		BytesMessage mensagem = sessao.createBytesMessage();
+		pedido.escrever(mensagem);
+		int modo = cfg.getPerfil(fila).isPersistente() ? DeliveryMode.PERSISTENT : DeliveryMode.NON_PERSISTENT;
+		produtor.send(destino, mensagem, modo, Message.DEFAULT_PRIORITY, Message.DEFAULT_TIME_TO_LIVE);
+	}
+
+	public void confirmar() throws JMSException {
+		sessao.commit();
+	}
+
+	public void desfazer() throws JMSException {
+		sessao.rollback();
+	}
+
+	@Override
+	public void close() throws JMSException {
+		conexao.close();
+	}
+}
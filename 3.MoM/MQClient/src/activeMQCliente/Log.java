@@ -0,0 +1,159 @@
+package activeMQCliente;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Log assincrono com nivel.
+ * 
+ * O nivel vem da propriedade de sistema "ticketnow.log" (DEBUG, INFO, ERRO ou
+ * DESLIGADO; padrao INFO). Quem chama so enfileira a mensagem e os argumentos:
+ * a montagem do texto e a escrita no console acontecem numa thread propria.
+ * Com o nivel desligado nenhum objeto e criado. Se a fila estiver cheia a
+ * mensagem e descartada em vez de bloquear a thread da requisicao.
+ */
+public final class Log {
+
+	public static final int DEBUG = 0;
+	public static final int INFO = 1;
+	public static final int ERRO = 2;
+	public static final int DESLIGADO = 3;
+
+	private static final int CAPACIDADE_FILA = 8192;
+
+	private static volatile int nivel = lerNivel(System.getProperty("ticketnow.log", "INFO"));
+	private static final BlockingQueue<Registro> fila = new ArrayBlockingQueue<Registro>(CAPACIDADE_FILA);
+	private static final AtomicLong descartadas = new AtomicLong();
+
+	static {
+		Thread escritor = new Thread(Log::escrever, "log-" + Log.class.getPackage().getName());
+		escritor.setDaemon(true);
+		escritor.start();
+	}
+
+	private Log() {
+	}
+
+	public static boolean debugAtivo() {
+		return nivel <= DEBUG;
+	}
+
+	public static boolean infoAtivo() {
+		return nivel <= INFO;
+	}
+
+	public static void setNivel(int novoNivel) {
+		nivel = novoNivel;
+	}
+
+	/** Mensagens descartadas porque a fila estava cheia. */
+	public static long getDescartadas() {
+		return descartadas.get();
+	}
+
+	public static void debug(String formato) {
+		if (nivel <= DEBUG) enfileirar(new Registro(formato, null, null, null, null));
+	}
+
+	public static void debug(String formato, Object a) {
+		if (nivel <= DEBUG) enfileirar(new Registro(formato, a, null, null, null));
+	}
+
+	public static void debug(String formato, Object a, Object b) {
+		if (nivel <= DEBUG) enfileirar(new Registro(formato, a, b, null, null));
+	}
+
+	public static void debug(String formato, Object a, Object b, Object c) {
+		if (nivel <= DEBUG) enfileirar(new Registro(formato, a, b, c, null));
+	}
+
+	public static void info(String formato) {
+		if (nivel <= INFO) enfileirar(new Registro(formato, null, null, null, null));
+	}
+
+	public static void info(String formato, Object a) {
+		if (nivel <= INFO) enfileirar(new Registro(formato, a, null, null, null));
+	}
+
+	public static void info(String formato, Object a, Object b) {
+		if (nivel <= INFO) enfileirar(new Registro(formato, a, b, null, null));
+	}
+
+	public static void erro(String formato, Throwable erro) {
+		if (nivel <= ERRO) enfileirar(new Registro(formato, null, null, null, erro));
+	}
+
+	public static void erro(String formato, Object a, Throwable erro) {
+		if (nivel <= ERRO) enfileirar(new Registro(formato, a, null, null, erro));
+	}
+
+	private static void enfileirar(Registro registro) {
+		if (!fila.offer(registro)) {
+			descartadas.incrementAndGet();
+		}
+	}
+
+	private static void escrever() {
+		StringBuilder linha = new StringBuilder(256);
+		while (true) {
+			try {
+				Registro registro = fila.take();
+				linha.setLength(0);
+				registro.formatar(linha);
+				System.out.println(linha);
+				if (registro.erro != null) {
+					registro.erro.printStackTrace();
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (RuntimeException e) {
+				// um toString() com problema nao pode derrubar o escritor
+				descartadas.incrementAndGet();
+			}
+		}
+	}
+
+	private static int lerNivel(String texto) {
+		switch (texto.trim().toUpperCase()) {
+		case "DEBUG":
+			return DEBUG;
+		case "ERRO":
+			return ERRO;
+		case "DESLIGADO":
+			return DESLIGADO;
+		default:
+			return INFO;
+		}
+	}
+
+	/** Mensagem com ate tres argumentos, substituidos nos "{}" do formato. */
+	private static final class Registro {
+		private final String formato;
+		private final Object a;
+		private final Object b;
+		private final Object c;
+		private final Throwable erro;
+
+		Registro(String formato, Object a, Object b, Object c, Throwable erro) {
+			this.formato = formato;
+			this.a = a;
+			this.b = b;
+			this.c = c;
+			this.erro = erro;
+		}
+
+		void formatar(StringBuilder saida) {
+			int argumento = 0;
+			int inicio = 0;
+			int marcador;
+			while ((marcador = formato.indexOf("{}", inicio)) >= 0) {
+				saida.append(formato, inicio, marcador);
+				saida.append(argumento == 0 ? a : argumento == 1 ? b : c);
+				argumento++;
+				inicio = marcador + 2;
+			}
+			saida.append(formato, inicio, formato.length());
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package activeMQCliente;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+/**
+ * Acompanha a profundidade de uma fila em segundo plano, pelas estatisticas
+ * do broker (StatisticsBrokerPlugin): a cada intervaloMs pede a
+ * "ActiveMQ.Statistics.Destination.&lt;fila&gt;" e le o campo "size" da resposta.
+ *
+ * Um QueueBrowser nao serviria: ele so enxerga as mensagens que o broker ja
+ * trouxe para a memoria (algumas centenas), entao uma fila maior parece
+ * sempre menor do que e. O plugin fica ligado no broker embutido e no
+ * activemq.xml do ServidorMQ.
+ *
+ * Quem consulta {@link #getProfundidade()} le o ultimo valor amostrado, sem
+ * tocar no broker. Se a amostra falhar (broker fora, conexao caida, plugin
+ * desligado) a profundidade volta a 0, para nao recusar compras por um valor
+ * velho, e a conexao e refeita na amostra seguinte. So o primeiro erro de
+ * cada sequencia vai para o log.
+ */
+public class MonitorFila implements AutoCloseable {
+
+	private static final String PREFIXO_ESTATISTICAS = "ActiveMQ.Statistics.Destination.";
+
+	private final ConnectionFactory fabrica;
+	private final String fila;
+	private final long intervaloMs;
+	private final Thread thread;
+	private volatile int profundidade;
+	private volatile boolean rodando = true;
+
+	// Usados so pela thread do monitor
+	private Connection conexao;
+	private Session sessao;
+	private MessageProducer produtor;
+	private MessageConsumer respostas;
+	private Queue filaRespostas;
+	private volatile boolean conexaoCaiu;
+	private boolean falhando;
+
+	MonitorFila(ConnectionFactory fabrica, String fila, long intervaloMs) throws JMSException {
+		this.fabrica = fabrica;
+		this.fila = fila;
+		this.intervaloMs = intervaloMs;
+		// A primeira conexao e feita aqui, para quem cria o monitor saber se o broker responde
+		conectar();
+		this.thread = new Thread(this::amostrar, "monitor-" + fila);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/** Ultima profundidade amostrada (0 se a ultima amostra falhou). */
+	public int getProfundidade() {
+		return profundidade;
+	}
+
+	private void amostrar() {
+		while (rodando) {
+			try {
+				if (conexao == null || conexaoCaiu) {
+					desconectar();
+					conectar();
+				}
+				profundidade = contar();
+				if (falhando) {
+					Log.info("Profundidade da fila {} voltou a ser amostrada", fila);
+					falhando = false;
+				}
+			} catch (JMSException e) {
+				profundidade = 0;
+				desconectar();
+				if (!falhando) {
+					Log.erro("Erro ao amostrar a profundidade da fila {}", fila, e);
+					falhando = true;
+				}
+			}
+			try {
+				Thread.sleep(intervaloMs);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private void conectar() throws JMSException {
+		conexaoCaiu = false;
+		conexao = fabrica.createConnection();
+		try {
+			conexao.setExceptionListener(e -> conexaoCaiu = true);
+			sessao = conexao.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			produtor = sessao.createProducer(sessao.createQueue(PREFIXO_ESTATISTICAS + fila));
+			produtor.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+			// Sem o plugin o pedido cairia numa fila comum; assim ele vence em vez de acumular
+			produtor.setTimeToLive(Math.max(intervaloMs, 1000));
+			filaRespostas = sessao.createTemporaryQueue();
+			respostas = sessao.createConsumer(filaRespostas);
+			conexao.start();
+		} catch (JMSException e) {
+			desconectar();
+			throw e;
+		}
+	}
+
+	private int contar() throws JMSException {
+		Message pedido = sessao.createMessage();
+		pedido.setJMSReplyTo(filaRespostas);
+		produtor.send(pedido);
+		Message resposta = respostas.receive(Math.max(intervaloMs, 1000));
+		if (!(resposta instanceof MapMessage)) {
+			throw new JMSException("Sem estatisticas da fila " + fila + " (StatisticsBrokerPlugin desligado?)");
+		}
+		long tamanho = ((MapMessage) resposta).getLong("size");
+		return (int) Math.min(tamanho, Integer.MAX_VALUE);
+	}
+
+	private void desconectar() {
+		if (conexao != null) {
+			try {
+				conexao.close();
+			} catch (JMSException e) {
+				// a conexao ja estava caida
+			}
+		}
+		conexao = null;
+		sessao = null;
+		produtor = null;
+		respostas = null;
+		filaRespostas = null;
+	}
+
+	@Override
+	public void close() throws JMSException {
+		rodando = false;
+		thread.interrupt();
+		try {
+			thread.join(intervaloMs + 1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		desconectar();
+	}
+}
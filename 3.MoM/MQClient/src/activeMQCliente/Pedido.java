@@ -0,0 +1,329 @@
+package activeMQCliente;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+import javax.jms.TextMessage;
+
+/**
+ * Pedido de validacao de cartao que trafega pelas filas "pedidos" e
+ * "concluidos", e o resultado dele (campo status).
+ *
+ * Vai num BytesMessage com formato binario versionado em vez do texto
+ * "Cadeira:CodCartao:DataValidade:DigitoVerificador". Os campos sao
+ * primitivos e a mesma instancia pode ser reaproveitada entre mensagens: o
+ * buffer de escrita/leitura e um por thread, entao codificar e decodificar
+ * nao cria objetos. Mensagens de texto no formato antigo continuam sendo
+ * aceitas por {@link #ler(Message)}.
+ *
+ * @author marlonrcfranco
+ */
+public class Pedido {
+
+	public static final int STATUS_PENDENTE = 0;
+	public static final int STATUS_VALIDO = 1;
+	public static final int STATUS_INVALIDO = 2;
+
+	public static final int SESSAO_PADRAO = 1;
+
+	/** Sem JMSXGroupID: qualquer consumidor recebe qualquer pedido. */
+	public static final int GRUPO_NENHUM = 0;
+	/** Um grupo por sessao. */
+	public static final int GRUPO_SESSAO = 1;
+	/** Um grupo por bloco de assentos (fileira) de cada sessao. */
+	public static final int GRUPO_FILEIRA = 2;
+
+	/** Os 4 bits altos do primeiro byte guardam a versao do formato. */
+	private static final int VERSAO = 1;
+
+	/** Maior mensagem possivel: cabecalho, correlacao, dois varints e os campos fixos. */
+	private static final int TAMANHO_MAXIMO = 1 + 8 + 5 + 5 + 1 + 1 + 8 + 2 + 2;
+
+	private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[TAMANHO_MAXIMO]);
+
+	private int status;
+	private long correlacao;
+	private int sessao;
+	private int numeroAssento;
+	private char letraFileira;
+	/** Quantidade de digitos do cartao (preserva zeros a esquerda); 0 se nao for numerico. */
+	private int digitosCartao;
+	private long cartao;
+	/** MMAA como numero, ou -1 se nao tiver 4 digitos. */
+	private int dataValidade;
+	/** 3 digitos como numero, ou -1 se nao tiver 3 digitos. */
+	private int digitoVerificador;
+
+	/**
+	 * Preenche o pedido a partir dos mesmos parametros do Web Service.
+	 *
+	 * @param Cadeira
+	 *            Numero seguido da letra da fileira (ex: "1A")
+	 */
+	public Pedido preencher(int sessao, String Cadeira, String CodCartao, String DataValidade,
+			String DigitoVerificador) {
+		this.status = STATUS_PENDENTE;
+		this.correlacao = 0;
+		this.sessao = sessao;
+		int numero = 0;
+		int i = 0;
+		for (; i < Cadeira.length() && Character.isDigit(Cadeira.charAt(i)); i++) {
+			numero = numero * 10 + (Cadeira.charAt(i) - '0');
+		}
+		this.numeroAssento = numero;
+		this.letraFileira = i < Cadeira.length() ? Cadeira.charAt(i) : ' ';
+		this.digitosCartao = CodCartao.length() <= 18 && apenasDigitos(CodCartao) ? CodCartao.length() : 0;
+		this.cartao = digitosCartao > 0 ? Long.parseLong(CodCartao) : 0;
+		this.dataValidade = DataValidade.length() == 4 && apenasDigitos(DataValidade) ? Integer.parseInt(DataValidade) : -1;
+		this.digitoVerificador = DigitoVerificador.length() == 3 && apenasDigitos(DigitoVerificador)
+				? Integer.parseInt(DigitoVerificador)
+				: -1;
+		return this;
+	}
+
+	/**
+	 * Formato (versao 1): um byte com a versao e o status, correlacao (8
+	 * bytes), sessao e numero do assento (varint), fileira (1 byte), numero de
+	 * digitos do cartao (1 byte), cartao (8 bytes), validade e digito
+	 * verificador (2 bytes cada). Um pedido tipico ocupa 25 bytes.
+	 */
+	public void escrever(BytesMessage mensagem) throws JMSException {
+		byte[] buffer = BUFFER.get();
+		int p = 0;
+		buffer[p++] = (byte) (VERSAO << 4 | status);
+		p = escreverLong(buffer, p, correlacao);
+		p = escreverVarInt(buffer, p, sessao);
+		p = escreverVarInt(buffer, p, numeroAssento);
+		buffer[p++] = (byte) letraFileira;
+		buffer[p++] = (byte) digitosCartao;
+		p = escreverLong(buffer, p, cartao);
+		buffer[p++] = (byte) (dataValidade >> 8);
+		buffer[p++] = (byte) dataValidade;
+		buffer[p++] = (byte) (digitoVerificador >> 8);
+		buffer[p++] = (byte) digitoVerificador;
+		mensagem.writeBytes(buffer, 0, p);
+	}
+
+	/**
+	 * Le um pedido de um BytesMessage, ou de um TextMessage no formato antigo
+	 * ("Cadeira:CodCartao:DataValidade:DigitoVerificador[:VALIDO|:INVALIDO]").
+	 */
+	public Pedido ler(Message mensagem) throws JMSException {
+		if (mensagem instanceof TextMessage) {
+			return lerTexto(((TextMessage) mensagem).getText());
+		}
+		if (!(mensagem instanceof BytesMessage)) {
+			throw new MessageFormatException("Tipo de mensagem nao suportado: " + mensagem.getClass().getName());
+		}
+		BytesMessage bytes = (BytesMessage) mensagem;
+		byte[] buffer = BUFFER.get();
+		int tamanho = bytes.readBytes(buffer);
+		if (tamanho < 1 || (buffer[0] & 0xFF) >>> 4 != VERSAO) {
+			throw new MessageFormatException("Versao de Pedido desconhecida: " + (tamanho < 1 ? -1 : (buffer[0] & 0xFF) >>> 4));
+		}
+		int p = 0;
+		status = buffer[p++] & 0x0F;
+		exigir(tamanho, p + 8);
+		correlacao = lerLong(buffer, p);
+		p += 8;
+		long v = lerVarInt(buffer, p, tamanho);
+		sessao = (int) v;
+		p = (int) (v >>> 32);
+		v = lerVarInt(buffer, p, tamanho);
+		numeroAssento = (int) v;
+		p = (int) (v >>> 32);
+		exigir(tamanho, p + 1 + 1 + 8 + 2 + 2);
+		letraFileira = (char) (buffer[p++] & 0xFF);
+		digitosCartao = buffer[p++];
+		cartao = lerLong(buffer, p);
+		p += 8;
+		dataValidade = (short) ((buffer[p] & 0xFF) << 8 | buffer[p + 1] & 0xFF);
+		digitoVerificador = (short) ((buffer[p + 2] & 0xFF) << 8 | buffer[p + 3] & 0xFF);
+		return this;
+	}
+
+	private Pedido lerTexto(String texto) {
+		String[] campos = texto.split(":");
+		if (campos.length < 4) {
+			throw new IllegalArgumentException("Pedido em texto mal formado: " + texto);
+		}
+		preencher(SESSAO_PADRAO, campos[0], campos[1], campos[2], campos[3]);
+		if (campos.length > 4) {
+			status = campos[4].equals("VALIDO") ? STATUS_VALIDO : STATUS_INVALIDO;
+		}
+		return this;
+	}
+
+	/**
+	 * Valor do JMSXGroupID deste pedido: o broker entrega todos os pedidos com
+	 * o mesmo grupo ao mesmo consumidor, em ordem.
+	 * 
+	 * @return "sessao" ou "sessao-fileira" conforme o modo, ou null em
+	 *         {@link #GRUPO_NENHUM}
+	 */
+	public String getGrupo(int modo) {
+		if (modo == GRUPO_SESSAO) {
+			return Integer.toString(sessao);
+		}
+		if (modo == GRUPO_FILEIRA) {
+			return sessao + "-" + letraFileira;
+		}
+		return null;
+	}
+
+	/** Le o modo de agrupamento pelo nome: "nenhum", "sessao" ou "fileira". */
+	public static int modoGrupo(String nome) {
+		if (nome.equals("nenhum")) {
+			return GRUPO_NENHUM;
+		}
+		if (nome.equals("sessao")) {
+			return GRUPO_SESSAO;
+		}
+		if (nome.equals("fileira")) {
+			return GRUPO_FILEIRA;
+		}
+		throw new IllegalArgumentException("Agrupamento desconhecido: " + nome + " (use nenhum, sessao ou fileira)");
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	public boolean isValido() {
+		return status == STATUS_VALIDO;
+	}
+
+	public long getCorrelacao() {
+		return correlacao;
+	}
+
+	public void setCorrelacao(long correlacao) {
+		this.correlacao = correlacao;
+	}
+
+	public int getSessao() {
+		return sessao;
+	}
+
+	public int getNumeroAssento() {
+		return numeroAssento;
+	}
+
+	public char getLetraFileira() {
+		return letraFileira;
+	}
+
+	public int getDigitosCartao() {
+		return digitosCartao;
+	}
+
+	public long getCartao() {
+		return cartao;
+	}
+
+	/** Cadeira no formato do Web Service (ex: "1A"). Cria uma String. */
+	public String getCadeira() {
+		return numeroAssento + String.valueOf(letraFileira);
+	}
+
+	/** Codigo do cartao com os zeros a esquerda, ou "" se nao era numerico. Cria uma String. */
+	public String getCodCartao() {
+		return digitosCartao == 0 ? "" : completarZeros(Long.toString(cartao), digitosCartao);
+	}
+
+	/** Validade MMAA como numero, ou -1 se nao tinha 4 digitos. Nao cria String. */
+	public int getValidadeNumerica() {
+		return dataValidade;
+	}
+
+	/** Digito verificador como numero, ou -1 se nao tinha 3 digitos. Nao cria String. */
+	public int getDigitoVerificadorNumerico() {
+		return digitoVerificador;
+	}
+
+	public String getDataValidade() {
+		return dataValidade < 0 ? "" : completarZeros(Integer.toString(dataValidade), 4);
+	}
+
+	public String getDigitoVerificador() {
+		return digitoVerificador < 0 ? "" : completarZeros(Integer.toString(digitoVerificador), 3);
+	}
+
+	/** Nao inclui os dados do cartao, para nao irem parar no log. */
+	@Override
+	public String toString() {
+		return "Pedido(" + correlacao + ", sessao " + sessao + ", cadeira " + getCadeira() + ", status " + status + ")";
+	}
+
+	private static boolean apenasDigitos(String texto) {
+		for (int i = 0; i < texto.length(); i++) {
+			char c = texto.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return texto.length() > 0;
+	}
+
+	private static String completarZeros(String numero, int digitos) {
+		StringBuilder sb = new StringBuilder(digitos);
+		for (int i = numero.length(); i < digitos; i++) {
+			sb.append('0');
+		}
+		return sb.append(numero).toString();
+	}
+
+	private static int escreverLong(byte[] buffer, int p, long valor) {
+		for (int deslocamento = 56; deslocamento >= 0; deslocamento -= 8) {
+			buffer[p++] = (byte) (valor >>> deslocamento);
+		}
+		return p;
+	}
+
+	private static long lerLong(byte[] buffer, int p) {
+		long valor = 0;
+		for (int i = 0; i < 8; i++) {
+			valor = valor << 8 | buffer[p + i] & 0xFF;
+		}
+		return valor;
+	}
+
+	/** Inteiro sem sinal, 7 bits por byte: valores ate 127 ocupam 1 byte. */
+	private static int escreverVarInt(byte[] buffer, int p, int valor) {
+		while ((valor & ~0x7F) != 0) {
+			buffer[p++] = (byte) ((valor & 0x7F) | 0x80);
+			valor >>>= 7;
+		}
+		buffer[p++] = (byte) valor;
+		return p;
+	}
+
+	/**
+	 * O buffer e reaproveitado entre mensagens: alem do que a mensagem trouxe
+	 * ficam bytes de um pedido anterior, que nao podem ser lidos.
+	 */
+	private static void exigir(int tamanho, int fim) throws MessageFormatException {
+		if (fim > tamanho) {
+			throw new MessageFormatException("Pedido truncado: " + tamanho + " bytes, esperados ao menos " + fim);
+		}
+	}
+
+	/** Devolve o valor nos 32 bits baixos e a nova posicao nos 32 altos, sem alocar. */
+	private static long lerVarInt(byte[] buffer, int p, int tamanho) throws MessageFormatException {
+		int valor = 0;
+		for (int deslocamento = 0; deslocamento < 35; deslocamento += 7) {
+			exigir(tamanho, p + 1);
+			int b = buffer[p++];
+			valor |= (b & 0x7F) << deslocamento;
+			if ((b & 0x80) == 0) {
+				return (long) p << 32 | valor & 0xFFFFFFFFL;
+			}
+		}
+		throw new MessageFormatException("Varint invalido em Pedido");
+	}
+}
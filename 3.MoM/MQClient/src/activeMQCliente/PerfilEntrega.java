@@ -0,0 +1,92 @@
+package activeMQCliente;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.springframework.jms.core.JmsTemplate;
+
+import metricas.Histograma;
+import metricas.Metricas;
+
+/**
+ * Perfil de entrega de uma fila: como o produtor envia e como o consumidor
+ * reconhece as mensagens.
+ *
+ * durable-sync: mensagem persistente e envio sincrono; o produtor espera o
+ * broker gravar em disco (comportamento original).
+ *
+ * durable-async: mensagem persistente, mas o envio nao espera a confirmacao
+ * do broker; a janela do produtor limita quantos bytes podem estar pendentes.
+ *
+ * fast-non-persistent: mensagem so em memoria no broker (perdida se ele
+ * reiniciar), envio assincrono e acks agrupados no consumidor.
+ */
+public final class PerfilEntrega {
+
+	public static final PerfilEntrega DURAVEL_SINCRONO = new PerfilEntrega("durable-sync", false, 0, 1000, false, true);
+	public static final PerfilEntrega DURAVEL_ASSINCRONO = new PerfilEntrega("durable-async", true, 1024 * 1024, 1000, false, true);
+	public static final PerfilEntrega RAPIDO_NAO_PERSISTENTE = new PerfilEntrega("fast-non-persistent", true, 1024 * 1024, 1000, true, false);
+
+	private static final PerfilEntrega[] PERFIS = { DURAVEL_SINCRONO, DURAVEL_ASSINCRONO, RAPIDO_NAO_PERSISTENTE };
+
+	private final String nome;
+	private final boolean envioAssincrono;
+	private final int janelaProdutor;
+	private final int prefetch;
+	private final boolean ackOtimizado;
+	private final boolean persistente;
+
+	private PerfilEntrega(String nome, boolean envioAssincrono, int janelaProdutor, int prefetch, boolean ackOtimizado,
+			boolean persistente) {
+		this.nome = nome;
+		this.envioAssincrono = envioAssincrono;
+		this.janelaProdutor = janelaProdutor;
+		this.prefetch = prefetch;
+		this.ackOtimizado = ackOtimizado;
+		this.persistente = persistente;
+	}
+
+	/**
+	 * @param nome
+	 *            "durable-sync", "durable-async" ou "fast-non-persistent"
+	 */
+	public static PerfilEntrega porNome(String nome) {
+		for (PerfilEntrega perfil : PERFIS) {
+			if (perfil.nome.equals(nome)) {
+				return perfil;
+			}
+		}
+		throw new IllegalArgumentException(
+				"Perfil de entrega desconhecido: " + nome + " (use durable-sync, durable-async ou fast-non-persistent)");
+	}
+
+	public void aplicar(ActiveMQConnectionFactory factory) {
+		factory.setUseAsyncSend(envioAssincrono);
+		factory.setProducerWindowSize(janelaProdutor);
+		factory.getPrefetchPolicy().setQueuePrefetch(prefetch);
+		factory.setOptimizeAcknowledge(ackOtimizado);
+	}
+
+	public void aplicar(JmsTemplate jmsTemplate) {
+		if (!persistente) {
+			jmsTemplate.setExplicitQosEnabled(true);
+			jmsTemplate.setDeliveryPersistent(false);
+		}
+	}
+
+	/** Latencia de publicacao das filas com este perfil ("mq.publicar.<perfil>"). */
+	public Histograma getLatenciaPublicacao() {
+		return Metricas.histograma("mq.publicar." + nome);
+	}
+
+	public String getNome() {
+		return nome;
+	}
+
+	public boolean isPersistente() {
+		return persistente;
+	}
+
+	@Override
+	public String toString() {
+		return nome;
+	}
+}
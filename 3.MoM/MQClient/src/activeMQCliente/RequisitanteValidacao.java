@@ -0,0 +1,147 @@
+package activeMQCliente;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+
+/**
+ * Lado do pedinte na validacao por requisicao/resposta, como no
+ * RequesterTool dos exemplos do ActiveMQ: o pedido vai para a fila
+ * "validacao" com JMSReplyTo apontando para uma fila temporaria e
+ * JMSCorrelationID igual a correlacao do Pedido.
+ *
+ * Existe uma instancia por broker no processo. Ela mantem uma conexao, a fila
+ * temporaria e um consumidor que entrega cada resposta a requisicao que
+ * espera por ela, entao nenhuma fila temporaria e criada por pedido.
+ *
+ * Se a conexao cair (ExceptionListener) ou um envio falhar, a instancia sai
+ * do mapa e as requisicoes pendentes falham na hora; o proximo pedido abre
+ * uma instancia nova, com conexao e fila temporaria novas.
+ */
+public class RequisitanteValidacao {
+
+	public static final String FILA_VALIDACAO = "validacao";
+
+	private static final Map<String, RequisitanteValidacao> instancias = new ConcurrentHashMap<String, RequisitanteValidacao>();
+
+	private final ConfigMQ cfg;
+	private final String chave;
+	private final Connection conexao;
+	private final Session sessaoEnvio;
+	private final MessageProducer produtor;
+	private final Queue filaValidacao;
+	private final TemporaryQueue filaResposta;
+	private final Map<Long, CompletableFuture<Integer>> pendentes = new ConcurrentHashMap<Long, CompletableFuture<Integer>>();
+
+	private RequisitanteValidacao(ConfigMQ cfg) throws JMSException {
+		this.cfg = cfg;
+		this.chave = cfg.getBrokerURL();
+		conexao = cfg.activeMQConnectionFactory(cfg.getPerfil(FILA_VALIDACAO)).createConnection();
+		conexao.setExceptionListener(e -> descartar(e));
+		sessaoEnvio = conexao.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		filaValidacao = sessaoEnvio.createQueue(FILA_VALIDACAO);
+		produtor = sessaoEnvio.createProducer(filaValidacao);
+		// O pedido so serve enquanto o pedinte espera a resposta: nao ha por que persisti-lo
+		produtor.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+
+		Session sessaoResposta = conexao.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		filaResposta = sessaoResposta.createTemporaryQueue();
+		MessageConsumer consumidor = sessaoResposta.createConsumer(filaResposta);
+		Pedido resposta = new Pedido();
+		consumidor.setMessageListener(mensagem -> {
+			try {
+				resposta.ler(mensagem);
+				CompletableFuture<Integer> pendente = pendentes.remove(resposta.getCorrelacao());
+				if (pendente != null) {
+					pendente.complete(resposta.getStatus());
+				}
+			} catch (JMSException e) {
+				Log.erro("Resposta de validacao invalida", e);
+			}
+		});
+		conexao.start();
+	}
+
+	static RequisitanteValidacao obter(ConfigMQ cfg) throws JMSException {
+		RequisitanteValidacao requisitante = instancias.get(cfg.getBrokerURL());
+		if (requisitante == null) {
+			synchronized (instancias) {
+				requisitante = instancias.get(cfg.getBrokerURL());
+				if (requisitante == null) {
+					requisitante = new RequisitanteValidacao(cfg);
+					instancias.put(cfg.getBrokerURL(), requisitante);
+				}
+			}
+		}
+		return requisitante;
+	}
+
+	/**
+	 * Envia o pedido e espera a resposta do validador.
+	 *
+	 * @return {@link Pedido#STATUS_VALIDO} ou {@link Pedido#STATUS_INVALIDO}
+	 * @throws TimeoutException
+	 *             se nenhum validador respondeu em timeoutMs
+	 */
+	public int validar(Pedido pedido, long timeoutMs) throws JMSException, TimeoutException, InterruptedException {
+		CompletableFuture<Integer> resposta = new CompletableFuture<Integer>();
+		pendentes.put(pedido.getCorrelacao(), resposta);
+		try {
+			synchronized (sessaoEnvio) {
+				BytesMessage mensagem = sessaoEnvio.createBytesMessage();
+				pedido.escrever(mensagem);
+				mensagem.setJMSReplyTo(filaResposta);
+				mensagem.setJMSCorrelationID(Long.toString(pedido.getCorrelacao()));
+				cfg.marcarGrupo(mensagem, pedido, FILA_VALIDACAO);
+				// Pedido que ninguem pegou dentro do timeout expira na fila
+				produtor.send(mensagem, DeliveryMode.NON_PERSISTENT, Message.DEFAULT_PRIORITY, timeoutMs);
+			}
+			return resposta.get(timeoutMs, TimeUnit.MILLISECONDS);
+		} catch (JMSException e) {
+			descartar(e);
+			throw e;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof JMSException) {
+				throw (JMSException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			pendentes.remove(pedido.getCorrelacao());
+		}
+	}
+
+	public void encerrar() throws JMSException {
+		instancias.remove(chave, this);
+		conexao.close();
+	}
+
+	/** Tira esta instancia de uso depois de um erro na conexao. */
+	private void descartar(JMSException erro) {
+		if (!instancias.remove(chave, this)) {
+			return;
+		}
+		Log.erro("Conexao de validacao com {} caiu, sera refeita no proximo pedido", chave, erro);
+		for (CompletableFuture<Integer> pendente : pendentes.values()) {
+			pendente.completeExceptionally(erro);
+		}
+		try {
+			conexao.close();
+		} catch (JMSException e) {
+			// a conexao ja estava caida
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package metricas;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias sem locks, no estilo do HdrHistogram.
+ * 
+ * Os valores (em nanossegundos) caem em faixas log-lineares: cada potencia de
+ * dois e dividida em 32 sub-faixas, o que mantem o erro dos percentis abaixo
+ * de ~3% para qualquer ordem de grandeza. Registrar um valor e um
+ * incrementAndGet num AtomicLongArray, sem alocacao.
+ */
+public class Histograma implements HistogramaMBean {
+
+	private static final int BITS_SUBFAIXA = 5;
+	private static final int SUBFAIXAS = 1 << BITS_SUBFAIXA;
+	private static final int FAIXAS = (64 - BITS_SUBFAIXA) * SUBFAIXAS;
+
+	private final String nome;
+	private final AtomicLongArray contagens = new AtomicLongArray(FAIXAS);
+	private final LongAdder total = new LongAdder();
+	private final LongAdder soma = new LongAdder();
+	private final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+	public Histograma(String nome) {
+		this.nome = nome;
+	}
+
+	public String getNome() {
+		return nome;
+	}
+
+	public void registrar(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		contagens.incrementAndGet(indice(nanos));
+		total.increment();
+		soma.add(nanos);
+		maximo.accumulate(nanos);
+	}
+
+	/** Registra o tempo decorrido desde inicioNanos (valor de System.nanoTime()). */
+	public void registrarDesde(long inicioNanos) {
+		registrar(System.nanoTime() - inicioNanos);
+	}
+
+	static int indice(long valor) {
+		if (valor < SUBFAIXAS) {
+			return (int) valor;
+		}
+		int expoente = 63 - Long.numberOfLeadingZeros(valor) - BITS_SUBFAIXA;
+		int mantissa = (int) (valor >>> expoente);
+		return (expoente + 1) * SUBFAIXAS + (mantissa - SUBFAIXAS);
+	}
+
+	/** Maior valor que cai na faixa do indice. */
+	static long limiteSuperior(int indice) {
+		if (indice < SUBFAIXAS) {
+			return indice;
+		}
+		int expoente = indice / SUBFAIXAS - 1;
+		long mantissa = indice % SUBFAIXAS + SUBFAIXAS;
+		return ((mantissa + 1) << expoente) - 1;
+	}
+
+	/**
+	 * Valor abaixo do qual estao a fracao quantil das amostras (ex.: 0.99).
+	 * Usa uma copia das contagens, por isso pode ser chamado durante o registro.
+	 */
+	public long percentil(double quantil) {
+		long[] copia = new long[FAIXAS];
+		long quantidade = 0;
+		for (int i = 0; i < FAIXAS; i++) {
+			copia[i] = contagens.get(i);
+			quantidade += copia[i];
+		}
+		if (quantidade == 0) {
+			return 0;
+		}
+		long alvo = (long) Math.ceil(quantil * quantidade);
+		long acumulado = 0;
+		for (int i = 0; i < FAIXAS; i++) {
+			acumulado += copia[i];
+			if (acumulado >= alvo) {
+				return Math.min(limiteSuperior(i), maximo.get());
+			}
+		}
+		return maximo.get();
+	}
+
+	public void zerar() {
+		for (int i = 0; i < FAIXAS; i++) {
+			contagens.set(i, 0);
+		}
+		total.reset();
+		soma.reset();
+		maximo.reset();
+	}
+
+	@Override
+	public long getContagem() {
+		return total.sum();
+	}
+
+	@Override
+	public double getMediaMs() {
+		long quantidade = total.sum();
+		return quantidade == 0 ? 0 : emMs(soma.sum() / quantidade);
+	}
+
+	@Override
+	public double getP50Ms() {
+		return emMs(percentil(0.50));
+	}
+
+	@Override
+	public double getP95Ms() {
+		return emMs(percentil(0.95));
+	}
+
+	@Override
+	public double getP99Ms() {
+		return emMs(percentil(0.99));
+	}
+
+	@Override
+	public double getP999Ms() {
+		return emMs(percentil(0.999));
+	}
+
+	@Override
+	public double getMaxMs() {
+		return emMs(maximo.get());
+	}
+
+	private static double emMs(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
@@ -0,0 +1,20 @@
+package metricas;
+
+/**
+ * Latencias de um estagio expostas via JMX (ticketnow:type=Latencia).
+ */
+public interface HistogramaMBean {
+	long getContagem();
+
+	double getMediaMs();
+
+	double getP50Ms();
+
+	double getP95Ms();
+
+	double getP99Ms();
+
+	double getP999Ms();
+
+	double getMaxMs();
+}
@@ -0,0 +1,72 @@
+package metricas;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.ObjectName;
+
+/**
+ * Registro das metricas do processo: histogramas de latencia, contadores e
+ * medidores. Os nomes seguem o padrao "processo.operacao.estagio" (ex.:
+ * "ws.comprarIngresso.take").
+ * 
+ * Cada histograma tambem e registrado no servidor JMX da plataforma como
+ * ticketnow:type=Latencia,name=&lt;nome&gt;.
+ */
+public final class Metricas {
+
+	private static final Map<String, Histograma> histogramas = new ConcurrentHashMap<String, Histograma>();
+	private static final Map<String, LongAdder> contadores = new ConcurrentHashMap<String, LongAdder>();
+	private static final Map<String, LongSupplier> medidores = new ConcurrentHashMap<String, LongSupplier>();
+
+	private Metricas() {
+	}
+
+	public static Histograma histograma(String nome) {
+		Histograma histograma = histogramas.get(nome);
+		if (histograma == null) {
+			histograma = histogramas.computeIfAbsent(nome, Metricas::criarHistograma);
+		}
+		return histograma;
+	}
+
+	public static LongAdder contador(String nome) {
+		LongAdder contador = contadores.get(nome);
+		if (contador == null) {
+			contador = contadores.computeIfAbsent(nome, n -> new LongAdder());
+		}
+		return contador;
+	}
+
+	/** Registra um valor lido no momento da coleta (ex.: tamanho de uma fila). */
+	public static void medidor(String nome, LongSupplier valor) {
+		medidores.put(nome, valor);
+	}
+
+	public static Map<String, Histograma> getHistogramas() {
+		return new TreeMap<String, Histograma>(histogramas);
+	}
+
+	public static Map<String, LongAdder> getContadores() {
+		return new TreeMap<String, LongAdder>(contadores);
+	}
+
+	public static Map<String, LongSupplier> getMedidores() {
+		return new TreeMap<String, LongSupplier>(medidores);
+	}
+
+	private static Histograma criarHistograma(String nome) {
+		Histograma histograma = new Histograma(nome);
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(histograma,
+					new ObjectName("ticketnow:type=Latencia,name=" + ObjectName.quote(nome)));
+		} catch (Exception e) {
+			// a metrica continua disponivel pelo ServidorMetricas
+		}
+		return histograma;
+	}
+}
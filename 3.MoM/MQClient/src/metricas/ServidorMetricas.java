@@ -0,0 +1,103 @@
+package metricas;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Endpoint HTTP em texto puro com todas as metricas do processo, em
+ * http://&lt;ip&gt;:&lt;porta&gt;/metricas.
+ * 
+ * A porta e a indicada pelo servidor que o inicia, e pode ser trocada com
+ * -Dticketnow.metricas.porta (0 ou negativo desliga o endpoint).
+ */
+public final class ServidorMetricas {
+
+	private static HttpServer servidor;
+
+	private ServidorMetricas() {
+	}
+
+	public static synchronized void iniciar(int portaPadrao) {
+		int porta = Integer.getInteger("ticketnow.metricas.porta", portaPadrao);
+		if (servidor != null || porta <= 0) {
+			return;
+		}
+		try {
+			servidor = HttpServer.create(new InetSocketAddress(porta), 0);
+			servidor.createContext("/metricas", ServidorMetricas::responder);
+			servidor.start();
+			System.out.println("Metricas em http://localhost:" + porta + "/metricas");
+		} catch (IOException e) {
+			System.out.println("Nao foi possivel abrir o endpoint de metricas na porta " + porta + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Publica outro caminho no mesmo servidor HTTP (ex.: consultas baratas que
+	 * nao precisam passar pelo SOAP).
+	 * 
+	 * @return false se o endpoint de metricas estiver desligado
+	 */
+	public static synchronized boolean adicionarContexto(String caminho, HttpHandler tratador) {
+		if (servidor == null) {
+			return false;
+		}
+		servidor.createContext(caminho, tratador);
+		return true;
+	}
+
+	public static synchronized void parar() {
+		if (servidor != null) {
+			servidor.stop(0);
+			servidor = null;
+		}
+	}
+
+	private static void responder(HttpExchange troca) throws IOException {
+		byte[] corpo = gerarTexto().getBytes(StandardCharsets.UTF_8);
+		troca.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		troca.sendResponseHeaders(200, corpo.length);
+		OutputStream saida = troca.getResponseBody();
+		saida.write(corpo);
+		saida.close();
+	}
+
+	/**
+	 * Uma linha por valor, no formato de texto do Prometheus:
+	 * ticketnow_latencia_ms{nome="ws.comprarIngresso.take",quantil="0.99"} 1.250
+	 */
+	public static String gerarTexto() {
+		StringBuilder texto = new StringBuilder();
+		for (Map.Entry<String, Histograma> item : Metricas.getHistogramas().entrySet()) {
+			String nome = item.getKey();
+			Histograma h = item.getValue();
+			linha(texto, "ticketnow_latencia_ms", nome, "quantil=\"0.5\"", h.getP50Ms());
+			linha(texto, "ticketnow_latencia_ms", nome, "quantil=\"0.99\"", h.getP99Ms());
+			linha(texto, "ticketnow_latencia_ms", nome, "quantil=\"0.999\"", h.getP999Ms());
+			linha(texto, "ticketnow_latencia_ms", nome, "quantil=\"1\"", h.getMaxMs());
+			texto.append("ticketnow_latencia_contagem{nome=\"").append(nome).append("\"} ").append(h.getContagem()).append('\n');
+		}
+		for (Map.Entry<String, LongAdder> item : Metricas.getContadores().entrySet()) {
+			texto.append("ticketnow_contador{nome=\"").append(item.getKey()).append("\"} ").append(item.getValue().sum()).append('\n');
+		}
+		for (Map.Entry<String, LongSupplier> item : Metricas.getMedidores().entrySet()) {
+			texto.append("ticketnow_medidor{nome=\"").append(item.getKey()).append("\"} ").append(item.getValue().getAsLong()).append('\n');
+		}
+		return texto.toString();
+	}
+
+	private static void linha(StringBuilder texto, String metrica, String nome, String rotulo, double valor) {
+		texto.append(metrica).append("{nome=\"").append(nome).append("\",").append(rotulo).append("} ")
+				.append(String.format(Locale.ROOT, "%.3f", valor)).append('\n');
+	}
+}
@@ -0,0 +1,96 @@
+package notificacao;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import activeMQCliente.Log;
+
+/**
+ * Inscritos de cada filme, lidos do tFilmeSubscriber.xml do Sistema Web.
+ *
+ * O arquivo e lido em fluxo (StAX) e vira um mapa titulo -&gt; e-mails. Ele so
+ * e relido quando a data de modificacao muda, entao um aviso nao paga a
+ * leitura do XML inteiro como no FilmeSubject.notify() do PHP.
+ */
+public class CadastroInscritos {
+
+	private final File arquivo;
+	private volatile Map<String, List<String>> inscritos = Collections.emptyMap();
+	private volatile long modificadoEm = -1;
+
+	public CadastroInscritos(String caminho) {
+		this.arquivo = new File(caminho);
+	}
+
+	/** E-mails inscritos no filme (lista vazia se nao houver). */
+	public List<String> getInscritos(String titulo) throws IOException {
+		recarregarSeMudou();
+		List<String> emails = inscritos.get(titulo);
+		return emails != null ? emails : Collections.<String>emptyList();
+	}
+
+	private void recarregarSeMudou() throws IOException {
+		long modificado = arquivo.lastModified();
+		if (modificado == modificadoEm) {
+			return;
+		}
+		synchronized (this) {
+			if (modificado != modificadoEm) {
+				inscritos = ler();
+				modificadoEm = modificado;
+				Log.info("{} carregado: {} filmes com inscritos", arquivo, inscritos.size());
+			}
+		}
+	}
+
+	private Map<String, List<String>> ler() throws IOException {
+		Map<String, List<String>> mapa = new HashMap<String, List<String>>();
+		InputStream entrada = new FileInputStream(arquivo);
+		try {
+			XMLStreamReader leitor = XMLInputFactory.newInstance().createXMLStreamReader(entrada, "UTF-8");
+			String titulo = null;
+			String email = null;
+			while (leitor.hasNext()) {
+				int evento = leitor.next();
+				if (evento == XMLStreamConstants.START_ELEMENT) {
+					String elemento = leitor.getLocalName();
+					if (elemento.equals("filmesubscriber")) {
+						titulo = null;
+						email = null;
+					} else if (elemento.equals("titulo")) {
+						titulo = leitor.getElementText().trim();
+					} else if (elemento.equals("email")) {
+						email = leitor.getElementText().trim();
+					}
+				} else if (evento == XMLStreamConstants.END_ELEMENT && leitor.getLocalName().equals("filmesubscriber")) {
+					if (titulo != null && email != null && !email.isEmpty()) {
+						List<String> emails = mapa.get(titulo);
+						if (emails == null) {
+							emails = new ArrayList<String>();
+							mapa.put(titulo, emails);
+						}
+						emails.add(email);
+					}
+				}
+			}
+			leitor.close();
+		} catch (XMLStreamException e) {
+			throw new IOException("Erro ao ler " + arquivo, e);
+		} finally {
+			entrada.close();
+		}
+		return mapa;
+	}
+}
@@ -0,0 +1,12 @@
+package notificacao;
+
+import java.util.List;
+
+/**
+ * Entrega um aviso a um lote de inscritos (ex.: um e-mail com varios
+ * destinatarios em copia oculta).
+ */
+public interface Notificador {
+
+	void notificar(List<String> emails, String assunto, String texto) throws Exception;
+}
@@ -0,0 +1,18 @@
+package notificacao;
+
+import java.util.List;
+
+import activeMQCliente.Log;
+
+/**
+ * Notificador padrao: so registra o envio no log, como o
+ * InscritoObserver.update() do Sistema Web faz hoje. Troque por um
+ * notificador SMTP para enviar e-mails de verdade.
+ */
+public class NotificadorConsole implements Notificador {
+
+	@Override
+	public void notificar(List<String> emails, String assunto, String texto) {
+		Log.info("Enviando email para {} inscritos: {}", emails.size(), texto);
+	}
+}
@@ -0,0 +1,129 @@
+package notificacao;
+
+import java.io.IOException;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import activeMQCliente.ClientMQ;
+import activeMQCliente.Log;
+
+/**
+ * Publica os eventos de aviso (assento liberado, filme disponivel) no topico
+ * hierarquico do ActiveMQ:
+ *
+ * ticketnow.avisos.&lt;filme&gt;.sessao.&lt;numero&gt; - assento liberado numa sessao
+ * ticketnow.avisos.&lt;filme&gt;.disponivel - filme entrou em cartaz
+ *
+ * Quem quer ouvir um filme so assina "ticketnow.avisos.&lt;filme&gt;.&gt;"; o
+ * {@link ServicoAvisos} assina "ticketnow.avisos.&gt;". Publicar e so um envio:
+ * o custo nao depende de quantos inscritos o filme tem.
+ *
+ * Os eventos sao persistentes, para que a assinatura duravel do
+ * ServicoAvisos os receba mesmo quando ele estava parado. O envio espera o
+ * broker gravar o evento; com "perfil:ticketnow.avisos:durable-async" no
+ * MQconfig.txt ele nao espera.
+ *
+ * Uma instancia (uma conexao) por processo. Se a conexao cair
+ * (ExceptionListener) ou um envio falhar, a instancia e descartada e o
+ * proximo aviso abre outra.
+ */
+public final class PublicadorAvisos {
+
+	public static final String PREFIXO_TOPICO = "ticketnow.avisos";
+	public static final String TIPO_LIBERACAO = "liberacao";
+	public static final String TIPO_DISPONIVEL = "disponivel";
+
+	private static PublicadorAvisos instancia;
+
+	private final Connection conexao;
+	private final Session sessao;
+	private final MessageProducer produtor;
+
+	private PublicadorAvisos() throws IOException, JMSException {
+		conexao = new ClientMQ().criarConexao(PREFIXO_TOPICO);
+		conexao.setExceptionListener(e -> descartar(e));
+		sessao = conexao.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		produtor = sessao.createProducer(null);
+		produtor.setDeliveryMode(DeliveryMode.PERSISTENT);
+		conexao.start();
+	}
+
+	public static synchronized PublicadorAvisos obter() throws IOException, JMSException {
+		if (instancia == null) {
+			instancia = new PublicadorAvisos();
+		}
+		return instancia;
+	}
+
+	/** Um assento da sessao voltou a ficar disponivel. */
+	public void liberacao(String titulo, int sessaoFilme, String cadeira) throws JMSException {
+		publicar(PREFIXO_TOPICO + "." + segmento(titulo) + ".sessao." + sessaoFilme, TIPO_LIBERACAO, titulo, sessaoFilme,
+				cadeira);
+	}
+
+	/** O filme entrou em cartaz. */
+	public void disponivel(String titulo) throws JMSException {
+		publicar(PREFIXO_TOPICO + "." + segmento(titulo) + "." + TIPO_DISPONIVEL, TIPO_DISPONIVEL, titulo, 0, null);
+	}
+
+	private synchronized void publicar(String topico, String tipo, String titulo, int sessaoFilme, String cadeira)
+			throws JMSException {
+		MapMessage mensagem = sessao.createMapMessage();
+		mensagem.setString("tipo", tipo);
+		mensagem.setString("titulo", titulo);
+		mensagem.setInt("sessao", sessaoFilme);
+		if (cadeira != null) {
+			mensagem.setString("cadeira", cadeira);
+		}
+		try {
+			produtor.send(sessao.createTopic(topico), mensagem, DeliveryMode.PERSISTENT, Message.DEFAULT_PRIORITY, 0);
+		} catch (JMSException e) {
+			descartar(e);
+			throw e;
+		}
+	}
+
+	/** Tira esta instancia de uso depois de um erro na conexao. */
+	private void descartar(JMSException erro) {
+		synchronized (PublicadorAvisos.class) {
+			if (instancia != this) {
+				return;
+			}
+			instancia = null;
+		}
+		Log.erro("Conexao do publicador de avisos caiu, sera refeita no proximo aviso", erro);
+		try {
+			conexao.close();
+		} catch (JMSException e) {
+			// a conexao ja estava caida
+		}
+	}
+
+	/**
+	 * Titulo como um segmento do nome do topico: minusculas, e tudo que nao for
+	 * letra ou digito vira "_" (o "." separa niveis e "*"/"&gt;" sao curingas).
+	 */
+	public static String segmento(String titulo) {
+		StringBuilder sb = new StringBuilder(titulo.length());
+		for (int i = 0; i < titulo.length(); i++) {
+			char c = Character.toLowerCase(titulo.charAt(i));
+			sb.append(Character.isLetterOrDigit(c) && c < 128 ? c : '_');
+		}
+		return sb.toString();
+	}
+
+	public void encerrar() throws JMSException {
+		synchronized (PublicadorAvisos.class) {
+			conexao.close();
+			if (instancia == this) {
+				instancia = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package notificacao;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+import activeMQCliente.ClientMQ;
+import activeMQCliente.Log;
+import metricas.Histograma;
+import metricas.Metricas;
+import metricas.ServidorMetricas;
+
+/**
+ * Servico de avisos: assina "ticketnow.avisos.&gt;" e entrega cada evento aos
+ * inscritos do filme.
+ *
+ * Um unico assinante duravel recebe os eventos (assim nenhum evento e
+ * entregue duas vezes, e os que chegarem com o servico parado ficam
+ * guardados no broker); os inscritos sao divididos em lotes e um grupo de
+ * threads entrega os lotes em paralelo. Quem publica o evento nao espera por
+ * nada disso.
+ *
+ * Configurado pelo arquivo Avisosconfig.txt: a primeira linha e o caminho do
+ * tFilmeSubscriber.xml, a segunda "threads:tamanhoLote" (padrao 4:100).
+ *
+ * Uso: java -cp MQClient.jar notificacao.ServicoAvisos
+ */
+public class ServicoAvisos {
+	private static final Histograma DISTRIBUIR = Metricas.histograma("avisos.distribuir");
+	private static final Histograma ENTREGAR_LOTE = Metricas.histograma("avisos.entregarLote");
+	private static final LongAdder ENVIADOS = Metricas.contador("avisos.enviados");
+	private static final LongAdder FALHAS = Metricas.contador("avisos.falhas");
+
+	private final CadastroInscritos cadastro;
+	private final Notificador notificador;
+	private final ExecutorService entregadores;
+	private final int tamanhoLote;
+	private Connection conexao;
+
+	public ServicoAvisos(CadastroInscritos cadastro, Notificador notificador, int threads, int tamanhoLote) {
+		this.cadastro = cadastro;
+		this.notificador = notificador;
+		this.tamanhoLote = tamanhoLote;
+		this.entregadores = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "avisos");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public static void main(String[] args) throws Exception {
+		String caminho = "tFilmeSubscriber.xml";
+		int threads = 4;
+		int tamanhoLote = 100;
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader("Avisosconfig.txt"));
+			String linha = reader.readLine();
+			if (linha != null && !linha.isEmpty()) {
+				caminho = linha.trim();
+			}
+			linha = reader.readLine();
+			if (linha != null && !linha.isEmpty()) {
+				String[] split = linha.split(":");
+				threads = Integer.parseInt(split[0].trim());
+				tamanhoLote = Integer.parseInt(split[1].trim());
+			}
+			reader.close();
+		} catch (IOException e) {
+			System.out.println("Avisosconfig.txt nao encontrado, usando a configuracao padrao");
+		}
+
+		ServicoAvisos servico = new ServicoAvisos(new CadastroInscritos(caminho), new NotificadorConsole(), threads,
+				tamanhoLote);
+		servico.iniciar();
+		System.out.println("Servico de avisos rodando (" + caminho + ", " + threads + " threads, lotes de " + tamanhoLote + ")");
+		ServidorMetricas.iniciar(56100);
+		Thread.currentThread().join();
+	}
+
+	public void iniciar() throws IOException, JMSException {
+		conexao = new ClientMQ().criarConexao(PublicadorAvisos.PREFIXO_TOPICO);
+		conexao.setClientID("ticketnow-avisos");
+		Session sessao = conexao.createSession(false, Session.AUTO_ACKNOWLEDGE);
+		MessageConsumer assinante = sessao.createDurableSubscriber(sessao.createTopic(PublicadorAvisos.PREFIXO_TOPICO + ".>"),
+				"avisos");
+		assinante.setMessageListener(this::distribuir);
+		conexao.start();
+	}
+
+	public void parar() throws JMSException {
+		conexao.close();
+		entregadores.shutdown();
+	}
+
+	/** Chamado pela thread da sessao: so divide os inscritos em lotes. */
+	private void distribuir(Message mensagem) {
+		long inicio = System.nanoTime();
+		try {
+			MapMessage evento = (MapMessage) mensagem;
+			String tipo = evento.getString("tipo");
+			String titulo = evento.getString("titulo");
+			String assunto;
+			String texto;
+			if (PublicadorAvisos.TIPO_LIBERACAO.equals(tipo)) {
+				assunto = "Assento disponivel: " + titulo;
+				texto = "O assento " + evento.getString("cadeira") + " da sessao " + evento.getInt("sessao") + " do filme "
+						+ titulo + " esta disponivel!";
+			} else {
+				assunto = "O filme " + titulo + " chegou!";
+				texto = "O filme " + titulo + " chegou!";
+			}
+			List<String> inscritos = cadastro.getInscritos(titulo);
+			for (int i = 0; i < inscritos.size(); i += tamanhoLote) {
+				List<String> lote = inscritos.subList(i, Math.min(i + tamanhoLote, inscritos.size()));
+				entregadores.execute(() -> entregar(lote, assunto, texto));
+			}
+			Log.debug("Aviso '{}' de {} distribuido para {} inscritos", tipo, titulo, inscritos.size());
+		} catch (JMSException | IOException | ClassCastException e) {
+			Log.erro("Evento de aviso invalido: {}", mensagem, e);
+		}
+		DISTRIBUIR.registrarDesde(inicio);
+	}
+
+	private void entregar(List<String> lote, String assunto, String texto) {
+		long inicio = System.nanoTime();
+		try {
+			notificador.notificar(lote, assunto, texto);
+			ENVIADOS.add(lote.size());
+		} catch (Exception e) {
+			FALHAS.add(lote.size());
+			Log.erro("Falha ao entregar '{}' para um lote de inscritos", assunto, e);
+		}
+		ENTREGAR_LOTE.registrarDesde(inicio);
+	}
+}
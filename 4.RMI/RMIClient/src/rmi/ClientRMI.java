@@ -8,37 +8,127 @@ import java.net.MalformedURLException;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ClientRMI {
+	/**
+	 * Threads que fazem as chamadas com prazo; quem chamou so espera ate o
+	 * prazo. Uma chamada que passou do prazo continua presa no socket ate o
+	 * timeout dele (ver {@link FabricaSocketCliente}), por isso o numero de
+	 * threads e limitado: sem thread livre, a chamada falha na hora.
+	 */
+	private static final int MAX_CHAMADAS_COM_PRAZO = 256;
+	private static final ExecutorService CHAMADAS_COM_PRAZO = new ThreadPoolExecutor(0, MAX_CHAMADAS_COM_PRAZO, 60,
+			TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), r -> {
+				Thread thread = new Thread(r, "rmi-prazo");
+				thread.setDaemon(true);
+				return thread;
+			});
+	static {
+		// O lookup no registry usa os sockets padrao do RMI, sem a fabrica
+		if (System.getProperty("sun.rmi.transport.tcp.responseTimeout") == null) {
+			System.setProperty("sun.rmi.transport.tcp.responseTimeout", "5000");
+		}
+		if (System.getProperty("sun.rmi.transport.proxy.connectTimeout") == null) {
+			System.setProperty("sun.rmi.transport.proxy.connectTimeout", "2000");
+		}
+	}
+
+	/** Stubs ja procurados no registry, por endereco; saem daqui quando falham. */
+	private static final ConcurrentHashMap<String, ValidadorInterface> STUBS = new ConcurrentHashMap<String, ValidadorInterface>();
+	private static volatile ControleHedge hedge;
+	private static final AtomicLong COPIAS = new AtomicLong();
+	private static final AtomicLong NOVAS_TENTATIVAS = new AtomicLong();
+	/** Sessao usada quando o pedido vem pelo ValidaCC, que nao tem sessao. */
+	private static final int SESSAO_PADRAO = 1;
+
 	private String sEndServidor;
 	private String sServico = "Validador";
 	private ValidadorInterface oValidador;
+	private final List<String> servidores = new ArrayList<String>();
 
 	public ClientRMI() throws IOException {
 		CarregaConfiguracoes("RMIconfig.txt");
 	}
 
+	/**
+	 * Le o RMIconfig.txt: cada linha e o endereco ("ip:porta") de um
+	 * Validador. O primeiro atende as chamadas; os demais recebem as copias e
+	 * as novas tentativas da validacao com hedge. Uma linha
+	 * "hedge:percentual[:minimoMs]" limita as copias a percentual% das
+	 * chamadas e a nenhuma antes de minimoMs (padrao 10:1; "hedge:0" desliga).
+	 * Uma linha "tempos:conexaoMs:respostaMs" muda o tempo maximo para
+	 * conectar ao Validador e para esperar cada resposta no socket (padrao
+	 * 2000:5000).
+	 */
 	public boolean CarregaConfiguracoes(String pathRMIconfigtxt) throws IOException {
 		// busca dados do arquivo RMIconfig.txt
 		File file = new File(pathRMIconfigtxt);
 		BufferedReader reader = null;
 		String text = null;
+		double percentualHedge = 10;
+		long minimoHedgeMs = 1;
+		servidores.clear();
 		reader = new BufferedReader(new FileReader(file));
-		text = reader.readLine();
+		while ((text = reader.readLine()) != null) {
+			text = text.trim();
+			if (text.startsWith("hedge:")) {
+				String[] split = text.split(":");
+				percentualHedge = Double.parseDouble(split[1]);
+				if (split.length > 2) {
+					minimoHedgeMs = Long.parseLong(split[2]);
+				}
+			} else if (text.startsWith("tempos:")) {
+				String[] split = text.split(":");
+				FabricaSocketCliente.configurarTempos(Integer.parseInt(split[1]), Integer.parseInt(split[2]));
+			} else if (!text.isEmpty()) {
+				servidores.add(text);
+			}
+		}
 		reader.close();
-		if (text == null || text.isEmpty() || text.equals("")) {
+		if (servidores.isEmpty()) {
 			return false;
 		}
-		sEndServidor = text;
+		sEndServidor = servidores.get(0);
+		if (hedge == null) {
+			synchronized (ClientRMI.class) {
+				if (hedge == null) {
+					hedge = new ControleHedge(percentualHedge, minimoHedgeMs);
+				}
+			}
+		}
 		return true;
 	}
 
+	/** Copias (hedges) de ValidaCC enviadas desde que o processo subiu. */
+	public static long getCopias() {
+		return COPIAS.get();
+	}
+
+	/** Novas tentativas em outro Validador depois de um erro. */
+	public static long getNovasTentativas() {
+		return NOVAS_TENTATIVAS.get();
+	}
+
 	public String testaConexao() {
 		try {
 			oValidador = (ValidadorInterface) Naming.lookup("rmi://" + sEndServidor + "/" + sServico);
 			return oValidador.teste();
 		} catch (MalformedURLException | RemoteException | NotBoundException e) {
-			e.printStackTrace();
+			Log.erro("Falha ao testar a conexao com {}", sEndServidor, e);
 			return "ERRO";
 		}
 	}
@@ -66,14 +156,173 @@ public class ClientRMI {
 		try {
 			oValidador = (ValidadorInterface) Naming.lookup("rmi://" + sEndServidor + "/" + sServico);
 			retorno = oValidador.ValidaCC(Cadeira, codCartao, DataVencimento, DigitoVerificador);
-			System.out.println(retorno);
+			Log.debug("ValidaCC({}): {}", Cadeira, retorno);
 			return retorno;
 		} catch (MalformedURLException | RemoteException | NotBoundException e) {
-			e.printStackTrace();
+			Log.erro("Falha na invocacao de ValidaCC em {}", sEndServidor, e);
+			return "ERRO na invocacao do metodo remoto ValidaCC()";
+		}
+	}
+
+	/**
+	 * Como {@link #ValidaCC(String, String, String, String)}, mas espera no
+	 * maximo prazoMs pelo lookup e pela resposta. O RMI nao tem timeout por
+	 * chamada: sem isso um Validador travado prende quem chamou.
+	 * 
+	 * @param prazoMs
+	 *            Tempo maximo da chamada (0: sem limite)
+	 * @return o mesmo que ValidaCC, ou uma mensagem "ERRO" se o prazo acabou
+	 */
+	public String ValidaCC(String Cadeira, String codCartao, String DataVencimento, String DigitoVerificador,
+			long prazoMs) {
+		if (prazoMs <= 0) {
+			return ValidaCC(Cadeira, codCartao, DataVencimento, DigitoVerificador);
+		}
+		Future<String> resultado;
+		try {
+			resultado = CHAMADAS_COM_PRAZO.submit(() -> ValidaCC(Cadeira, codCartao, DataVencimento, DigitoVerificador));
+		} catch (RejectedExecutionException e) {
+			return "ERRO: ValidaCC sem thread livre (" + MAX_CHAMADAS_COM_PRAZO + " chamadas presas)";
+		}
+		try {
+			return resultado.get(prazoMs, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			resultado.cancel(true);
+			Log.erro("ValidaCC sem resposta de {} no prazo", sEndServidor, e);
+			return "ERRO: ValidaCC sem resposta em " + prazoMs + " ms";
+		} catch (InterruptedException e) {
+			resultado.cancel(true);
+			Thread.currentThread().interrupt();
+			return "ERRO: ValidaCC interrompido";
+		} catch (ExecutionException e) {
+			Log.erro("Falha na invocacao de ValidaCC em {}", sEndServidor, e.getCause());
 			return "ERRO na invocacao do metodo remoto ValidaCC()";
 		}
 	}
 
+	/**
+	 * ValidaCC idempotente, com hedge e nova tentativa entre os Validadores
+	 * do RMIconfig.txt. Vai pelo {@link #ValidaPedido(PedidoValidacao, long)}
+	 * e devolve o resultado no texto do ValidaCC.
+	 * 
+	 * @param idPedido
+	 *            Correlacao do pedido na fila "pedidos" (0: sem id, sem
+	 *            copias nem novas tentativas)
+	 * @param prazoMs
+	 *            Tempo maximo da chamada (0: sem limite)
+	 */
+	public String ValidaCC(long idPedido, String Cadeira, String codCartao, String DataVencimento,
+			String DigitoVerificador, long prazoMs) {
+		PedidoValidacao pedido = new PedidoValidacao().preencher(idPedido, SESSAO_PADRAO, Cadeira, codCartao,
+				DataVencimento, DigitoVerificador);
+		return ValidaPedido(pedido, prazoMs).getTexto();
+	}
+
+	/**
+	 * Valida o pedido pelo metodo remoto ValidaPedido, com hedge e nova
+	 * tentativa entre os Validadores do RMIconfig.txt.
+	 * 
+	 * A chamada vai para o primeiro Validador. Se nao responder dentro do
+	 * p95 recente, uma copia vai para o proximo, e vale a primeira resposta
+	 * que chegar; se um Validador responder com erro, o pedido e tentado no
+	 * proximo. Copias e novas tentativas gastam do mesmo orcamento (ver
+	 * {@link ControleHedge}). O id do pedido garante que ele so e consumido e
+	 * concluido uma vez, nao importa quantos Validadores o recebam.
+	 * 
+	 * @param prazoMs
+	 *            Tempo maximo da chamada (0: sem limite)
+	 * @return o resultado; em falha ou prazo esgotado, um resultado com
+	 *         {@link ResultadoValidacao#isErro()}
+	 */
+	public ResultadoValidacao ValidaPedido(PedidoValidacao pedido, long prazoMs) {
+		long inicio = System.nanoTime();
+		long limite = prazoMs > 0 ? inicio + prazoMs * 1000000 : Long.MAX_VALUE;
+		long idPedido = pedido.getIdPedido();
+		boolean podeRepetir = idPedido != 0 && servidores.size() > 1;
+		long esperaCopiaNs = podeRepetir ? hedge.getEsperaNs() : -1;
+		BlockingQueue<ResultadoValidacao> respostas = new ArrayBlockingQueue<ResultadoValidacao>(servidores.size());
+		enviar(servidores.get(0), pedido, respostas);
+		int enviadas = 1;
+		int recebidas = 0;
+		ResultadoValidacao ultimoErro = null;
+		try {
+			while (true) {
+				long agora = System.nanoTime();
+				if (agora >= limite) {
+					break;
+				}
+				boolean esperandoCopia = esperaCopiaNs >= 0 && enviadas < servidores.size();
+				long esperaNs = limite - agora;
+				if (esperandoCopia) {
+					esperaNs = Math.min(esperaNs, inicio + esperaCopiaNs * enviadas - agora);
+				}
+				ResultadoValidacao resposta = respostas.poll(Math.max(esperaNs, 0), TimeUnit.NANOSECONDS);
+				if (resposta != null) {
+					recebidas++;
+					if (!resposta.isErro()) {
+						Log.debug("ValidaPedido({}): {}", pedido, resposta);
+						return resposta;
+					}
+					ultimoErro = resposta;
+					if (podeRepetir && enviadas < servidores.size() && hedge.gastarFicha()) {
+						NOVAS_TENTATIVAS.incrementAndGet();
+						enviar(servidores.get(enviadas++), pedido, respostas);
+					} else if (recebidas == enviadas) {
+						return ultimoErro;
+					}
+				} else if (esperandoCopia && System.nanoTime() < limite) {
+					if (hedge.gastarFicha()) {
+						COPIAS.incrementAndGet();
+						Log.debug("ValidaPedido({}) passou do p95, copia para {}", pedido, servidores.get(enviadas));
+						enviar(servidores.get(enviadas++), pedido, respostas);
+					} else {
+						// Sem orcamento: so espera a resposta que ja foi pedida
+						esperaCopiaNs = -1;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new ResultadoValidacao(idPedido, "ERRO: ValidaPedido interrompido");
+		}
+		return ultimoErro != null ? ultimoErro
+				: new ResultadoValidacao(idPedido, "ERRO: ValidaPedido sem resposta em " + prazoMs + " ms");
+	}
+
+	private void enviar(String endereco, PedidoValidacao pedido, BlockingQueue<ResultadoValidacao> respostas) {
+		try {
+			CHAMADAS_COM_PRAZO.execute(() -> chamar(endereco, pedido, respostas));
+		} catch (RejectedExecutionException e) {
+			Log.erro("Sem thread livre para chamar ValidaPedido em {}", endereco, e);
+			respostas.offer(new ResultadoValidacao(pedido.getIdPedido(), "ERRO: ValidaPedido sem thread livre"));
+		}
+	}
+
+	private void chamar(String endereco, PedidoValidacao pedido, BlockingQueue<ResultadoValidacao> respostas) {
+		long inicio = System.nanoTime();
+		ResultadoValidacao resposta;
+		try {
+			int status = validador(endereco).ValidaPedido(pedido.getIdPedido(), pedido.getCartao(),
+					pedido.getDigitosCartao(), pedido.getDataValidade(), pedido.getDigitoVerificador());
+			resposta = new ResultadoValidacao(pedido.getIdPedido(), status);
+			hedge.registrar(System.nanoTime() - inicio);
+		} catch (MalformedURLException | RemoteException | NotBoundException | RuntimeException e) {
+			STUBS.remove(endereco);
+			Log.erro("Falha na invocacao de ValidaPedido em {}", endereco, e);
+			resposta = new ResultadoValidacao(pedido.getIdPedido(), "ERRO na invocacao do metodo remoto ValidaPedido()");
+		}
+		respostas.offer(resposta);
+	}
+
+	private ValidadorInterface validador(String endereco) throws MalformedURLException, RemoteException, NotBoundException {
+		ValidadorInterface validador = STUBS.get(endereco);
+		if (validador == null) {
+			validador = (ValidadorInterface) Naming.lookup("rmi://" + endereco + "/" + sServico);
+			STUBS.put(endereco, validador);
+		}
+		return validador;
+	}
+
 	public void setEndServidor(String endServidor) {
 		this.sEndServidor = endServidor;
 	}
@@ -0,0 +1,82 @@
+package rmi;
+
+import java.util.Arrays;
+
+/**
+ * Decide quando o ClientRMI manda uma copia (hedge) de ValidaCC para outro
+ * Validador.
+ *
+ * Guarda as latencias das ultimas chamadas que deram certo e recalcula o p95
+ * delas de tempos em tempos: uma chamada que passou do p95 provavelmente
+ * caiu num Validador lento (GC, consumo lento da fila), e a copia tem boa
+ * chance de voltar antes. Para a copia nao virar carga extra sem limite, cada
+ * chamada rende "percentual"/100 de ficha, e cada copia gasta uma ficha
+ * inteira: no maximo percentual% das chamadas viram copias, com uma pequena
+ * reserva para rajadas.
+ */
+class ControleHedge {
+	private static final int AMOSTRAS = 1024;
+	/** Sem amostras suficientes nao ha p95 confiavel, e nao ha copias. */
+	private static final int MINIMO_AMOSTRAS = 50;
+	private static final int RECALCULAR_A_CADA = 64;
+	private static final double MAXIMO_FICHAS = 10;
+
+	private final long[] latencias = new long[AMOSTRAS];
+	private final long[] ordenadas = new long[AMOSTRAS];
+	private int posicao;
+	private int total;
+	private int desdeUltimoCalculo;
+	private volatile long p95Ns = -1;
+
+	private final double fichasPorChamada;
+	private final long minimoNs;
+	private double fichas;
+
+	/**
+	 * @param percentual
+	 *            Maximo de copias, em % das chamadas (0 desliga)
+	 * @param minimoMs
+	 *            Espera minima antes de uma copia, mesmo com p95 menor
+	 */
+	ControleHedge(double percentual, long minimoMs) {
+		this.fichasPorChamada = percentual / 100;
+		this.minimoNs = minimoMs * 1000000;
+	}
+
+	/** Latencia de uma chamada que deu certo; tambem rende a ficha dela. */
+	synchronized void registrar(long latenciaNs) {
+		latencias[posicao] = latenciaNs;
+		posicao = (posicao + 1) % AMOSTRAS;
+		if (total < AMOSTRAS) {
+			total++;
+		}
+		fichas = Math.min(MAXIMO_FICHAS, fichas + fichasPorChamada);
+		if (++desdeUltimoCalculo >= RECALCULAR_A_CADA && total >= MINIMO_AMOSTRAS) {
+			desdeUltimoCalculo = 0;
+			System.arraycopy(latencias, 0, ordenadas, 0, total);
+			Arrays.sort(ordenadas, 0, total);
+			p95Ns = ordenadas[(int) Math.ceil(total * 0.95) - 1];
+		}
+	}
+
+	/**
+	 * @return quanto esperar pela primeira resposta antes de mandar a copia,
+	 *         ou -1 se ainda nao ha p95 (ou as copias estao desligadas)
+	 */
+	long getEsperaNs() {
+		long p95 = p95Ns;
+		if (p95 < 0 || fichasPorChamada <= 0) {
+			return -1;
+		}
+		return Math.max(p95, minimoNs);
+	}
+
+	/** Gasta uma ficha do orcamento, se houver. */
+	synchronized boolean gastarFicha() {
+		if (fichas >= 1) {
+			fichas -= 1;
+			return true;
+		}
+		return false;
+	}
+}
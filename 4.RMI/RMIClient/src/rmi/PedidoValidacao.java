@@ -0,0 +1,104 @@
+package rmi;
+
+/**
+ * Pedido de validacao do ClientRMI.ValidaPedido.
+ *
+ * Guarda os parametros do ValidaCC ja convertidos para primitivos (os mesmos
+ * campos do activeMQCliente.Pedido, que leva o pedido pelas filas). Vai pela
+ * rede como os argumentos primitivos do ValidadorInterface.ValidaPedido, e nao
+ * como objeto serializado: no RMI cada objeto leva a descricao da classe a
+ * cada chamada, o que o deixaria maior que os quatro Strings do ValidaCC.
+ */
+public class PedidoValidacao {
+	private long idPedido;
+	private int sessao;
+	private int numeroAssento;
+	private char letraFileira;
+	/** Quantidade de digitos do cartao (preserva zeros a esquerda); 0 se nao for numerico. */
+	private int digitosCartao;
+	private long cartao;
+	/** MMAA como numero, ou -1 se nao tiver 4 digitos. */
+	private int dataValidade;
+	/** 3 digitos como numero, ou -1 se nao tiver 3 digitos. */
+	private int digitoVerificador;
+
+	/**
+	 * Preenche o pedido a partir dos mesmos parametros do ValidaCC.
+	 *
+	 * @param idPedido
+	 *            Correlacao do pedido na fila "pedidos" (0: sem pedido na fila)
+	 * @param Cadeira
+	 *            Numero seguido da letra da fileira (ex: "1A")
+	 */
+	public PedidoValidacao preencher(long idPedido, int sessao, String Cadeira, String CodCartao, String DataValidade,
+			String DigitoVerificador) {
+		this.idPedido = idPedido;
+		this.sessao = sessao;
+		int numero = 0;
+		int i = 0;
+		for (; i < Cadeira.length() && Character.isDigit(Cadeira.charAt(i)); i++) {
+			numero = numero * 10 + (Cadeira.charAt(i) - '0');
+		}
+		this.numeroAssento = numero;
+		this.letraFileira = i < Cadeira.length() ? Cadeira.charAt(i) : ' ';
+		this.digitosCartao = CodCartao.length() <= 18 && apenasDigitos(CodCartao) ? CodCartao.length() : 0;
+		this.cartao = digitosCartao > 0 ? Long.parseLong(CodCartao) : 0;
+		this.dataValidade = DataValidade.length() == 4 && apenasDigitos(DataValidade) ? Integer.parseInt(DataValidade) : -1;
+		this.digitoVerificador = DigitoVerificador.length() == 3 && apenasDigitos(DigitoVerificador)
+				? Integer.parseInt(DigitoVerificador)
+				: -1;
+		return this;
+	}
+
+	public long getIdPedido() {
+		return idPedido;
+	}
+
+	public int getSessao() {
+		return sessao;
+	}
+
+	public int getNumeroAssento() {
+		return numeroAssento;
+	}
+
+	public char getLetraFileira() {
+		return letraFileira;
+	}
+
+	public int getDigitosCartao() {
+		return digitosCartao;
+	}
+
+	public long getCartao() {
+		return cartao;
+	}
+
+	public int getDataValidade() {
+		return dataValidade;
+	}
+
+	public int getDigitoVerificador() {
+		return digitoVerificador;
+	}
+
+	/** Numero seguido da letra da fileira, como no ValidaCC. */
+	public String getCadeira() {
+		return numeroAssento + String.valueOf(letraFileira);
+	}
+
+	private static boolean apenasDigitos(String texto) {
+		for (int i = 0; i < texto.length(); i++) {
+			char c = texto.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return texto.length() > 0;
+	}
+
+	@Override
+	public String toString() {
+		return "PedidoValidacao(" + idPedido + ", sessao " + sessao + ", cadeira " + getCadeira() + ")";
+	}
+}
@@ -0,0 +1,62 @@
+package rmi;
+
+/**
+ * Resultado do ClientRMI.ValidaPedido: o id do pedido e um dos STATUS_* do
+ * {@link ValidadorInterface}, em vez do texto "Cartão VÁLIDO." do ValidaCC.
+ * Quem chama testa {@link #isValido()} ou {@link #isErro()} sem comparar
+ * Strings; o texto so existe quando ha um erro para explicar.
+ */
+public class ResultadoValidacao {
+	private final long idPedido;
+	private final int status;
+	private final String erro;
+
+	public ResultadoValidacao(long idPedido, int status) {
+		this.idPedido = idPedido;
+		this.status = status;
+		this.erro = status == ValidadorInterface.STATUS_ERRO ? "ERRO: pedido nao concluido pelo Validador" : null;
+	}
+
+	/** Resultado de erro, com a explicacao. */
+	public ResultadoValidacao(long idPedido, String erro) {
+		this.idPedido = idPedido;
+		this.status = ValidadorInterface.STATUS_ERRO;
+		this.erro = erro;
+	}
+
+	public long getIdPedido() {
+		return idPedido;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public boolean isValido() {
+		return status == ValidadorInterface.STATUS_VALIDO;
+	}
+
+	public boolean isErro() {
+		return status == ValidadorInterface.STATUS_ERRO;
+	}
+
+	public String getErro() {
+		return erro;
+	}
+
+	/** O mesmo texto que o ValidaCC devolveria. */
+	public String getTexto() {
+		if (status == ValidadorInterface.STATUS_VALIDO) {
+			return "Cartão VÁLIDO.";
+		}
+		if (status == ValidadorInterface.STATUS_INVALIDO) {
+			return "Cartão INVÁLIDO.";
+		}
+		return erro;
+	}
+
+	@Override
+	public String toString() {
+		return "ResultadoValidacao(" + idPedido + ", status " + status + (erro != null ? ", " + erro : "") + ")";
+	}
+}
@@ -0,0 +1,66 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Socket cujos dados passam compactados (Deflater/Inflater) pela rede.
+ *
+ * Cada flush do RMI termina com um SYNC_FLUSH do Deflater, entao uma chamada
+ * nunca fica presa no compactador esperando mais dados. Vale a pena para
+ * chamadas com muitos dados (lotes); para um unico ValidaCC so gasta CPU.
+ *
+ * Esta classe existe igual no RMIClient e no RMIServer.
+ */
+public class SocketCompactado extends Socket {
+	private static final int TAMANHO_BUFFER = 8192;
+
+	private InputStream entrada;
+	private OutputStream saida;
+	private Inflater inflater;
+	private Deflater deflater;
+
+	/** Socket ainda nao conectado: o ServerSocket faz o accept nele. */
+	public SocketCompactado() {
+		super();
+	}
+
+	@Override
+	public synchronized InputStream getInputStream() throws IOException {
+		if (entrada == null) {
+			inflater = new Inflater();
+			entrada = new InflaterInputStream(super.getInputStream(), inflater, TAMANHO_BUFFER);
+		}
+		return entrada;
+	}
+
+	@Override
+	public synchronized OutputStream getOutputStream() throws IOException {
+		if (saida == null) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+			saida = new DeflaterOutputStream(super.getOutputStream(), deflater, TAMANHO_BUFFER, true);
+		}
+		return saida;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			super.close();
+		} finally {
+			// Deflater e Inflater guardam memoria nativa
+			if (inflater != null) {
+				inflater.end();
+			}
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package rmi;
+
+import java.rmi.RemoteException;
+import java.rmi.server.RemoteObject;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+
+/**
+ * Compara a latencia por chamada do Validador com os sockets padrao do RMI,
+ * com a {@link FabricaSocketServidor} (TCP_NODELAY e buffers) e com a
+ * fabrica compactando os dados. Em cada cenario mede teste(), ValidaCC (quatro
+ * Strings) e ValidaPedido (campos primitivos).
+ *
+ * Cada Validador e exportado neste processo, sem filas (consumo em lote), e
+ * chamado pelo stub, entao cada chamada passa pelo TCP local. Uso:
+ * "java rmi.BenchmarkSockets [chamadas]" (padrao 20000).
+ */
+public class BenchmarkSockets {
+	private static final int AQUECIMENTO = 5000;
+
+	public static void main(String[] args) throws Exception {
+		int chamadas = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		System.out.println("cenario      chamada       media_us   p50_us   p99_us  p99.9_us");
+		medir("padrao", new Validador(true), chamadas);
+		medir("nodelay", new Validador(true, 0, new FabricaSocketServidor(FabricaSocketServidor.TAMANHO_BUFFER_PADRAO, false)), chamadas);
+		medir("compactado", new Validador(true, 0, new FabricaSocketServidor(FabricaSocketServidor.TAMANHO_BUFFER_PADRAO, true)), chamadas);
+		System.exit(0);
+	}
+
+	private static void medir(String cenario, Validador validador, int chamadas) throws RemoteException {
+		ValidadorInterface stub = (ValidadorInterface) RemoteObject.toStub(validador);
+		for (int i = 0; i < AQUECIMENTO; i++) {
+			stub.ValidaCC("1A", "7000000000000000", "1230", "123");
+			stub.ValidaPedido(0, 7000000000000000L, 16, 1230, 123);
+		}
+		long[] teste = new long[chamadas];
+		long[] validaCC = new long[chamadas];
+		long[] validaPedido = new long[chamadas];
+		for (int i = 0; i < chamadas; i++) {
+			long inicio = System.nanoTime();
+			stub.teste();
+			teste[i] = System.nanoTime() - inicio;
+			inicio = System.nanoTime();
+			stub.ValidaCC("1A", "7000000000000000", "1230", "123");
+			validaCC[i] = System.nanoTime() - inicio;
+			inicio = System.nanoTime();
+			stub.ValidaPedido(0, 7000000000000000L, 16, 1230, 123);
+			validaPedido[i] = System.nanoTime() - inicio;
+		}
+		imprimir(cenario, "teste", teste);
+		imprimir(cenario, "ValidaCC", validaCC);
+		imprimir(cenario, "ValidaPedido", validaPedido);
+		UnicastRemoteObject.unexportObject(validador, true);
+	}
+
+	private static void imprimir(String cenario, String chamada, long[] latencias) {
+		Arrays.sort(latencias);
+		long soma = 0;
+		for (long latencia : latencias) {
+			soma += latencia;
+		}
+		System.out.println(String.format("%-12s %-12s %9.1f %8.1f %8.1f %9.1f", cenario, chamada,
+				soma / 1000.0 / latencias.length, percentil(latencias, 0.50), percentil(latencias, 0.99),
+				percentil(latencias, 0.999)));
+	}
+
+	private static double percentil(long[] ordenadas, double p) {
+		return ordenadas[(int) Math.ceil(ordenadas.length * p) - 1] / 1000.0;
+	}
+}
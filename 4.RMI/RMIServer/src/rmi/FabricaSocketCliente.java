@@ -0,0 +1,107 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+
+/**
+ * Sockets do lado do cliente para chamar o Validador.
+ *
+ * O Servidor RMI exporta o Validador com esta fabrica, e ela vai junto com o
+ * stub: o cliente abre as conexoes com as mesmas opcoes do servidor sem
+ * configurar nada. TCP_NODELAY fica sempre ligado, para a chamada nao esperar
+ * o algoritmo de Nagle; os buffers do socket e a compactacao vem do
+ * Socketconfig.txt do servidor.
+ *
+ * Os tempos maximos de conexao e de espera pela resposta sao do processo que
+ * chama (padrao 2000 e 5000 ms, ver {@link #configurarTempos(int, int)}): o
+ * RMI le a resposta bloqueado no socket, e so o timeout do socket solta essa
+ * thread se o Validador travar.
+ *
+ * O RMI reaproveita as conexoes abertas para o mesmo endereco e a mesma
+ * fabrica (equals/hashCode), por isso a fabrica compara pelas opcoes.
+ *
+ * Esta classe existe igual no RMIClient e no RMIServer.
+ */
+public class FabricaSocketCliente implements RMIClientSocketFactory, Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private static volatile int tempoConexaoMs = 2000;
+	private static volatile int tempoRespostaMs = 5000;
+
+	private final int tamanhoBuffer;
+	private final boolean compactar;
+
+	/**
+	 * @param tamanhoBuffer
+	 *            Buffers de envio e recebimento do socket, em bytes (0 mantem o
+	 *            padrao do sistema)
+	 * @param compactar
+	 *            Passa os dados por um {@link SocketCompactado}
+	 */
+	public FabricaSocketCliente(int tamanhoBuffer, boolean compactar) {
+		this.tamanhoBuffer = tamanhoBuffer;
+		this.compactar = compactar;
+	}
+
+	public Socket createSocket(String host, int port) throws IOException {
+		Socket socket = compactar ? new SocketCompactado() : new Socket();
+		try {
+			configurar(socket, tamanhoBuffer);
+			socket.connect(new InetSocketAddress(host, port), tempoConexaoMs);
+			socket.setSoTimeout(tempoRespostaMs);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		return socket;
+	}
+
+	/**
+	 * Tempos maximos dos sockets abertos daqui em diante neste processo.
+	 *
+	 * @param conexaoMs
+	 *            Para conectar ao Validador (0: sem limite)
+	 * @param respostaMs
+	 *            Para cada leitura do socket, ou seja, para a resposta de uma
+	 *            chamada (0: sem limite)
+	 */
+	public static void configurarTempos(int conexaoMs, int respostaMs) {
+		tempoConexaoMs = conexaoMs;
+		tempoRespostaMs = respostaMs;
+	}
+
+	/** Opcoes comuns aos sockets do cliente e aos aceitos pelo servidor. */
+	static void configurar(Socket socket, int tamanhoBuffer) throws IOException {
+		socket.setTcpNoDelay(true);
+		socket.setKeepAlive(true);
+		if (tamanhoBuffer > 0) {
+			socket.setSendBufferSize(tamanhoBuffer);
+			socket.setReceiveBufferSize(tamanhoBuffer);
+		}
+	}
+
+	public int getTamanhoBuffer() {
+		return tamanhoBuffer;
+	}
+
+	public boolean isCompactar() {
+		return compactar;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof FabricaSocketCliente)) {
+			return false;
+		}
+		FabricaSocketCliente outra = (FabricaSocketCliente) obj;
+		return tamanhoBuffer == outra.tamanhoBuffer && compactar == outra.compactar;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * tamanhoBuffer + (compactar ? 1 : 0);
+	}
+}
@@ -0,0 +1,98 @@
+package rmi;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIServerSocketFactory;
+
+/**
+ * Sockets do lado do servidor para o Validador, par da
+ * {@link FabricaSocketCliente}: as conexoes aceitas recebem TCP_NODELAY, os
+ * mesmos buffers e, se for o caso, a mesma compactacao do cliente.
+ *
+ * Configurado pelo arquivo Socketconfig.txt:
+ * "portaExportacao[:tamanhoBuffer[:compactar]]". A porta fixa do Validador
+ * (padrao: a porta do registry + 2, ja que a + 1 e a das metricas) permite
+ * liberar so ela no firewall; 0 volta a usar uma porta qualquer. O buffer
+ * padrao e de 64 KB, e a compactacao so e ligada com a palavra "compactar".
+ */
+public class FabricaSocketServidor implements RMIServerSocketFactory {
+	public static final int TAMANHO_BUFFER_PADRAO = 65536;
+
+	private final int tamanhoBuffer;
+	private final boolean compactar;
+
+	public FabricaSocketServidor(int tamanhoBuffer, boolean compactar) {
+		this.tamanhoBuffer = tamanhoBuffer;
+		this.compactar = compactar;
+	}
+
+	/** A fabrica do cliente que corresponde a esta, para exportar junto. */
+	public FabricaSocketCliente getFabricaCliente() {
+		return new FabricaSocketCliente(tamanhoBuffer, compactar);
+	}
+
+	public ServerSocket createServerSocket(int port) throws IOException {
+		ServerSocket serverSocket = new ServerSocket() {
+			@Override
+			public Socket accept() throws IOException {
+				Socket socket = compactar ? new SocketCompactado() : new Socket();
+				implAccept(socket);
+				FabricaSocketCliente.configurar(socket, tamanhoBuffer);
+				return socket;
+			}
+		};
+		serverSocket.setReuseAddress(true);
+		if (tamanhoBuffer > 0) {
+			// Antes do bind, para valer tambem para janelas TCP maiores que 64 KB
+			serverSocket.setReceiveBufferSize(tamanhoBuffer);
+		}
+		serverSocket.bind(new InetSocketAddress(port));
+		return serverSocket;
+	}
+
+	/**
+	 * Le o Socketconfig.txt.
+	 *
+	 * @return { portaExportacao, tamanhoBuffer, compactar (1 ou 0) }; sem o
+	 *         arquivo, { portaRegistry + 2, 64 KB, 0 }
+	 */
+	public static int[] CarregaConfiguracoes(String pathSocketconfigtxt, int portaRegistry) {
+		int[] configuracoes = { portaRegistry + 2, TAMANHO_BUFFER_PADRAO, 0 };
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(pathSocketconfigtxt));
+			String linha = reader.readLine();
+			reader.close();
+			if (linha != null && !linha.trim().isEmpty()) {
+				String[] split = linha.trim().split(":");
+				configuracoes[0] = Integer.parseInt(split[0].trim());
+				if (split.length > 1) {
+					configuracoes[1] = Integer.parseInt(split[1].trim());
+				}
+				if (split.length > 2) {
+					configuracoes[2] = "compactar".equals(split[2].trim()) ? 1 : 0;
+				}
+			}
+		} catch (IOException e) {
+			// sem o arquivo, valores padrao
+		}
+		return configuracoes;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof FabricaSocketServidor)) {
+			return false;
+		}
+		FabricaSocketServidor outra = (FabricaSocketServidor) obj;
+		return tamanhoBuffer == outra.tamanhoBuffer && compactar == outra.compactar;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * tamanhoBuffer + (compactar ? 1 : 0);
+	}
+}
@@ -0,0 +1,103 @@
+package rmi;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import activeMQCliente.ClientMQ;
+import activeMQCliente.Log;
+import activeMQCliente.Pedido;
+import activeMQCliente.RequisitanteValidacao;
+import metricas.Histograma;
+import metricas.Metricas;
+
+/**
+ * Lado do validador na validacao por requisicao/resposta, como no exemplo
+ * jms-example-temp-destinations: um grupo de consumidores da fila
+ * "validacao", cada um com a sua sessao, valida o pedido e responde direto no
+ * JMSReplyTo com o mesmo JMSCorrelationID. O resultado tambem e publicado em
+ * "concluidos", como no fluxo pelo RMI.
+ *
+ * So sobe se houver o arquivo Validacaoconfig.txt, com o numero de
+ * consumidores (vazio: 4); sem ele o Servidor RMI nem precisa do broker para
+ * esta fila.
+ */
+public class RespondedorValidacao {
+	private static final Histograma RESPONDER = Metricas.histograma("rmi.validacao.responder");
+
+	private final Connection conexao;
+	private final int modoConcluidos;
+
+	public RespondedorValidacao(int consumidores) throws IOException, JMSException {
+		ClientMQ oClientMQ = new ClientMQ();
+		modoConcluidos = oClientMQ.getPerfil("concluidos").isPersistente() ? DeliveryMode.PERSISTENT : DeliveryMode.NON_PERSISTENT;
+		conexao = oClientMQ.criarConexao(RequisitanteValidacao.FILA_VALIDACAO);
+		for (int i = 0; i < consumidores; i++) {
+			Session sessao = conexao.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			MessageConsumer consumidor = sessao.createConsumer(sessao.createQueue(RequisitanteValidacao.FILA_VALIDACAO));
+			MessageProducer produtor = sessao.createProducer(null);
+			Pedido pedido = new Pedido();
+			consumidor.setMessageListener(mensagem -> responder(sessao, produtor, pedido, mensagem));
+		}
+	}
+
+	/**
+	 * Le o Validacaoconfig.txt.
+	 *
+	 * @return numero de consumidores da fila "validacao", ou 0 sem o arquivo
+	 */
+	public static int CarregaConfiguracoes(String pathValidacaoconfigtxt) {
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(pathValidacaoconfigtxt));
+			String linha = reader.readLine();
+			reader.close();
+			if (linha != null && !linha.isEmpty()) {
+				return Integer.parseInt(linha.trim());
+			}
+		} catch (IOException e) {
+			// sem arquivo, sem validacao por mensagens
+			return 0;
+		}
+		return 4;
+	}
+
+	public void iniciar() throws JMSException {
+		conexao.start();
+	}
+
+	public void parar() throws JMSException {
+		conexao.close();
+	}
+
+	/** Chamado pela thread da sessao; pedido e produtor sao exclusivos dela. */
+	private void responder(Session sessao, MessageProducer produtor, Pedido pedido, Message mensagem) {
+		long inicio = System.nanoTime();
+		try {
+			pedido.ler(mensagem);
+			pedido.setStatus(Validador.cartaoValido(pedido) ? Pedido.STATUS_VALIDO : Pedido.STATUS_INVALIDO);
+			Destination resposta = mensagem.getJMSReplyTo();
+			if (resposta != null) {
+				BytesMessage mensagemResposta = sessao.createBytesMessage();
+				pedido.escrever(mensagemResposta);
+				mensagemResposta.setJMSCorrelationID(mensagem.getJMSCorrelationID());
+				produtor.send(resposta, mensagemResposta, DeliveryMode.NON_PERSISTENT, Message.DEFAULT_PRIORITY, 0);
+			}
+			BytesMessage concluido = sessao.createBytesMessage();
+			pedido.escrever(concluido);
+			produtor.send(sessao.createQueue("concluidos"), concluido, modoConcluidos, Message.DEFAULT_PRIORITY, 0);
+			RESPONDER.registrarDesde(inicio);
+		} catch (JMSException e) {
+			Log.erro("Erro ao responder o pedido de validacao {}", pedido, e);
+		}
+	}
+}
@@ -1,16 +1,59 @@
 package rmi;
 
+import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 
+import javax.jms.JMSException;
+
+import activeMQCliente.ClientMQ;
+import metricas.ServidorMetricas;
+
 public class Server {
 	private int iPorta;
+	private ValidadorLote oValidadorLote;
+	private RespondedorValidacao oRespondedorValidacao;
 
 	public void Inicializa() throws RemoteException {
-		Registry r = LocateRegistry.createRegistry(iPorta);
-		r.rebind("Validador", new Validador());
+		// Com "vm://..." no MQconfig.txt o broker sobe aqui, junto do Validador
+		try {
+			if (new ClientMQ().isBrokerEmbutido()) {
+				System.out.println("Broker ActiveMQ embutido no Servidor RMI");
+			}
+		} catch (IOException e) {
+			throw new RemoteException("Erro ao carregar MQconfig.txt", e);
+		}
+		long[] lote = ValidadorLote.CarregaConfiguracoes("Loteconfig.txt");
+		if (lote != null) {
+			try {
+				oValidadorLote = new ValidadorLote((int) lote[0], lote[1], (int) lote[2]);
+			} catch (IOException | JMSException e) {
+				throw new RemoteException("Erro ao iniciar o consumo em lote", e);
+			}
+			oValidadorLote.iniciar();
+			System.out.println("Consumindo pedidos em lotes de ate " + lote[0] + " (linger " + lote[1] + " ms) com "
+					+ lote[2] + " consumidores");
+		}
+		int consumidores = RespondedorValidacao.CarregaConfiguracoes("Validacaoconfig.txt");
+		if (consumidores > 0) {
+			try {
+				oRespondedorValidacao = new RespondedorValidacao(consumidores);
+				oRespondedorValidacao.iniciar();
+			} catch (IOException | JMSException e) {
+				throw new RemoteException("Erro ao iniciar a validacao por mensagens", e);
+			}
+			System.out.println("Respondendo a fila \"validacao\" com " + consumidores + " consumidores");
+		}
+		int[] sockets = FabricaSocketServidor.CarregaConfiguracoes("Socketconfig.txt", iPorta);
+		FabricaSocketServidor fabrica = new FabricaSocketServidor(sockets[1], sockets[2] == 1);
+		// O registry fica sem compactacao: o cliente o procura com sockets comuns (Naming.lookup)
+		Registry r = LocateRegistry.createRegistry(iPorta, null, new FabricaSocketServidor(sockets[1], false));
+		r.rebind("Validador", new Validador(lote != null, sockets[0], fabrica));
+		System.out.println("Validador na porta " + (sockets[0] == 0 ? "anonima" : String.valueOf(sockets[0]))
+				+ (sockets[2] == 1 ? ", com compactacao" : ""));
 		System.out.println("Server running...");
+		ServidorMetricas.iniciar(iPorta + 1);
 	}
 
 	public int getiPorta() {
@@ -3,14 +3,79 @@ package rmi;
 import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
 
 import activeMQCliente.ClientMQ;
+import activeMQCliente.Log;
+import activeMQCliente.Pedido;
+import metricas.Histograma;
+import metricas.Metricas;
+import rmi.validacao.MotorValidacao;
 
 public class Validador extends UnicastRemoteObject implements ValidadorInterface {
+	private static final Histograma VALIDA_CC_TOTAL = Metricas.histograma("rmi.ValidaCC.total");
+	private static final Histograma VALIDA_CC_CONSUME = Metricas.histograma("rmi.ValidaCC.consumePedidos");
+	private static final Histograma VALIDA_CC_PUBLISH = Metricas.histograma("rmi.ValidaCC.publishConcluidos");
+
+	private static final LongAdder REPETIDOS = Metricas.contador("rmi.ValidaCC.repetidos");
+	private static final LongAdder SEM_PEDIDO = Metricas.contador("rmi.ValidaCC.pedidoDeOutroValidador");
+
+	private static final ThreadLocal<Pedido> PEDIDO = ThreadLocal.withInitial(Pedido::new);
+
+	/** Quanto esperar pelo pedido na fila antes de concluir que outro Validador o levou. */
+	private static final long ESPERA_PEDIDO_MS = 500;
+	/** Quantos resultados por id de pedido ficam guardados. */
+	private static final int MAX_RESULTADOS = 4096;
+	private static final String ERRO_FILA = "ERRO: fila de mensagens indisponivel";
+	private final ConcurrentHashMap<Long, Integer> resultados = new ConcurrentHashMap<Long, Integer>();
+	private final ConcurrentLinkedQueue<Long> ordemResultados = new ConcurrentLinkedQueue<Long>();
+
 	private ClientMQ oClientMQ;
+	private ClientMQ clientMQIdempotente;
+	private final boolean consumoEmLote;
 
 	public Validador() throws RemoteException {
+		this(false);
+	}
+
+	/**
+	 * @param consumoEmLote
+	 *            true quando um {@link ValidadorLote} consome a fila "pedidos";
+	 *            ValidaCC entao apenas valida o cartao, sem tocar nas filas
+	 */
+	public Validador(boolean consumoEmLote) throws RemoteException {
 		super();
+		this.consumoEmLote = consumoEmLote;
+	}
+
+	/**
+	 * Exporta o Validador numa porta fixa, com os sockets da fabrica
+	 * (TCP_NODELAY, buffers e compactacao do Socketconfig.txt).
+	 *
+	 * @param porta
+	 *            Porta do Validador (0: uma porta qualquer)
+	 */
+	public Validador(boolean consumoEmLote, int porta, FabricaSocketServidor fabrica) throws RemoteException {
+		super(porta, fabrica.getFabricaCliente(), fabrica);
+		this.consumoEmLote = consumoEmLote;
+	}
+
+	/**
+	 * Regras de validacao do Regrasconfig.txt (padrao: 16 digitos comecando
+	 * por 7), relidas quando o arquivo muda.
+	 */
+	static final MotorValidacao MOTOR = new MotorValidacao("Regrasconfig.txt");
+
+	static boolean cartaoValido(String CodCartao, String DataValidade, String DigitoVerificador) {
+		return MOTOR.validar(CodCartao, DataValidade, DigitoVerificador);
+	}
+
+	/** As mesmas regras, sobre o pedido binario e sem criar Strings. */
+	static boolean cartaoValido(Pedido pedido) {
+		return MOTOR.validar(pedido.getCartao(), pedido.getDigitosCartao(), pedido.getValidadeNumerica(),
+				pedido.getDigitoVerificadorNumerico());
 	}
 
 	public String teste() throws RemoteException {
@@ -18,23 +83,136 @@ public class Validador extends UnicastRemoteObject implements ValidadorInterface
 	}
 
 	public String ValidaCC(String Cadeira, String CodCartao, String DataValidade, String DigitoVerificador) {
+		long inicioTotal = System.nanoTime();
 		String retorno;
-		String message;
+		Pedido pedido;
+		if (consumoEmLote) {
+			retorno = cartaoValido(CodCartao, DataValidade, DigitoVerificador) ? "Cartão VÁLIDO." : "Cartão INVÁLIDO.";
+			VALIDA_CC_TOTAL.registrarDesde(inicioTotal);
+			return retorno;
+		}
 		try {
 			oClientMQ = new ClientMQ();
 			oClientMQ.CarregaConfiguracoes("MQconfig.txt");
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		message = oClientMQ.consume("pedidos");
-		if (CodCartao.length() != 16 || !CodCartao.startsWith("7")) {
+		long inicio = System.nanoTime();
+		pedido = oClientMQ.consumir("pedidos", PEDIDO.get());
+		VALIDA_CC_CONSUME.registrarDesde(inicio);
+		if (pedido == null) {
+			// O receive agora tem prazo (timeoutRecebimento do MQconfig.txt)
+			VALIDA_CC_TOTAL.registrarDesde(inicioTotal);
+			return "ERRO: nenhum pedido na fila 'pedidos'";
+		}
+		if (!cartaoValido(CodCartao, DataValidade, DigitoVerificador)) {
 			retorno = "Cartão INVÁLIDO.";
-			message = message + ":INVALIDO";
+			pedido.setStatus(Pedido.STATUS_INVALIDO);
 		} else {
 			retorno = "Cartão VÁLIDO.";
-			message = message + ":VALIDO";
+			pedido.setStatus(Pedido.STATUS_VALIDO);
 		}
-		oClientMQ.publish("concluidos", message);
+		inicio = System.nanoTime();
+		oClientMQ.publicar("concluidos", pedido);
+		VALIDA_CC_PUBLISH.registrarDesde(inicio);
+		VALIDA_CC_TOTAL.registrarDesde(inicioTotal);
 		return retorno;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Versao idempotente de ValidaCC, usada pelo ClientRMI com hedge: o mesmo
+	 * idPedido pode chegar duas vezes, aqui ou num outro Validador.
+	 * 
+	 * O pedido e consumido pela correlacao (seletor), entao so um Validador
+	 * o consome e o publica em "concluidos"; o outro devolve erro, e o
+	 * ClientRMI fica com a resposta de quem o consumiu. Os ultimos resultados
+	 * ficam guardados por id, e uma repeticao aqui devolve o mesmo resultado
+	 * sem tocar nas filas.
+	 */
+	public String ValidaCC(long idPedido, String Cadeira, String CodCartao, String DataValidade,
+			String DigitoVerificador) {
+		if (idPedido == 0) {
+			return ValidaCC(Cadeira, CodCartao, DataValidade, DigitoVerificador);
+		}
+		return texto(validarPedido(idPedido, cartaoValido(CodCartao, DataValidade, DigitoVerificador)));
+	}
+
+	/** O mesmo que ValidaCC(long, ...), com os campos primitivos e o status. */
+	public int ValidaPedido(long idPedido, long cartao, int digitosCartao, int dataValidade, int digitoVerificador) {
+		boolean valido = MOTOR.validar(cartao, digitosCartao, dataValidade, digitoVerificador);
+		if (idPedido == 0) {
+			return valido ? STATUS_VALIDO : STATUS_INVALIDO;
+		}
+		return validarPedido(idPedido, valido);
+	}
+
+	/**
+	 * Conclui o pedido idPedido com o cartao ja validado, ou devolve o
+	 * resultado guardado de uma chamada anterior com o mesmo id.
+	 *
+	 * @return um STATUS_* de {@link ValidadorInterface}; STATUS_ERRO se o
+	 *         pedido nao estava na fila (outro Validador o levou, ou ele nem
+	 *         chegou), sem guardar: o pedido nao foi concluido aqui
+	 */
+	private int validarPedido(long idPedido, boolean valido) {
+		Integer anterior = resultados.get(idPedido);
+		if (anterior != null) {
+			REPETIDOS.increment();
+			return anterior;
+		}
+		long inicioTotal = System.nanoTime();
+		int status = valido ? STATUS_VALIDO : STATUS_INVALIDO;
+		if (!consumoEmLote) {
+			ClientMQ clientMQ = clientMQ();
+			if (clientMQ == null) {
+				return STATUS_ERRO;
+			}
+			long inicio = System.nanoTime();
+			Pedido pedido = clientMQ.consumirPedido("pedidos", idPedido, PEDIDO.get(), ESPERA_PEDIDO_MS);
+			VALIDA_CC_CONSUME.registrarDesde(inicio);
+			if (pedido == null) {
+				SEM_PEDIDO.increment();
+				VALIDA_CC_TOTAL.registrarDesde(inicioTotal);
+				return STATUS_ERRO;
+			}
+			pedido.setStatus(valido ? Pedido.STATUS_VALIDO : Pedido.STATUS_INVALIDO);
+			inicio = System.nanoTime();
+			clientMQ.publicar("concluidos", pedido);
+			VALIDA_CC_PUBLISH.registrarDesde(inicio);
+		}
+		guardarResultado(idPedido, status);
+		VALIDA_CC_TOTAL.registrarDesde(inicioTotal);
+		return status;
+	}
+
+	private static String texto(int status) {
+		if (status == STATUS_ERRO) {
+			return ERRO_FILA;
+		}
+		return status == STATUS_VALIDO ? "Cartão VÁLIDO." : "Cartão INVÁLIDO.";
+	}
+
+	private void guardarResultado(long idPedido, int status) {
+		if (resultados.putIfAbsent(idPedido, status) == null) {
+			ordemResultados.add(idPedido);
+			if (resultados.size() > MAX_RESULTADOS) {
+				Long maisAntigo = ordemResultados.poll();
+				if (maisAntigo != null) {
+					resultados.remove(maisAntigo);
+				}
+			}
+		}
+	}
+
+	/** Um ClientMQ por Validador, criado na primeira chamada idempotente. */
+	private synchronized ClientMQ clientMQ() {
+		if (clientMQIdempotente == null) {
+			try {
+				clientMQIdempotente = new ClientMQ();
+			} catch (IOException e) {
+				Log.erro("Erro ao ler o MQconfig.txt", e);
+			}
+		}
+		return clientMQIdempotente;
+	}
+}
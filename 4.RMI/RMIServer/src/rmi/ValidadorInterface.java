@@ -6,4 +6,33 @@ import java.rmi.RemoteException;
 public interface ValidadorInterface extends Remote {
 	public String teste() throws RemoteException;
 	public String ValidaCC(String Cadeira, String CodCartao, String DataValidade, String DigitoVerificador) throws RemoteException;
+
+	/**
+	 * Valida o pedido idPedido (a correlacao dele na fila "pedidos").
+	 * Idempotente: repetir o mesmo id, no mesmo ou em outro Validador, nao
+	 * consome nem conclui o pedido duas vezes.
+	 */
+	public String ValidaCC(long idPedido, String Cadeira, String CodCartao, String DataValidade, String DigitoVerificador) throws RemoteException;
+
+	/**
+	 * Versao 2 do ValidaCC: so os campos que a validacao usa, como
+	 * primitivos, e o resultado como um dos STATUS_* abaixo em vez do texto.
+	 * Sem objetos nem Strings, a chamada nao leva descricao de classe e nao
+	 * cria Strings dos dois lados. Idempotente pelo idPedido, como o
+	 * ValidaCC(long, ...); sem id (0), so valida o cartao.
+	 * 
+	 * @param digitosCartao
+	 *            Quantidade de digitos do cartao (0: cartao nao numerico)
+	 * @param dataValidade
+	 *            MMAA como numero (-1: invalida)
+	 * @param digitoVerificador
+	 *            3 digitos como numero (-1: invalido)
+	 */
+	public int ValidaPedido(long idPedido, long cartao, int digitosCartao, int dataValidade, int digitoVerificador) throws RemoteException;
+
+	/** Resultados do ValidaPedido (mesmos valores do activeMQCliente.Pedido). */
+	public static final int STATUS_VALIDO = 1;
+	public static final int STATUS_INVALIDO = 2;
+	/** O pedido nao foi concluido (ex.: fila de mensagens indisponivel). */
+	public static final int STATUS_ERRO = 3;
 }
\ No newline at end of file
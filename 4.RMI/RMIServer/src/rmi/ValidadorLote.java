@@ -0,0 +1,117 @@
+package rmi;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+import javax.jms.JMSException;
+
+import activeMQCliente.ClientMQ;
+import activeMQCliente.ConsumidorLote;
+import activeMQCliente.Log;
+import activeMQCliente.Pedido;
+import metricas.Histograma;
+import metricas.Metricas;
+
+/**
+ * Consome a fila "pedidos" em lotes transacionados: recebe ate "tamanho"
+ * pedidos (ou o que chegar em "linger" ms), valida cada um, publica todos os
+ * resultados em "concluidos" e confirma uma vez so.
+ *
+ * Ligado pelo arquivo Loteconfig.txt, com uma linha
+ * "tamanho:lingerMs[:consumidores]" (ex: "100:5:8"). Sem o arquivo, o
+ * Validador continua consumindo um pedido por chamada de ValidaCC.
+ *
+ * Cada consumidor tem a sua sessao e a sua thread. Como o ClientMQ marca os
+ * pedidos com JMSXGroupID, o broker entrega todos os pedidos de um mesmo grupo
+ * (sessao ou fileira) sempre ao mesmo consumidor, na ordem em que chegaram, e
+ * grupos diferentes sao validados em paralelo.
+ */
+public class ValidadorLote {
+	private static final Histograma LOTE = Metricas.histograma("rmi.lote.processar");
+
+	private final ConsumidorLote[] consumidores;
+	private final Thread[] threads;
+	private volatile boolean rodando = true;
+
+	public ValidadorLote(int tamanho, long lingerMs, int quantidadeConsumidores) throws IOException, JMSException {
+		ClientMQ oClientMQ = new ClientMQ();
+		consumidores = new ConsumidorLote[quantidadeConsumidores];
+		threads = new Thread[quantidadeConsumidores];
+		for (int i = 0; i < quantidadeConsumidores; i++) {
+			ConsumidorLote consumidor = oClientMQ.criarConsumidorLote("pedidos", tamanho, lingerMs);
+			consumidores[i] = consumidor;
+			threads[i] = new Thread(() -> consumir(consumidor), "validador-lote-" + i);
+			threads[i].setDaemon(true);
+		}
+		Metricas.medidor("rmi.lote.tamanhoMaximo", () -> tamanho);
+		Metricas.medidor("rmi.lote.consumidores", () -> quantidadeConsumidores);
+	}
+
+	/**
+	 * Le o Loteconfig.txt.
+	 *
+	 * @return {tamanho, lingerMs, consumidores}, ou null se o arquivo nao existe
+	 */
+	public static long[] CarregaConfiguracoes(String pathLoteconfigtxt) {
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(pathLoteconfigtxt));
+			String linha = reader.readLine();
+			reader.close();
+			if (linha == null || linha.isEmpty()) {
+				return null;
+			}
+			String[] split = linha.split(":");
+			return new long[] { Integer.parseInt(split[0].trim()), split.length > 1 ? Long.parseLong(split[1].trim()) : 0,
+					split.length > 2 ? Integer.parseInt(split[2].trim()) : 1 };
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	public void iniciar() {
+		for (Thread thread : threads) {
+			thread.start();
+		}
+	}
+
+	public void parar() throws JMSException {
+		rodando = false;
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (ConsumidorLote consumidor : consumidores) {
+			consumidor.close();
+		}
+	}
+
+	private void consumir(ConsumidorLote consumidor) {
+		while (rodando) {
+			try {
+				int quantidade = consumidor.receber();
+				if (quantidade == 0) {
+					continue;
+				}
+				long inicio = System.nanoTime();
+				for (int i = 0; i < quantidade; i++) {
+					Pedido pedido = consumidor.get(i);
+					pedido.setStatus(Validador.cartaoValido(pedido) ? Pedido.STATUS_VALIDO : Pedido.STATUS_INVALIDO);
+					consumidor.publicar("concluidos", pedido);
+				}
+				consumidor.confirmar();
+				LOTE.registrarDesde(inicio);
+			} catch (Exception e) {
+				Log.erro("Erro ao processar lote de pedidos; o lote volta para a fila", e);
+				try {
+					consumidor.desfazer();
+				} catch (JMSException e2) {
+					Log.erro("Erro ao desfazer o lote", e2);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package rmi.validacao;
+
+/**
+ * Conjunto de longs com enderecamento aberto (sondagem linear) sobre um
+ * long[], sem Long nem entradas de HashSet: a lista de cartoes bloqueados
+ * pode ter milhoes de numeros e cada consulta e so um calculo de hash e
+ * algumas leituras seguidas do array.
+ *
+ * Preenchido uma vez com {@link #adicionar(long)} e depois so consultado;
+ * quem publica o conjunto para outras threads (o {@link MotorValidacao}, por
+ * um AtomicReference) garante que elas vejam o conteudo completo.
+ */
+class ConjuntoLongs {
+	/** 0 marca posicao vazia; o proprio 0 fica num campo a parte. */
+	private static final long VAZIO = 0;
+
+	private long[] tabela;
+	private int mascara;
+	private int tamanho;
+	private boolean temZero;
+
+	ConjuntoLongs(int capacidadeEsperada) {
+		int capacidade = 16;
+		// Ocupacao de no maximo 50%, para as sondagens ficarem curtas
+		while (capacidade < capacidadeEsperada * 2) {
+			capacidade <<= 1;
+		}
+		tabela = new long[capacidade];
+		mascara = capacidade - 1;
+	}
+
+	void adicionar(long valor) {
+		if (valor == VAZIO) {
+			if (!temZero) {
+				temZero = true;
+				tamanho++;
+			}
+			return;
+		}
+		if ((tamanho + 1) * 2 > tabela.length) {
+			crescer();
+		}
+		int i = posicao(valor);
+		while (tabela[i] != VAZIO) {
+			if (tabela[i] == valor) {
+				return;
+			}
+			i = (i + 1) & mascara;
+		}
+		tabela[i] = valor;
+		tamanho++;
+	}
+
+	boolean contem(long valor) {
+		if (valor == VAZIO) {
+			return temZero;
+		}
+		int i = posicao(valor);
+		long atual;
+		while ((atual = tabela[i]) != VAZIO) {
+			if (atual == valor) {
+				return true;
+			}
+			i = (i + 1) & mascara;
+		}
+		return false;
+	}
+
+	int tamanho() {
+		return tamanho;
+	}
+
+	private int posicao(long valor) {
+		long h = valor * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mascara;
+	}
+
+	private void crescer() {
+		long[] antiga = tabela;
+		tabela = new long[antiga.length * 2];
+		mascara = tabela.length - 1;
+		for (long valor : antiga) {
+			if (valor != VAZIO) {
+				int i = posicao(valor);
+				while (tabela[i] != VAZIO) {
+					i = (i + 1) & mascara;
+				}
+				tabela[i] = valor;
+			}
+		}
+	}
+}
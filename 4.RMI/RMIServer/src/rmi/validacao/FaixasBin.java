@@ -0,0 +1,103 @@
+package rmi.validacao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Faixas de BIN (os primeiros digitos do cartao, que identificam o emissor)
+ * aceitas pelo Validador.
+ *
+ * Cada faixa e normalizada para os primeiros {@link #DIGITOS} digitos: o
+ * BIN "7" vira 70000000-79999999 e "400000-499999" vira 40000000-49999999.
+ * As faixas sao ordenadas e as sobrepostas, unidas, em dois int[] (inicios e
+ * fins); a consulta e uma busca binaria sobre o prefixo do cartao, sem criar
+ * objetos.
+ */
+class FaixasBin {
+	static final int DIGITOS = 8;
+
+	private static final long[] POTENCIAS = new long[19];
+	static {
+		POTENCIAS[0] = 1;
+		for (int i = 1; i < POTENCIAS.length; i++) {
+			POTENCIAS[i] = POTENCIAS[i - 1] * 10;
+		}
+	}
+
+	private final int[] inicios;
+	private final int[] fins;
+
+	/**
+	 * @param faixas
+	 *            "inicio" ou "inicio-fim", so digitos (ate {@link #DIGITOS})
+	 */
+	FaixasBin(List<String> faixas) {
+		List<int[]> normalizadas = new ArrayList<int[]>(faixas.size());
+		for (String faixa : faixas) {
+			int traco = faixa.indexOf('-');
+			String inicio = traco < 0 ? faixa : faixa.substring(0, traco);
+			String fim = traco < 0 ? faixa : faixa.substring(traco + 1);
+			normalizadas.add(new int[] { completar(inicio.trim(), '0'), completar(fim.trim(), '9') });
+		}
+		normalizadas.sort((a, b) -> Integer.compare(a[0], b[0]));
+		int[] inicios = new int[normalizadas.size()];
+		int[] fins = new int[normalizadas.size()];
+		int n = 0;
+		for (int[] faixa : normalizadas) {
+			if (n > 0 && faixa[0] <= fins[n - 1] + 1) {
+				fins[n - 1] = Math.max(fins[n - 1], faixa[1]);
+			} else {
+				inicios[n] = faixa[0];
+				fins[n] = faixa[1];
+				n++;
+			}
+		}
+		this.inicios = Arrays.copyOf(inicios, n);
+		this.fins = Arrays.copyOf(fins, n);
+	}
+
+	/** Nenhuma faixa configurada: o BIN nao e conferido. */
+	boolean vazia() {
+		return inicios.length == 0;
+	}
+
+	int tamanho() {
+		return inicios.length;
+	}
+
+	boolean contem(long cartao, int digitos) {
+		if (digitos <= 0) {
+			return false;
+		}
+		int prefixo = (int) (digitos >= DIGITOS ? cartao / POTENCIAS[digitos - DIGITOS]
+				: cartao * POTENCIAS[DIGITOS - digitos]);
+		// Ultima faixa que comeca em ou antes do prefixo
+		int baixo = 0;
+		int alto = inicios.length - 1;
+		while (baixo <= alto) {
+			int meio = (baixo + alto) >>> 1;
+			if (inicios[meio] <= prefixo) {
+				baixo = meio + 1;
+			} else {
+				alto = meio - 1;
+			}
+		}
+		return alto >= 0 && prefixo <= fins[alto];
+	}
+
+	private static int completar(String digitos, char preenchimento) {
+		if (digitos.isEmpty() || digitos.length() > DIGITOS) {
+			throw new IllegalArgumentException("BIN deve ter de 1 a " + DIGITOS + " digitos: '" + digitos + "'");
+		}
+		int valor = 0;
+		for (int i = 0; i < DIGITOS; i++) {
+			char c = i < digitos.length() ? digitos.charAt(i) : preenchimento;
+			if (c < '0' || c > '9') {
+				throw new IllegalArgumentException("BIN com caractere invalido: '" + digitos + "'");
+			}
+			valor = valor * 10 + (c - '0');
+		}
+		return valor;
+	}
+}
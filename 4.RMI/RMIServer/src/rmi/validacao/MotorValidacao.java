@@ -0,0 +1,160 @@
+package rmi.validacao;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import activeMQCliente.Log;
+import metricas.Metricas;
+
+/**
+ * Validacao dos cartoes no Servidor RMI.
+ *
+ * As regras ({@link RegrasValidacao}) ficam numa foto imutavel num
+ * AtomicReference. Uma thread em segundo plano confere uma vez por segundo
+ * se o Regrasconfig.txt (ou uma lista de bloqueados citada nele) mudou; se
+ * mudou, monta a foto nova e troca a anterior de uma vez so. As validacoes
+ * nunca esperam pela releitura: quem ja pegou a foto antiga termina nela, e
+ * uma releitura que falha mantem as regras anteriores.
+ *
+ * A validacao em si nao cria objetos: o cartao chega como numero (o Pedido
+ * binario e o ValidaPedido ja trazem assim) ou e lido caractere a caractere
+ * do String do ValidaCC, sem substring nem parse.
+ */
+public class MotorValidacao {
+	private static final long INTERVALO_VERIFICACAO_MS = 1000;
+
+	private final File arquivo;
+	private final AtomicReference<RegrasValidacao> regras = new AtomicReference<RegrasValidacao>(RegrasValidacao.PADRAO);
+	/** Mes corrente (AAAAMM), atualizado junto com a verificacao do arquivo. */
+	private volatile int anoMesAtual = anoMesAgora();
+	// So a thread de verificacao (e o construtor) mexem nestes dois
+	private File[] acompanhados;
+	private long[] modificadoEm = { -1 };
+	private final LongAdder recargas = Metricas.contador("rmi.validacao.recargas");
+	private final LongAdder recusados = Metricas.contador("rmi.validacao.recusados");
+
+	/**
+	 * Le as regras e passa a acompanhar o arquivo.
+	 *
+	 * @param caminho
+	 *            Caminho do Regrasconfig.txt
+	 */
+	public MotorValidacao(String caminho) {
+		this.arquivo = new File(caminho);
+		this.acompanhados = new File[] { arquivo };
+		recarregarSeMudou();
+		Metricas.medidor("rmi.validacao.bloqueados", () -> regras.get().getQuantidadeBloqueados());
+		Metricas.medidor("rmi.validacao.faixasBin", () -> regras.get().getQuantidadeFaixasBin());
+		ScheduledExecutorService verificacao = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "regras-validacao");
+			thread.setDaemon(true);
+			return thread;
+		});
+		verificacao.scheduleWithFixedDelay(() -> {
+			anoMesAtual = anoMesAgora();
+			recarregarSeMudou();
+		}, INTERVALO_VERIFICACAO_MS, INTERVALO_VERIFICACAO_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param cartao
+	 *            Numero do cartao
+	 * @param digitos
+	 *            Quantidade de digitos do cartao (0: nao era numerico)
+	 * @param validade
+	 *            Validade MMAA como numero (-1: invalida)
+	 * @param digitoVerificador
+	 *            3 digitos como numero (-1: invalido)
+	 */
+	public boolean validar(long cartao, int digitos, int validade, int digitoVerificador) {
+		boolean valido = regras.get().aceita(cartao, digitos, validade, digitoVerificador, anoMesAtual);
+		if (!valido) {
+			recusados.increment();
+		}
+		return valido;
+	}
+
+	/** Os parametros do ValidaCC, lidos sem criar Strings. */
+	public boolean validar(CharSequence CodCartao, CharSequence DataValidade, CharSequence DigitoVerificador) {
+		int digitos = CodCartao.length() <= 18 ? CodCartao.length() : 0;
+		long cartao = numero(CodCartao);
+		if (cartao < 0) {
+			digitos = 0;
+			cartao = 0;
+		}
+		int validade = DataValidade.length() == 4 ? (int) numero(DataValidade) : -1;
+		int digitoVerificador = DigitoVerificador.length() == 3 ? (int) numero(DigitoVerificador) : -1;
+		return validar(cartao, digitos, validade, digitoVerificador);
+	}
+
+	/** Valor dos digitos, ou -1 se o texto estiver vazio, tiver outro caractere ou mais de 18 digitos. */
+	static long numero(CharSequence texto) {
+		int tamanho = texto.length();
+		if (tamanho == 0 || tamanho > 18) {
+			return -1;
+		}
+		long valor = 0;
+		for (int i = 0; i < tamanho; i++) {
+			char c = texto.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			valor = valor * 10 + (c - '0');
+		}
+		return valor;
+	}
+
+	public RegrasValidacao getRegras() {
+		return regras.get();
+	}
+
+	private void recarregarSeMudou() {
+		boolean mudou = false;
+		for (int i = 0; i < acompanhados.length && !mudou; i++) {
+			mudou = acompanhados[i].lastModified() != modificadoEm[i];
+		}
+		if (!mudou) {
+			return;
+		}
+		if (!arquivo.exists()) {
+			// sem o arquivo, regras padrao
+			regras.set(RegrasValidacao.PADRAO);
+			acompanhar(new File[] { arquivo });
+			return;
+		}
+		try {
+			long inicio = System.nanoTime();
+			RegrasValidacao novas = RegrasValidacao.ler(arquivo);
+			regras.set(novas);
+			acompanhar(novas.getArquivos());
+			recargas.increment();
+			System.out.println("Regras de validacao carregadas de '" + arquivo + "' (" + novas + ") em "
+					+ (System.nanoTime() - inicio) / 1000000 + " ms");
+		} catch (IOException e) {
+			// So tenta de novo quando algum arquivo mudar outra vez
+			acompanhar(acompanhados);
+			Log.erro("Erro ao carregar as regras de validacao; as anteriores continuam valendo", e);
+		}
+	}
+
+	/** Guarda a data de modificacao dos arquivos, para saber quando reler. */
+	private void acompanhar(File[] arquivos) {
+		long[] modificados = new long[arquivos.length];
+		for (int i = 0; i < arquivos.length; i++) {
+			modificados[i] = arquivos[i].lastModified();
+		}
+		acompanhados = arquivos;
+		modificadoEm = modificados;
+	}
+
+	private static int anoMesAgora() {
+		Calendar agora = Calendar.getInstance();
+		return agora.get(Calendar.YEAR) * 100 + agora.get(Calendar.MONTH) + 1;
+	}
+}
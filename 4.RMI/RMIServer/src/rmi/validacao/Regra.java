@@ -0,0 +1,27 @@
+package rmi.validacao;
+
+/**
+ * Uma regra de validacao de cartao do {@link MotorValidacao}.
+ *
+ * Recebe o pedido ja convertido para primitivos e nao deve criar objetos:
+ * roda uma vez por pedido, em todas as threads do Validador. Regras proprias
+ * entram no Regrasconfig.txt com "regra:nome.da.Classe" (construtor sem
+ * parametros).
+ */
+public interface Regra {
+
+	/**
+	 * @param cartao
+	 *            Numero do cartao
+	 * @param digitos
+	 *            Quantidade de digitos do cartao (0: nao era numerico)
+	 * @param validade
+	 *            Validade MMAA como numero (-1: invalida)
+	 * @param digitoVerificador
+	 *            3 digitos como numero (-1: invalido)
+	 * @param anoMesAtual
+	 *            Mes corrente como AAAAMM (ex.: 202610)
+	 * @return false se o cartao deve ser recusado
+	 */
+	boolean aceita(long cartao, int digitos, int validade, int digitoVerificador, int anoMesAtual);
+}
@@ -0,0 +1,258 @@
+package rmi.validacao;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Um conjunto imutavel de regras de validacao, lido do Regrasconfig.txt.
+ *
+ * Uma regra por linha ("#" comeca um comentario):
+ * <ul>
+ * <li>"digitos:minimo[:maximo]": quantidade de digitos do cartao (padrao 16,
+ * no maximo {@link #DIGITOS_MAXIMO})</li>
+ * <li>"bin:inicio[-fim]": faixa de BIN aceita; pode repetir. Sem nenhuma, vale
+ * "bin:7", a regra antiga; "bin:0-9" aceita qualquer BIN</li>
+ * <li>"luhn": confere o digito de controle (algoritmo de Luhn)</li>
+ * <li>"validade": recusa cartao com validade (MMAA) invalida ou vencida</li>
+ * <li>"digitoVerificador": recusa digito verificador sem 3 digitos</li>
+ * <li>"bloqueado:numero": cartao bloqueado; pode repetir</li>
+ * <li>"bloqueados:arquivo": arquivo com um cartao bloqueado por linha</li>
+ * <li>"regra:nome.da.Classe": uma {@link Regra} propria</li>
+ * </ul>
+ * Sem o arquivo, valem "digitos:16" e "bin:7": 16 digitos comecando por 7.
+ */
+public class RegrasValidacao {
+	/**
+	 * O cartao trafega como long (Pedido e ValidaPedido): com mais de 18
+	 * digitos ele nao cabe e chega como nao numerico.
+	 */
+	public static final int DIGITOS_MAXIMO = 18;
+
+	public static final RegrasValidacao PADRAO = new RegrasValidacao(16, 16, false, false, false,
+			new FaixasBin(binPadrao()), new ConjuntoLongs(0), new Regra[0], new File[0]);
+
+	private final int digitosMinimo;
+	private final int digitosMaximo;
+	private final boolean luhn;
+	private final boolean validade;
+	private final boolean digitoVerificador;
+	private final FaixasBin bins;
+	private final ConjuntoLongs bloqueados;
+	private final Regra[] regras;
+	/** Arquivos lidos para montar as regras, para o motor saber quando reler. */
+	private final File[] arquivos;
+
+	private RegrasValidacao(int digitosMinimo, int digitosMaximo, boolean luhn, boolean validade,
+			boolean digitoVerificador, FaixasBin bins, ConjuntoLongs bloqueados, Regra[] regras, File[] arquivos) {
+		this.digitosMinimo = digitosMinimo;
+		this.digitosMaximo = digitosMaximo;
+		this.luhn = luhn;
+		this.validade = validade;
+		this.digitoVerificador = digitoVerificador;
+		this.bins = bins;
+		this.bloqueados = bloqueados;
+		this.regras = regras;
+		this.arquivos = arquivos;
+	}
+
+	/** Aplica as regras, das mais baratas para as mais caras. Nao cria objetos. */
+	public boolean aceita(long cartao, int digitos, int validadeMMAA, int digitoVerificadorNumero, int anoMesAtual) {
+		if (digitos < digitosMinimo || digitos > digitosMaximo || digitos == 0) {
+			return false;
+		}
+		if (!bins.vazia() && !bins.contem(cartao, digitos)) {
+			return false;
+		}
+		if (digitoVerificador && digitoVerificadorNumero < 0) {
+			return false;
+		}
+		if (validade && !dentroDaValidade(validadeMMAA, anoMesAtual)) {
+			return false;
+		}
+		if (luhn && !luhnValido(cartao)) {
+			return false;
+		}
+		if (bloqueados.contem(cartao)) {
+			return false;
+		}
+		for (Regra regra : regras) {
+			if (!regra.aceita(cartao, digitos, validadeMMAA, digitoVerificadorNumero, anoMesAtual)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Digito de controle de Luhn, direto sobre o numero, da direita para a esquerda. */
+	static boolean luhnValido(long cartao) {
+		int soma = 0;
+		boolean dobrar = false;
+		while (cartao > 0) {
+			int digito = (int) (cartao % 10);
+			cartao /= 10;
+			if (dobrar) {
+				digito *= 2;
+				if (digito > 9) {
+					digito -= 9;
+				}
+			}
+			soma += digito;
+			dobrar = !dobrar;
+		}
+		return soma % 10 == 0;
+	}
+
+	/** Validade MMAA ainda nao passou do mes atual (AAAAMM); o cartao vale ate o fim do mes. */
+	static boolean dentroDaValidade(int validadeMMAA, int anoMesAtual) {
+		if (validadeMMAA < 0) {
+			return false;
+		}
+		int mes = validadeMMAA / 100;
+		if (mes < 1 || mes > 12) {
+			return false;
+		}
+		int anoMes = (2000 + validadeMMAA % 100) * 100 + mes;
+		return anoMes >= anoMesAtual;
+	}
+
+	int getQuantidadeBloqueados() {
+		return bloqueados.tamanho();
+	}
+
+	int getQuantidadeFaixasBin() {
+		return bins.tamanho();
+	}
+
+	File[] getArquivos() {
+		return arquivos;
+	}
+
+	/**
+	 * Le as regras do arquivo. Qualquer erro (linha desconhecida, numero mal
+	 * formado, classe que nao existe) e um IOException: quem chama mantem as
+	 * regras anteriores.
+	 */
+	public static RegrasValidacao ler(File arquivo) throws IOException {
+		int digitosMinimo = 16;
+		int digitosMaximo = 16;
+		boolean luhn = false;
+		boolean validade = false;
+		boolean digitoVerificador = false;
+		List<String> faixas = new ArrayList<String>();
+		List<Long> bloqueadosAvulsos = new ArrayList<Long>();
+		List<File> arquivosBloqueados = new ArrayList<File>();
+		List<Regra> regras = new ArrayList<Regra>();
+		List<File> arquivos = new ArrayList<File>();
+		arquivos.add(arquivo);
+
+		BufferedReader reader = new BufferedReader(new FileReader(arquivo));
+		try {
+			String linha;
+			int numero = 0;
+			while ((linha = reader.readLine()) != null) {
+				numero++;
+				int comentario = linha.indexOf('#');
+				if (comentario >= 0) {
+					linha = linha.substring(0, comentario);
+				}
+				linha = linha.trim();
+				if (linha.isEmpty()) {
+					continue;
+				}
+				int doisPontos = linha.indexOf(':');
+				String nome = doisPontos < 0 ? linha : linha.substring(0, doisPontos).trim();
+				String valor = doisPontos < 0 ? "" : linha.substring(doisPontos + 1).trim();
+				try {
+					if (nome.equals("digitos")) {
+						String[] split = valor.split(":");
+						digitosMinimo = Integer.parseInt(split[0].trim());
+						digitosMaximo = split.length > 1 ? Integer.parseInt(split[1].trim()) : digitosMinimo;
+						if (digitosMinimo < 1 || digitosMaximo < digitosMinimo || digitosMaximo > DIGITOS_MAXIMO) {
+							throw new IllegalArgumentException("digitos deve ficar entre 1 e " + DIGITOS_MAXIMO
+									+ ", com o minimo ate o maximo");
+						}
+					} else if (nome.equals("bin")) {
+						faixas.add(valor);
+					} else if (nome.equals("luhn")) {
+						luhn = true;
+					} else if (nome.equals("validade")) {
+						validade = true;
+					} else if (nome.equals("digitoVerificador")) {
+						digitoVerificador = true;
+					} else if (nome.equals("bloqueado")) {
+						bloqueadosAvulsos.add(Long.parseLong(valor));
+					} else if (nome.equals("bloqueados")) {
+						File lista = new File(valor);
+						if (!lista.isAbsolute() && arquivo.getParentFile() != null) {
+							lista = new File(arquivo.getParentFile(), valor);
+						}
+						arquivosBloqueados.add(lista);
+						arquivos.add(lista);
+					} else if (nome.equals("regra")) {
+						regras.add((Regra) Class.forName(valor).getDeclaredConstructor().newInstance());
+					} else {
+						throw new IllegalArgumentException("regra desconhecida '" + nome + "'");
+					}
+				} catch (ReflectiveOperationException | RuntimeException e) {
+					throw new IOException(arquivo + ", linha " + numero + ": " + e.getMessage(), e);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		ConjuntoLongs bloqueados = new ConjuntoLongs(bloqueadosAvulsos.size());
+		for (Long cartao : bloqueadosAvulsos) {
+			bloqueados.adicionar(cartao);
+		}
+		for (File lista : arquivosBloqueados) {
+			lerBloqueados(lista, bloqueados);
+		}
+		FaixasBin bins;
+		try {
+			bins = new FaixasBin(faixas.isEmpty() ? binPadrao() : faixas);
+		} catch (IllegalArgumentException e) {
+			throw new IOException(arquivo + ": " + e.getMessage(), e);
+		}
+		return new RegrasValidacao(digitosMinimo, digitosMaximo, luhn, validade, digitoVerificador, bins, bloqueados,
+				regras.toArray(new Regra[regras.size()]), arquivos.toArray(new File[arquivos.size()]));
+	}
+
+	/** Um cartao por linha; linhas vazias e comentarios ("#") sao ignorados. */
+	private static void lerBloqueados(File lista, ConjuntoLongs bloqueados) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(lista));
+		try {
+			String linha;
+			while ((linha = reader.readLine()) != null) {
+				linha = linha.trim();
+				if (linha.isEmpty() || linha.startsWith("#")) {
+					continue;
+				}
+				try {
+					bloqueados.adicionar(Long.parseLong(linha));
+				} catch (NumberFormatException e) {
+					throw new IOException(lista + ": cartao bloqueado invalido '" + linha + "'", e);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static List<String> binPadrao() {
+		List<String> faixas = new ArrayList<String>();
+		faixas.add("7");
+		return faixas;
+	}
+
+	@Override
+	public String toString() {
+		return "digitos " + digitosMinimo + "-" + digitosMaximo + ", " + bins.tamanho() + " faixas de BIN, "
+				+ bloqueados.tamanho() + " bloqueados" + (luhn ? ", luhn" : "") + (validade ? ", validade" : "")
+				+ (digitoVerificador ? ", digitoVerificador" : "") + (regras.length > 0 ? ", " + regras.length + " regras proprias" : "");
+	}
+}